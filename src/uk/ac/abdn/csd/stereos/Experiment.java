@@ -1,14 +1,17 @@
 package uk.ac.abdn.csd.stereos;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
 import java.math.MathContext;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -18,9 +21,14 @@ import java.util.Map.Entry;
 // This is to allow communication with the GUI, if it is used
 import javax.swing.JTextArea;
 
+import org.apache.commons.math.random.RandomData;
+import org.apache.commons.math.random.RandomDataImpl;
+
 import uk.ac.abdn.csd.stereos.agents.Agent;
 import uk.ac.abdn.csd.stereos.agents.BehaviouralBias;
+import uk.ac.abdn.csd.stereos.agents.ContractPool;
 import uk.ac.abdn.csd.stereos.agents.Delegation;
+import uk.ac.abdn.csd.stereos.agents.Interaction;
 import uk.ac.abdn.csd.stereos.agents.PerceptualBias;
 import uk.ac.abdn.csd.stereos.agents.Profile;
 import uk.ac.abdn.csd.stereos.agents.evaluators.BiasedEvaluator;
@@ -33,8 +41,11 @@ import uk.ac.abdn.csd.stereos.decision.trustor.TrustorDecisionModel;
 import uk.ac.abdn.csd.stereos.decision.trustor.TrustorMetaDM;
 import uk.ac.abdn.csd.stereos.decision.trustor.TrustorMostTrustedDM;
 import uk.ac.abdn.csd.stereos.exceptions.InvalidParametersException;
+import uk.ac.abdn.csd.stereos.learning.ParallelTrainer;
+import uk.ac.abdn.csd.stereos.learning.TwoStageLearner;
 import uk.ac.abdn.csd.stereos.reputation.AntiBiasFilter;
 import uk.ac.abdn.csd.stereos.trust.EffortAdapter;
+import uk.ac.abdn.csd.stereos.trust.LazyTrustModel;
 import uk.ac.abdn.csd.stereos.trust.NoTrust;
 import uk.ac.abdn.csd.stereos.trust.TrustModel;
 import uk.ac.abdn.csd.stereos.trust.beta.DirectB;
@@ -43,6 +54,20 @@ import uk.ac.abdn.csd.stereos.trust.sl.DirectRepSL;
 import uk.ac.abdn.csd.stereos.trust.sl.DirectRepStereoRepSL;
 
 import uk.ac.abdn.csd.stereos.trust.sl.DirectSL;
+import uk.ac.abdn.csd.stereos.trust.sl.DirectStereoSL;
+import uk.ac.abdn.csd.stereos.trust.sl.LearningCohort;
+import uk.ac.abdn.csd.stereos.util.BatchedSampler;
+import uk.ac.abdn.csd.stereos.util.CandidateView;
+import uk.ac.abdn.csd.stereos.util.CompetitionEngine;
+import uk.ac.abdn.csd.stereos.util.EventScheduler;
+import uk.ac.abdn.csd.stereos.util.PopulationTemplate;
+import uk.ac.abdn.csd.stereos.util.RandomStreams;
+import uk.ac.abdn.csd.stereos.util.TeamEngine;
+import uk.ac.abdn.csd.stereos.util.VirtualPopulation;
+import uk.ac.abdn.csd.stereos.util.MetricsSink;
+import uk.ac.abdn.csd.stereos.util.viewer.History;
+import uk.ac.abdn.csd.stereos.util.viewer.HistoryRecorder;
+import uk.ac.abdn.csd.stereos.util.viewer.MappedHistory;
 import uk.ac.abdn.csd.stereos.util.viewer.State;
 
 /**
@@ -138,6 +163,26 @@ public class Experiment {
     public static final int DM_MONITORING = 202;
     public static final int DM_RI = 203;
     public static final int DM_META = 220;
+    /**
+     * Fields for cohort learning (sharing of stereotype learners)
+     */
+    // every model learns alone
+    public static final int COHORT_OFF = 300;
+    // models of agents with the same profile share a learner
+    public static final int COHORT_PROFILE = 301;
+    // all models share a learner
+    public static final int COHORT_ALL = 302;
+    /**
+     * Event types for the event driven scheduler, in the order they happen
+     * within a time step
+     */
+    private static final int EVENT_SPECIAL = 0;
+    private static final int EVENT_PROGRESS = 1;
+    private static final int EVENT_REPLACE = 2;
+    private static final int EVENT_FORGET = 3;
+    private static final int EVENT_TEAMS = 4;
+    private static final int EVENT_INTERACT = 5;
+    private static final int EVENT_SAMPLE = 6;
     /**
      * This structure maintains a list of all existing agents
      */
@@ -150,7 +195,7 @@ public class Experiment {
     /**
      * Agent assignment to teams
      */
-    private Map<Agent, List<Agent>> assignments;
+    private TeamEngine teamEngine;
     /**
      * EXPERIMENTAL PARAMETER FIELDS
      */
@@ -175,6 +220,47 @@ public class Experiment {
     private int timeSteps;
     // number of time steps that AHTs will live for (fixed for now)
     private int teamLifeTime;
+    // if true, teams expire individually rather than all re-forming at once
+    private boolean teamChurn;
+    // if true, trustee trust models are only built when first used
+    private boolean lazyTrustees;
+    // an empty model of this condition's kind, which answers for trustee
+    // models that haven't been built
+    private TrustModel trusteeEvaluator;
+    // if true, trustees are only built when first accessed, from the
+    // population seed and their index
+    private boolean virtualPopulation;
+    // in a global market of a virtual population, the trustee standing for
+    // the ones that haven't been built yet, and where it is drawn from
+    private Agent newcomer;
+    private Random newcomerRandom;
+    private long populationSeed;
+    // true if the population seed was given, rather than derived from the
+    // run seed
+    private boolean fixedPopulationSeed;
+    // seed of this run. with common random numbers, everything random comes
+    // from named streams derived from it, so conditions given the same run
+    // seed see the same teams, interactions and trustee performances
+    private long runSeed;
+    private boolean commonRandomNumbers;
+    // the streams everything random is drawn from, with one set per agent.
+    // without common random numbers they come from a seed of this
+    // condition's own (derived from the run seed), so runs still repeat
+    private RandomStreams streams;
+    // if true, trustee performances are drawn in blocks (with a ziggurat
+    // sampler) rather than one at a time through commons-math
+    private boolean batchedSampling;
+    // if true, run from a queue of scheduled events rather than stepping
+    // every agent at every time step
+    private boolean eventDriven;
+    // time steps between samples (history, diagnostics) in event driven runs
+    private int sampleInterval;
+    // if true, each step is split into a read phase and a commit phase
+    private boolean bulkSynchronous;
+    // the step whose read phase is under way, or -1
+    private volatile int readPhaseStep = -1;
+    // interactions decided in the read phase, waiting to be committed
+    private final ThreadLocal<List<Interaction>> commitBuffer = new ThreadLocal<List<Interaction>>();
     // number of teams an agent can simultaneously be a member of
     private int maxConcurrentMembership;
     // the join/leave per round probability for agents
@@ -194,6 +280,10 @@ public class Experiment {
     private String profileSet;
     // the list of agent profiles in use for this experiment
     private List<Profile> agentProfiles;
+    // parsed profiles and generated feature vectors, shared with other
+    // experiments using the same profile set
+    private PopulationTemplate template;
+    private PopulationTemplate.Features features;
     // The noise feature set that we will generate
     private Map<String, Double> noiseFeatures;
     // the maximum number of features that can be missing
@@ -209,6 +299,22 @@ public class Experiment {
     private int id;
     private int clusterCount;
     private int learningInterval;
+    // which clustering component the stereotype learners use
+    private int clustererType;
+    // number of threads to retrain stereotype learners on (0 = in place)
+    private int learningThreads;
+    // pool for retraining stereotype learners, while running
+    private ParallelTrainer trainer;
+    // number of threads for shared competition, or 0 for trustees to
+    // compete individually
+    private int competitionThreads;
+    private CompetitionEngine competitionEngine;
+    // how stereotype learners are shared between agents (off, profile or all)
+    private int cohortLearning;
+    // shared learners, by cohort key
+    private Map<String, LearningCohort> cohorts;
+    // directory of saved stereotype models to warm start from, if any
+    private File warmStartDir;
     // list of behavioural biases, if we are using them
     private Map<Profile, List<BehaviouralBias>> bBiases;
     // list of perceptual biases if we're using them also
@@ -226,10 +332,18 @@ public class Experiment {
     private double monitoringCost;
     // boolean value indicating whether sub-delegation is allowed
     private boolean isSubDelegationAllowed;
+    // the most times a task can be passed on after the first delegation
+    private int maxDelegationDepth;
     // determines the visibility of the delegation path if delegation is allowed
     private int visibility;
     // the history of the experiment
-    private List<State> history;
+    private HistoryRecorder history;
+    // steps between full copies of the opinions in the history
+    private int historyKeyframeInterval;
+    // per-step metrics, written as the run goes (if asked for)
+    private MetricsSink metrics;
+    // whether agents keep their utility and outcome histories for the reporters
+    private boolean agentHistories;
     private JTextArea statusOut;
 
     public Experiment(String parameterPath, boolean record, JTextArea statusArea) throws FileNotFoundException, IOException, InvalidParametersException {
@@ -274,7 +388,8 @@ public class Experiment {
 
         // Parse the profile file into a list of profiles
         this.profileSet = properties.getProperty("profiles");
-        this.agentProfiles = Profile.parseAgentProfiles("experiments/" + this.profileSet + ".profiles");
+        this.template = PopulationTemplate.forProfileSet(this.profileSet);
+        this.agentProfiles = template.copyProfiles();
 
         // Tally up the number of agents, according to the counts specified per
         // profile
@@ -291,6 +406,23 @@ public class Experiment {
         this.teamSize = teamSize;
         this.timeSteps = Integer.parseInt(properties.getProperty("timeSteps"));
         this.teamLifeTime = Integer.parseInt(properties.getProperty("teamLifeTime"));
+        String teamChurnString = properties.getProperty("teamChurn");
+        this.teamChurn = teamChurnString != null && teamChurnString.equalsIgnoreCase("yes");
+        String lazyTrusteesString = properties.getProperty("lazyTrustees");
+        this.lazyTrustees = lazyTrusteesString == null || !lazyTrusteesString.equalsIgnoreCase("no");
+        String populationString = properties.getProperty("population");
+        this.virtualPopulation = populationString != null && populationString.equalsIgnoreCase("virtual");
+        String runSeedString = properties.getProperty("runSeed");
+        this.runSeed = runSeedString == null ? random.nextLong() : Long.parseLong(runSeedString);
+        String crnString = properties.getProperty("commonRandomNumbers");
+        this.commonRandomNumbers = crnString != null && crnString.equalsIgnoreCase("yes");
+        // sampler=commons goes back to commons-math draws, for validation
+        String samplerString = properties.getProperty("sampler");
+        this.batchedSampling = samplerString == null || !samplerString.equalsIgnoreCase("commons");
+        String populationSeedString = properties.getProperty("populationSeed");
+        this.fixedPopulationSeed = populationSeedString != null;
+        this.populationSeed = fixedPopulationSeed ? Long.parseLong(populationSeedString) : RandomStreams.seedOf(runSeed,
+                RandomStreams.POPULATION);
         this.maxConcurrentMembership = Integer.parseInt(properties.getProperty("maxConcurrentMembership"));
         this.noiseFeatureCount = Integer.parseInt(properties.getProperty("noiseFeatureCount"));
         this.maxMissingFeatures = Integer.parseInt(properties.getProperty("maxMissingFeatures"));
@@ -310,6 +442,10 @@ public class Experiment {
         } else {
             this.isSubDelegationAllowed = false;
         }
+        // unlimited by default - chains still end once every candidate has
+        // been visited
+        String depthString = properties.getProperty("maxDelegationDepth");
+        this.maxDelegationDepth = depthString == null ? Integer.MAX_VALUE : Integer.parseInt(depthString);
 
         // set the visibility condition - by default 'none', which means that the
         // trustor can only see the immediate agent that was delegated to (which it
@@ -356,6 +492,61 @@ public class Experiment {
         } else {
             this.clusterCount = -1;
         }
+        // clustering component for stereotype learning (weka k-means by default)
+        String clustererString = properties.getProperty("clusterer");
+        if (clustererString == null) {
+            this.clustererType = TwoStageLearner.CLUSTERER_WEKA_KM;
+        } else if (clustererString.equalsIgnoreCase("wekaem")) {
+            this.clustererType = TwoStageLearner.CLUSTERER_WEKA_EM;
+        } else if (clustererString.equalsIgnoreCase("kmeans")) {
+            this.clustererType = TwoStageLearner.CLUSTERER_NATIVE_KM;
+        } else if (clustererString.equalsIgnoreCase("em")) {
+            this.clustererType = TwoStageLearner.CLUSTERER_NATIVE_EM;
+        } else {
+            this.clustererType = TwoStageLearner.CLUSTERER_WEKA_KM;
+        }
+        // parallel retraining of stereotype learners - 'yes' uses one thread
+        // per processor, or a thread count can be given
+        String parallelLearningString = properties.getProperty("parallelLearning");
+        if (parallelLearningString == null || parallelLearningString.equalsIgnoreCase("no")) {
+            this.learningThreads = 0;
+        } else if (parallelLearningString.equalsIgnoreCase("yes")) {
+            this.learningThreads = Runtime.getRuntime().availableProcessors();
+        } else {
+            this.learningThreads = Integer.parseInt(parallelLearningString);
+        }
+
+        // scheduler - 'events' runs event by event, anything else steps
+        String schedulerString = properties.getProperty("scheduler");
+        this.eventDriven = schedulerString != null && schedulerString.equalsIgnoreCase("events");
+        // competition - 'shared' prices trustees from one summary per market
+        String competitionString = properties.getProperty("competition");
+        if (competitionString != null && competitionString.equalsIgnoreCase("shared")) {
+            String threadString = properties.getProperty("competitionThreads");
+            this.competitionThreads = threadString == null ? Runtime.getRuntime().availableProcessors() : Math.max(1,
+                    Integer.parseInt(threadString));
+        } else {
+            this.competitionThreads = 0;
+        }
+
+        // step mode - 'bsp' splits each step into read and commit phases
+        String stepModeString = properties.getProperty("stepMode");
+        this.bulkSynchronous = stepModeString != null && stepModeString.equalsIgnoreCase("bsp");
+        String sampleString = properties.getProperty("sampleInterval");
+        this.sampleInterval = sampleString == null ? 1 : Math.max(1, Integer.parseInt(sampleString));
+
+        // cohort learning - agents with the same cohort key share one learner
+        String cohortString = properties.getProperty("cohortLearning");
+        if (cohortString == null) {
+            this.cohortLearning = COHORT_OFF;
+        } else if (cohortString.equalsIgnoreCase("profile")) {
+            this.cohortLearning = COHORT_PROFILE;
+        } else if (cohortString.equalsIgnoreCase("all")) {
+            this.cohortLearning = COHORT_ALL;
+        } else {
+            this.cohortLearning = COHORT_OFF;
+        }
+
         // if(horizonString != null)
         // this.horizon = Integer.parseInt(horizonString);
         // else this.horizon = 100;
@@ -378,8 +569,8 @@ public class Experiment {
         } else if (modeString.equalsIgnoreCase("bias")) {
             this.mode = MODE_BIAS;
             // read in behavioural and perceptual bias descriptions
-            this.bBiases = BehaviouralBias.parseBiases("experiments/" + this.profileSet + ".bias", agentProfiles);
-            this.pBiases = PerceptualBias.parseBiases("experiments/" + this.profileSet + ".bias", agentProfiles);
+            this.bBiases = template.getBehaviouralBiases(agentProfiles);
+            this.pBiases = template.getPerceptualBiases(agentProfiles);
         } else {
             this.mode = MODE_NORMAL;
         }
@@ -409,10 +600,15 @@ public class Experiment {
 
         // Object maintaining a history of states for the experiment, to allow
         // playback
-        // if recording is active
+        // if recording is active. Opinions are copied in full every
+        // historyKeyframeInterval steps, and only the changes in between
+        String keyframeString = properties.getProperty("historyKeyframeInterval");
+        this.historyKeyframeInterval = keyframeString == null ? History.DEFAULT_KEYFRAME_INTERVAL : Integer.parseInt(keyframeString);
         if (record) {
-            history = new LinkedList<State>();
+            history = new History(historyKeyframeInterval);
         }
+        String agentHistoriesString = properties.getProperty("agentHistories");
+        this.agentHistories = agentHistoriesString == null || !agentHistoriesString.equalsIgnoreCase("no");
     }
 
     /**
@@ -422,8 +618,24 @@ public class Experiment {
      * @throws InvalidParametersException
      */
     public void run() throws InvalidParametersException {
+        // set up the retraining pool before any trust models are created
+        if (learningThreads > 0) {
+            trainer = new ParallelTrainer(learningThreads);
+        }
+        if (competitionThreads > 0) {
+            competitionEngine = new CompetitionEngine(competitionThreads);
+        }
         // initialise the experiment
         init();
+        if (warmStartDir != null) {
+            loadModels(warmStartDir);
+        }
+        if (eventDriven) {
+            runEvents();
+            shutdownWorkers();
+            finishRecording();
+            return;
+        }
         // this variable keeps track of how many cycles are left before we
         // recreate the teams
         int teamLifeTimeRemaining = this.teamLifeTime;
@@ -456,58 +668,416 @@ public class Experiment {
             trustorReplace();
 
             // If the adhoc team lifetime has been reached, re-form the teams and reset
-            // the counter
-            if (teamLifeTimeRemaining <= 0) {
-                this.teams = createTeams(this.teamCount, this.teamSize);
-                // reassign the trustors
-                this.assignTrustorsToTeams();
+            // the counter (or, if teams churn, just replace the ones that expire)
+            if (teamChurn) {
+                teamEngine.tick();
+            } else if (teamLifeTimeRemaining <= 0) {
+                formTeams();
                 teamLifeTimeRemaining = this.teamLifeTime;
             } else {
                 // otherwise, decrement the counter
                 teamLifeTimeRemaining--;
             }
 
-            // all assigned agents compete (update their asking prices)
-            // only important for decision theoretic models
-            for (Agent a : assignments.keySet()) {
-                a.compete(currentTimeStep);
-            }
+            if (bulkSynchronous) {
+                bulkSynchronousStep(currentTimeStep);
+            } else {
+                // all assigned agents compete (update their asking prices)
+                // only important for decision theoretic models
+                if (competitionEngine != null) {
+                    competeShared(currentTimeStep);
+                } else {
+                    for (Agent a : teamEngine.getAssignedAgents()) {
+                        a.compete(currentTimeStep);
+                    }
+                }
 
-            // all agents in teams interact
-            for (Agent t : trustors) {
-                Agent trustee = null;
-                // implement interaction probability
-                double chance = random.nextDouble();
-                if (chance <= interactProb) {
-                    // create a new delegation history token, to allow/track subdelegation
-                    Delegation initialContract = new Delegation(t, successPayoff, failurePayoff, abstainPayoff, monitoringCost, visibility);
-
-                    // record the immediate trustor in the chain only - for the purposes of recording
-                    // the full delegation path is avaulable in delegationPath - however, here, we just
-                    // note the first agent the root trustor contacted - NOTE - THIS BIT NEEDS TO BE ADJUSTED TO HANDLE THE DIFFERENT VISIBILITY CONDITIONS
-                    // -- IT IS ESSENTIALLY THE 'TOKEN', but for now just look
-                    Delegation finalContract = t.delegate(initialContract, currentTimeStep);
-
-                    // if an interaction happened
-                    if (trustee != null) // then record they interacted
-                    {
-                        interactors.put(t, trustee);
+                // all agents in teams interact
+                for (Agent t : trustors) {
+                    Agent trustee = null;
+                    // implement interaction probability
+                    double chance = random.nextDouble();
+                    if (chance <= interactProb) {
+                        // record the immediate trustor in the chain only - for the purposes of recording
+                        // the full delegation path is avaulable in delegationPath - however, here, we just
+                        // note the first agent the root trustor contacted - NOTE - THIS BIT NEEDS TO BE ADJUSTED TO HANDLE THE DIFFERENT VISIBILITY CONDITIONS
+                        // -- IT IS ESSENTIALLY THE 'TOKEN', but for now just look
+                        Delegation finalContract = delegate(t, currentTimeStep);
+                        // it has been committed, so can be reused
+                        ContractPool.get().release(finalContract);
+
+                        // if an interaction happened
+                        if (trustee != null) // then record they interacted
+                        {
+                            interactors.put(t, trustee);
+                        }
+                    } else {
+                        // Record that any trustors who don't interact because of
+                        // chance (interaction rate) get 0 utility
+                        t.incUtility(0);
                     }
-                } else {
-                    // Record that any trustors who don't interact because of
-                    // chance (interaction rate) get 0 utility
-                    t.incUtility(0);
                 }
             }
 
+            // collect any stereotype retrains before the next step's evaluations
+            if (trainer != null) {
+                trainer.awaitAll();
+            }
+
             // now that the state has changed, add it to the history
             if (history != null) {
-                history.add(new State(this.agents, this.trustors, this.teams, this.assignments, interactors));
+                history.record(this.agents, this.trustors, this.teams, teamEngine.getAssignments(), interactors);
+            }
+            if (metrics != null) {
+                metrics.record(currentTimeStep, trustors);
             }
 
             // print out cheeky diagnostics
             diagnostics(currentTimeStep);
         }
+        shutdownWorkers();
+        finishRecording();
+    }
+
+    private void finishRecording() {
+        if (history != null) {
+            history.finish();
+        }
+        if (metrics != null) {
+            metrics.close();
+            metrics = null;
+        }
+    }
+
+    private void shutdownWorkers() {
+        if (trainer != null) {
+            trainer.shutdown();
+            trainer = null;
+        }
+        if (competitionEngine != null) {
+            competitionEngine.shutdown();
+            competitionEngine = null;
+        }
+    }
+
+    /**
+     * Run the experiment from a queue of events rather than stepping through
+     * every agent at every time step. Interactions, agent replacement and
+     * forgetting happen with a fixed probability per step, so the gap to each
+     * agent's next one is drawn directly (the discrete-time version of Poisson
+     * arrivals) and agents are left alone in between. Team re-formation and
+     * special conditions are scheduled for the steps they happen on, and
+     * history and diagnostics are sampled every sampleInterval steps.
+     *
+     * Trustees update their asking prices when a trustor is about to consider
+     * them, at most once per step, rather than all of them every step. Idle
+     * trustors' utility histories are padded with zeros (as the stepped loop
+     * records for them) when they next interact, and at the end of the run.
+     *
+     * @throws InvalidParametersException
+     */
+    private void runEvents() throws InvalidParametersException {
+        EventScheduler events = new EventScheduler(random, timeSteps);
+        // the step each trustor's next utility entry is for
+        Map<Agent, Integer> utilityStep = new HashMap<Agent, Integer>();
+        // the step each trustee last updated its asking price at
+        Map<Agent, Integer> competedAt = new HashMap<Agent, Integer>();
+
+        for (Agent t : trustors) {
+            events.scheduleArrival(-1, interactProb, EVENT_INTERACT, t);
+            events.scheduleArrival(-1, trustorReplaceProb, EVENT_FORGET, t);
+            utilityStep.put(t, 0);
+        }
+        // (only going through the trustees if any can be replaced, as that
+        // builds a virtual population)
+        if (agentReplaceProb > 0) {
+            for (Agent a : agents) {
+                events.scheduleArrival(-1, agentReplaceProb, EVENT_REPLACE, a);
+            }
+        }
+        if (mode != MODE_NORMAL) {
+            events.schedule(1, EVENT_SPECIAL, null);
+            if (this.timeSteps / 2 != 1) {
+                events.schedule(this.timeSteps / 2, EVENT_SPECIAL, null);
+            }
+        }
+        // churning teams are ticked every step, otherwise teams are re-formed
+        // when their lifetime is up
+        events.schedule(teamChurn ? 0 : this.teamLifeTime, EVENT_TEAMS, null);
+        events.schedule(sampleInterval - 1, EVENT_SAMPLE, null);
+        int displayDiv = this.timeSteps / 20;
+        if (displayDiv > 0) {
+            events.schedule(0, EVENT_PROGRESS, null);
+        }
+
+        EventScheduler.Event e;
+        while ((e = events.next()) != null) {
+            switch (e.type) {
+                case EVENT_SPECIAL:
+                    doSpecialConditions(e.time, this.mode);
+                    break;
+                case EVENT_PROGRESS:
+                    if (statusOut == null) {
+                        System.out.print("*");
+                    } else {
+                        statusOut.append("*");
+                    }
+                    events.schedule(e.time + displayDiv, EVENT_PROGRESS, null);
+                    break;
+                case EVENT_REPLACE:
+                    Agent newAgent = replaceAgent(e.agent);
+                    events.scheduleArrival(e.time, agentReplaceProb, EVENT_REPLACE, newAgent);
+                    break;
+                case EVENT_FORGET:
+                    e.agent.forget();
+                    events.scheduleArrival(e.time, trustorReplaceProb, EVENT_FORGET, e.agent);
+                    break;
+                case EVENT_TEAMS:
+                    if (teamChurn) {
+                        teamEngine.tick();
+                        events.schedule(e.time + 1, EVENT_TEAMS, null);
+                    } else {
+                        formTeams();
+                        events.schedule(e.time + this.teamLifeTime + 1, EVENT_TEAMS, null);
+                    }
+                    break;
+                case EVENT_INTERACT:
+                    Agent t = e.agent;
+                    padUtility(t, e.time, utilityStep);
+                    // bring the candidates' asking prices up to date
+                    List<Agent> candidates = getDelegationCandidates(t);
+                    if (candidates != null) {
+                        for (Agent c : candidates) {
+                            Integer last = competedAt.get(c);
+                            if (last == null || last != e.time) {
+                                c.compete(e.time);
+                                competedAt.put(c, e.time);
+                            }
+                        }
+                    }
+                    ContractPool.get().release(delegate(t, e.time));
+                    utilityStep.put(t, e.time + 1);
+                    events.scheduleArrival(e.time, interactProb, EVENT_INTERACT, t);
+                    break;
+                case EVENT_SAMPLE:
+                    if (trainer != null) {
+                        trainer.awaitAll();
+                    }
+                    if (history != null) {
+                        history.record(this.agents, this.trustors, this.teams, teamEngine.getAssignments(),
+                                new HashMap<Agent, Agent>());
+                    }
+                    if (metrics != null) {
+                        metrics.record(e.time, trustors);
+                    }
+                    diagnostics(e.time);
+                    events.schedule(e.time + sampleInterval, EVENT_SAMPLE, null);
+                    break;
+            }
+        }
+        for (Agent t : trustors) {
+            padUtility(t, this.timeSteps, utilityStep);
+        }
+    }
+
+    /**
+     * Have all assigned trustees compete using the competition engine. Each
+     * market (the whole population in global conditions, otherwise each
+     * team) is summarised once, and trustees are priced from that. Trustors
+     * don't take part, as nobody delegates to them.
+     *
+     * @param step
+     */
+    private void competeShared(int step) {
+        List<Agent> trustees = assignedTrustees();
+        double[] prices = sharedPrices(trustees, step);
+        for (int i = 0; i < prices.length; i++) {
+            trustees.get(i).setAskingPrice(prices[i]);
+        }
+    }
+
+    private List<Agent> assignedTrustees() {
+        List<Agent> trustees = new ArrayList<Agent>();
+        for (Agent a : teamEngine.getAssignedAgents()) {
+            if (a.getRole() == Agent.TRUSTEE) {
+                trustees.add(a);
+            }
+        }
+        return trustees;
+    }
+
+    /**
+     * Work out new asking prices for the given trustees, from a shared
+     * summary of each market.
+     */
+    private double[] sharedPrices(List<Agent> trustees, int step) {
+        List<CompetitionEngine.Market> markets = new ArrayList<CompetitionEngine.Market>();
+        CompetitionEngine.Market[] marketOf = new CompetitionEngine.Market[trustees.size()];
+        if (trustees.isEmpty()) {
+            return new double[0];
+        }
+        switch (this.condition) {
+            case Experiment.AD:
+            case Experiment.AAR:
+            case Experiment.AARS:
+            case Experiment.AGR:
+            case Experiment.AGRS:
+                // one market per team
+                CompetitionEngine.Market[] byTeam = new CompetitionEngine.Market[teamEngine.getTeamCount()];
+                for (int t = 0; t < byTeam.length; t++) {
+                    List<Agent> members = teamEngine.getTrustees(t);
+                    if (!members.isEmpty()) {
+                        Agent evaluator = members.get(0);
+                        List<Agent> recommenders = (condition == AGR || condition == AGRS) ? trustors
+                                : trustorsInTeam(evaluator, teams.get(t));
+                        byTeam[t] = new CompetitionEngine.Market(members, evaluator, recommenders);
+                        markets.add(byTeam[t]);
+                    }
+                }
+                for (int i = 0; i < marketOf.length; i++) {
+                    marketOf[i] = byTeam[teamEngine.getTeamNumberOf(trustees.get(i))];
+                }
+                break;
+            default:
+                // one global market
+                Agent evaluator = trustees.get(0);
+                CompetitionEngine.Market market;
+                if (hasNewcomers()) {
+                    market = new CompetitionEngine.Market(new CandidateView(globalMarket()), evaluator,
+                            getReputationCandidates(evaluator)) {
+                        @Override
+                        protected double averageEL(Map<Agent, Double> trust) {
+                            return Experiment.this.averageEL(trust);
+                        }
+                    };
+                } else {
+                    market = new CompetitionEngine.Market(new CandidateView(agents), evaluator,
+                            getReputationCandidates(evaluator));
+                }
+                markets.add(market);
+                for (int i = 0; i < marketOf.length; i++) {
+                    marketOf[i] = market;
+                }
+        }
+        return competitionEngine.compete(markets, trustees, marketOf, step);
+    }
+
+    /**
+     * Carry out one bulk synchronous step. In the read phase, trustees work
+     * out their new asking prices and every trustor makes its delegation
+     * decision, all against the state at the start of the step: prices aren't
+     * changed yet, nothing is added to any trust model, and recommenders
+     * answer from their ratings as they were when the step began. In the
+     * commit phase, the decisions are applied in trustor order, then the new
+     * prices are set.
+     *
+     * Each trustor's decisions go into its own buffer, so the read phase
+     * doesn't depend on the order trustors are visited in (apart from the
+     * shared random number source).
+     *
+     * @param step
+     */
+    private void bulkSynchronousStep(int step) {
+        List<Agent> assigned = new ArrayList<Agent>(teamEngine.getAssignedAgents());
+        List<List<Interaction>> decisions = new ArrayList<List<Interaction>>(trustors.size());
+
+        // READ PHASE
+        readPhaseStep = step;
+        double[] prices;
+        if (competitionEngine != null) {
+            assigned = assignedTrustees();
+            prices = sharedPrices(assigned, step);
+        } else {
+            prices = new double[assigned.size()];
+            for (int i = 0; i < prices.length; i++) {
+                prices[i] = assigned.get(i).competitivePrice(step);
+            }
+        }
+        for (Agent t : trustors) {
+            List<Interaction> pending = null;
+            if (random.nextDouble() <= interactProb) {
+                pending = new ArrayList<Interaction>();
+                commitBuffer.set(pending);
+                delegate(t, step);
+                commitBuffer.set(null);
+            }
+            decisions.add(pending);
+        }
+        readPhaseStep = -1;
+
+        // COMMIT PHASE
+        for (int i = 0; i < decisions.size(); i++) {
+            List<Interaction> pending = decisions.get(i);
+            if (pending == null) {
+                // trustors who don't interact get 0 utility
+                trustors.get(i).incUtility(0);
+            } else {
+                for (Interaction interaction : pending) {
+                    interaction.commit();
+                    ContractPool.get().release(interaction.getResult());
+                }
+            }
+        }
+        for (int i = 0; i < prices.length; i++) {
+            assigned.get(i).setAskingPrice(prices[i]);
+        }
+    }
+
+    /**
+     * Have a trustor delegate a task, starting from a pooled initial contract
+     * (the token that allows and tracks subdelegation)
+     *
+     * @param t
+     *            the trustor
+     * @param step
+     * @return the contract handed back
+     */
+    private Delegation delegate(Agent t, int step) {
+        ContractPool pool = ContractPool.get();
+        Delegation initialContract = pool.obtain().setInitial(t, successPayoff, failurePayoff, abstainPayoff,
+                monitoringCost, visibility);
+        Delegation result = t.delegate(initialContract, step);
+        // decision models make a new contract from it, so it isn't needed
+        // any more
+        pool.release(initialContract);
+        return result;
+    }
+
+    /**
+     * Called by agents when they have made a delegation decision. During the
+     * read phase of a bulk synchronous step, the interaction is kept to be
+     * committed later.
+     *
+     * @param interaction
+     * @return true if the interaction has been deferred, false if the agent
+     *         should commit it straight away
+     */
+    public boolean deferCommit(Interaction interaction) {
+        List<Interaction> buffer = commitBuffer.get();
+        if (buffer == null) {
+            return false;
+        }
+        buffer.add(interaction);
+        return true;
+    }
+
+    /**
+     * @return the step whose read phase is under way, or -1 if trust models
+     *         can be read and changed as normal
+     */
+    public int getReadPhaseStep() {
+        return readPhaseStep;
+    }
+
+    /**
+     * Record zero utility for a trustor for each step it sat out, up to (but
+     * not including) the given step
+     */
+    private void padUtility(Agent t, int step, Map<Agent, Integer> utilityStep) {
+        for (int s = utilityStep.get(t); s < step; s++) {
+            t.incUtility(0);
+        }
+        utilityStep.put(t, step);
     }
 
     /**
@@ -643,25 +1213,31 @@ public class Experiment {
      *             if the given parameters are invalid
      */
     private void init() throws InvalidParametersException {
-        // Create the assignment and ratings stores
-        assignments = new HashMap<Agent, List<Agent>>();
-
-        // Set up the noise features
-        noiseFeatures = new HashMap<String, Double>();
-        for (int i = 0; i < this.noiseFeatureCount; i++) {
-            // Generate a new noise feature label and probability
-            String id = "nf" + i;
-            double p = random.nextDouble();
-            noiseFeatures.put(id, p);
+        // draw from named streams - with common random numbers, the run's own
+        streams = new RandomStreams(getSeed());
+        random = streams.get(RandomStreams.INTERACTION);
+        // Create the team engine
+        teamEngine = new TeamEngine(streams.get(RandomStreams.TEAMS), teamCount, teamSize, maxConcurrentMembership);
+        newcomer = null;
+        newcomerRandom = streams.get(RandomStreams.NEWCOMERS);
+        cohorts = new HashMap<String, LearningCohort>();
+
+        // Set up the noise features and feature vectors (from the population
+        // seed, so that other conditions with the same seed can share them)
+        features = template.getFeatures(populationSeed, noiseFeatureCount, maxMissingFeatures, missingFeatureProb);
+        noiseFeatures = features.getNoiseFeatures();
+        if (lazyTrustees) {
+            trusteeEvaluator = getTrustModelForCondition(this.condition);
         }
         // Create agents (trustees)
         agents = createAgents();
         // create our now-and-forever trustors :)
         trustors = createTrustors();
-        // create the teams
-        teams = createTeams(this.teamCount, this.teamSize);
-        // assign the trustors
-        this.assignTrustorsToTeams();
+        // create the teams and assign the trustors
+        formTeams();
+        if (teamChurn) {
+            teamEngine.startChurn(teamLifeTime);
+        }
     }
 
     /**
@@ -675,6 +1251,21 @@ public class Experiment {
      *             model
      */
     private TrustModel getTrustModelForCondition(int condition) throws InvalidParametersException {
+        return getTrustModelForCondition(condition, null);
+    }
+
+    /**
+     * Returns a new trust model appropriate for the given condition, sharing
+     * its stereotype learner with others in the same cohort
+     *
+     * @param condition
+     *            experimental condition
+     * @param cohortKey
+     *            key of the learning cohort, or null for a private learner
+     * @return a trust model appropriate for this condition
+     * @throws InvalidParametersException
+     */
+    private TrustModel getTrustModelForCondition(int condition, String cohortKey) throws InvalidParametersException {
         // check to see that the parameters are valid
         if ((halfLife == -1 || temp == -1) && (condition > 0)) {
             throw new InvalidParametersException();
@@ -696,7 +1287,17 @@ public class Experiment {
             case Experiment.GGRS:
             case Experiment.AGRS:
             case Experiment.AARS:
-                return new DirectRepStereoRepSL(temp, halfLife, learningInterval, clusterCount);
+                DirectRepStereoRepSL stereoModel = new DirectRepStereoRepSL(temp, halfLife, learningInterval, clusterCount, clustererType);
+                stereoModel.setTrainer(trainer);
+                if (cohortKey != null) {
+                    LearningCohort cohort = cohorts.get(cohortKey);
+                    if (cohort == null) {
+                        cohort = new LearningCohort(learningInterval, clusterCount, clustererType);
+                        cohorts.put(cohortKey, cohort);
+                    }
+                    stereoModel.setCohort(cohort);
+                }
+                return stereoModel;
             case Experiment.GB:
                 return new DirectB(temp, halfLife);
             case Experiment.GGB:
@@ -708,19 +1309,24 @@ public class Experiment {
     /**
      * Instantiate the agents participating in this experiment
      *
-     * @see Experiment.createTeams()
+     * @see Experiment.formTeams()
      * @throws InvalidParametersException
      *             if the given parameters are invalid for an agent
      */
     private List<Agent> createAgents() throws InvalidParametersException {
+        if (virtualPopulation) {
+            return createVirtualAgents();
+        }
         // Create our agent (trustee) list
         List<Agent> agents = new ArrayList<Agent>(trusteeCount);
+        int index = 0;
         for (Profile p : agentProfiles) {
             // Create a number of agents of the current profile
             for (int j = 0; j < p.getTrusteeCount(); j++) {
                 // create a new agent
-                Agent newAgent = createAgent("a" + (id++), p);
+                Agent newAgent = createAgent("a" + id, p, Agent.TRUSTEE, features.getTrusteeFeatures(index++));
                 newAgent.setRole(Agent.TRUSTEE); // trustee
+                usePerformanceStream(newAgent, id++);
 
                 // add this agent to the agent registry
                 agents.add(newAgent);
@@ -729,6 +1335,82 @@ public class Experiment {
         return agents;
     }
 
+    /**
+     * Create a virtual trustee list, where each trustee is only built when it
+     * is first accessed. Everything random about a trustee (its features and
+     * performance draws) comes from the population seed and its index, so it
+     * doesn't matter when, or in what order, they are built.
+     */
+    private List<Agent> createVirtualAgents() {
+        // reserve a block of ids, so that trustee i is always a(base + i)
+        final int base = id;
+        id += trusteeCount;
+        // index of the first trustee of each profile
+        final int[] firstOf = new int[agentProfiles.size()];
+        for (int i = 1; i < firstOf.length; i++) {
+            firstOf[i] = firstOf[i - 1] + agentProfiles.get(i - 1).getTrusteeCount();
+        }
+        return new VirtualPopulation(new VirtualPopulation.Factory() {
+            private Profile profileOf(int index) {
+                int k = firstOf.length - 1;
+                while (firstOf[k] > index) {
+                    k--;
+                }
+                return agentProfiles.get(k);
+            }
+
+            public double getDefaultAskingPrice(int index) {
+                return profileOf(index).getDefaultAskingPrice();
+            }
+
+            public Agent create(int index, long seed) {
+                try {
+                    Agent newAgent = createAgent("a" + (base + index), profileOf(index), Agent.TRUSTEE,
+                            features.getTrusteeFeatures(index));
+                    newAgent.setRole(Agent.TRUSTEE);
+                    if (commonRandomNumbers) {
+                        usePerformanceStream(newAgent, base + index);
+                    } else {
+                        // (the seed itself is used for the features)
+                        newAgent.setRandom(createPerformanceDraws(~seed));
+                    }
+                    return newAgent;
+                } catch (InvalidParametersException e) {
+                    System.err.println("Experiment: Could not create virtual trustee:");
+                    e.printStackTrace();
+                    throw new IllegalStateException(e);
+                }
+            }
+        }, populationSeed, trusteeCount);
+    }
+
+    /**
+     * Give a trustee its own performance stream, so how often it performs
+     * doesn't change anyone else's draws (and, with common random numbers, it
+     * performs the same in every condition it is delegated to in)
+     *
+     * @param trustee
+     * @param number
+     *            the number in its id
+     */
+    private void usePerformanceStream(Agent trustee, int number) {
+        trustee.setRandom(createPerformanceDraws(streams.seedOf(RandomStreams.PERFORMANCE, number)));
+    }
+
+    /**
+     * Create a source of performance draws, batched or not
+     *
+     * @param seed
+     */
+    private RandomData createPerformanceDraws(long seed) {
+        if (batchedSampling) {
+            return new BatchedSampler(seed);
+        }
+        RandomDataImpl draws = new RandomDataImpl();
+        draws.reSeed(seed);
+        return draws;
+    }
+
     /**
      * Create a list of trustor agents, according to profiles
      *
@@ -740,7 +1422,8 @@ public class Experiment {
         List<Agent> trustors = new ArrayList<Agent>(trustorCount);
         for (Profile p : agentProfiles) {
             for (int i = 0; i < p.getTrustorCount(); i++) {
-                Agent newTrustor = createAgent("t" + (tid++), p);
+                Agent newTrustor = createAgent("t" + tid, p, Agent.TRUSTOR, features.getTrustorFeatures(tid));
+                tid++;
                 newTrustor.setRole(Agent.TRUSTOR);
 
                 // if we are using perceptual biases, set it up here
@@ -775,33 +1458,100 @@ public class Experiment {
      *            identifier
      * @param p
      *            profile
+     * @param role
+     *            the role the agent will play (used to pick its learning
+     *            cohort)
      * @throws InvalidParametersException
      */
-    private Agent createAgent(String id, Profile p) throws InvalidParametersException {
+    private Agent createAgent(String id, Profile p, int role) throws InvalidParametersException {
         // Get a new complete feature vector for this agent including both noise
         // and profile features
-        Map<String, Integer> featureVector = createFeatureVector(p);
+        return createAgent(id, p, role, createFeatureVector(p, random));
+    }
+
+    /**
+     * Generate a single agent with the given feature vector
+     */
+    private Agent createAgent(String id, Profile p, int role, Map<String, Integer> featureVector)
+            throws InvalidParametersException {
         // Get a new agent with a trust model appropriate for this experimental
         // condition
         // depending on the mode, create either a normal agent, or a decision
         // theoretic one
         // with the richer model of trust decision
 
+        TrustModel model;
+        if (role == Agent.TRUSTEE && lazyTrustees) {
+            // trustees only get experiences if they sub-delegate, so until
+            // then the shared evaluator answers for their models
+            final Profile profile = p;
+            model = new LazyTrustModel(new LazyTrustModel.Factory() {
+                public TrustModel create() {
+                    try {
+                        return createTrustModel(profile, Agent.TRUSTEE);
+                    } catch (InvalidParametersException e) {
+                        System.err.println("Experiment: Could not create trustee trust model:");
+                        e.printStackTrace();
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }, trusteeEvaluator);
+        } else {
+            model = createTrustModel(p, role);
+        }
+
+        // each agent's model draws from its own stream (split by id, so it is
+        // the same however many agents were made before it)
+        model.setRandom(streams.split(id).get("trust"));
+
+        Agent newAgent = new Agent(id, model, getTrustorDecisionModelForMode(), getTrusteeDecisionModelForMode(p), p,
+                featureVector, this);
+        newAgent.setKeepHistories(agentHistories);
+        return newAgent;
+    }
+
+    /**
+     * Create the effort adapted trust model for an agent. Synchronized as lazy
+     * trustee models may be built from competition worker threads.
+     *
+     * @param p
+     *            profile of the agent
+     * @param role
+     * @throws InvalidParametersException
+     */
+    private synchronized TrustModel createTrustModel(Profile p, int role) throws InvalidParametersException {
         // trust models are not effort specific, so we are using effort adapter.
         Map<String, TrustModel> effortModels = new HashMap<String, TrustModel>();
         for (String e : p.getEfforts().keySet()) {
             // for each effortlevel, create a separate trust model
-            effortModels.put(e, getTrustModelForCondition(this.condition));
+            effortModels.put(e, getTrustModelForCondition(this.condition, getCohortKey(p, role, e)));
         }
         // and a general one
-        TrustModel unconditionalModel = getTrustModelForCondition(this.condition);
+        TrustModel unconditionalModel = getTrustModelForCondition(this.condition, getCohortKey(p, role, "*"));
 
         // create the effort level adapted trust model
-        TrustModel model = new EffortAdapter(effortModels, unconditionalModel);
+        return new EffortAdapter(effortModels, unconditionalModel);
+    }
 
-        Agent newAgent = new Agent(id, model, getTrustorDecisionModelForMode(), getTrusteeDecisionModelForMode(p), p,
-                featureVector, this);
-        return newAgent;
+    /**
+     * Key for the learning cohort a model belongs to. Models are only pooled
+     * with others of the same role and effort level.
+     *
+     * @param p
+     *            profile of the agent
+     * @param role
+     * @param effort
+     *            effort level id, or * for the unconditional model
+     * @return the cohort key, or null if cohort learning is off
+     */
+    private String getCohortKey(Profile p, int role, String effort) {
+        switch (cohortLearning) {
+            case COHORT_PROFILE:
+                return role + ":" + p.getId() + ":" + effort;
+            case COHORT_ALL:
+                return role + ":" + effort;
+        }
+        return null;
     }
 
     /**
@@ -850,10 +1600,10 @@ public class Experiment {
      * @throws InvalidParametersException
      */
     private void trusteeReplace() throws InvalidParametersException {
-        // duplicate the agent list
-        List<Agent> agentsCopy = new ArrayList<Agent>(agents);
         // only if we have set a probability higher than zero
         if (agentReplaceProb > 0) {
+            // duplicate the agent list
+            List<Agent> agentsCopy = new ArrayList<Agent>(agents);
             for (Agent a : agentsCopy) {
                 double chance = random.nextDouble();
                 // if this particular agent is unlucky...
@@ -884,31 +1634,34 @@ public class Experiment {
      * Remove an agent and replace it with a new one of the same profile (to
      * maintain the initially specified balance of agent profiles).
      *
+     * @return the new agent
      * @throws InvalidParametersException
      */
-    private void replaceAgent(Agent oldAgent) throws InvalidParametersException {
+    private Agent replaceAgent(Agent oldAgent) throws InvalidParametersException {
         String oldAgentId = "";
         Profile thisProfile = oldAgent.getProfile();
-        // purge this agent from the experiment
+        // purge this agent from the experiment, and from any learning cohort
+        oldAgent.getTrustModel().retire();
         if (oldAgent.getRole() == Agent.TRUSTOR) {
             oldAgentId = oldAgent.getId();
             trustors.remove(oldAgent);
         } else {
+            // the team engine finds trustees by position until it looks them
+            // up, and the positions are about to move
+            teamEngine.resolveAll();
             agents.remove(oldAgent);
+            if (oldAgent == newcomer) {
+                newcomer = null;
+            }
         }
-        Agent newAgent = createAgent("a" + (id++), thisProfile);
-
-        // if the agent is in a team, remove it from the team and assignments
-        // list as well
-        if (assignments.containsKey(oldAgent)) {
-            List<Agent> thisTeam = assignments.get(oldAgent);
-            thisTeam.remove(oldAgent);
-            assignments.remove(oldAgent);
-
-            // add new agent
-            thisTeam.add(newAgent);
-            assignments.put(newAgent, thisTeam);
+        int number = id++;
+        Agent newAgent = createAgent("a" + number, thisProfile, oldAgent.getRole());
+        if (oldAgent.getRole() == Agent.TRUSTEE) {
+            usePerformanceStream(newAgent, number);
         }
+
+        // if the agent is in a team, the new agent takes its place
+        teamEngine.replace(oldAgent, newAgent);
         // add the agent to the agent list
         // will have the same chance of being assigned to a team as anyone else,
         // in the next step
@@ -918,75 +1671,25 @@ public class Experiment {
         } else {
             agents.add(newAgent);
         }
+        return newAgent;
     }
 
     /**
      * Create (or re-create) the agent teams
      *
      * Populate the teams with the required number of agents, drawn randomly
-     * from the global pool
-     *
-     * @param teamSize
-     * @param teamCount
+     * from the global pool, then randomly assign the trustors to teams.
+     * Multiple team membership is allowed according to the
+     * maxConcurrentMembership variable.
      */
-    private List<List<Agent>> createTeams(int teamCount, int teamSize) {
-        // Create our new list of teams
-        List<List<Agent>> teams = new ArrayList<List<Agent>>(teamCount);
-
-        // Duplicate and shuffle the agent-list so we don't damage it by
-        // removing elements
-        // multiple team membership is modelled by adding the same agents multiple
-        // times to the list, according to the maxConcurrentMembership variable
-        List<Agent> agentListCopy = new ArrayList<Agent>();
-        for (int i = 0; i < this.maxConcurrentMembership; i++) {
-            agentListCopy.addAll(this.agents);
-        }
-
-        // remove the trustors from our duplicate list - we'll assign them later
-        // this array tracks how many teams each agent is still allowed to be in.
-        // the appropriate element will be incremented each time that agent is added
-        // to a team - this allows multiple concurrent team membership
-        // agentListCopy.removeAll(this.trustors);
-
-        // Create new assignments table (resets)
-        Map<Agent, List<Agent>> newAssignments = new HashMap<Agent, List<Agent>>();
-
-        // 'Randomise' the ordering of our agent list
-        Collections.shuffle(agentListCopy);
-
-        // for each team
-        for (int i = 0; i < teamCount; i++) {
-            // instantiate the team
-            List<Agent> team = new ArrayList<Agent>();
-            // populate
-            for (int j = 0; j < teamSize; j++) {
-                // if there are agents left, then assign them
-                // if not, we're on the last team, and someone will be short a
-                // few members :)
-                if (!agentListCopy.isEmpty()) {
-                    // Remove an agent from the front of the list and add it to
-                    // the current team
-                    Agent thisAgent = agentListCopy.remove(0);
-                    // add the agent to the team
-                    team.add(thisAgent);
-                    // record seperately which team this agent has been assigned
-                    // to for fast lookup
-                    newAssignments.put(thisAgent, team);
-                }
-            }
-            // add the team to the team list
-            teams.add(team);
-        }
+    private void formTeams() {
+        teamEngine.form(this.agents, this.trustors);
+        this.teams = teamEngine.getTeams();
         // reset all asking prices when teams are reformed
 //		for(Agent a : agents)
 //			a.setAskingPrice(a.getProfile().getDefaultAskingPrice());
-
-        // update the assignments and return the new teams
-        this.assignments = newAssignments;
-        return teams;
     }
 
-
     /**
      * Returns a set of features for a given profile, incorporating the both the
      * feature probabilities of the profile and those of the experiment as a
@@ -996,94 +1699,13 @@ public class Experiment {
      * user-specified profile features!
      *
      * @param profile
+     * @param random
+     *            source of the feature draws
      * @return a complete feature vector for an agent of this profile.
      */
-    private Map<String, Integer> createFeatureVector(Profile profile) {
-        // The list we will return
-        // List<String> featureVector = new ArrayList<String>();
-        Map<String, Integer> featureVector = new HashMap<String, Integer>();
-
-        Map<String, Double> features = profile.getFeatures();
-
-        // Add the noise features to those to be assigned
-        features.putAll(this.noiseFeatures);
-
-        // Assign diagnostic features
-        for (Entry<String, Double> f : features.entrySet()) {
-            int present = 0;
-            // Get the specifics of this profile
-            String fid = f.getKey();
-            Double fp = f.getValue();
-
-            // For each feature specified by the profile, roll the dice...
-            // we are picking from uniformly distributed (mean 0.0, sd 1) values
-            double chance = random.nextDouble();
-            // If it's greater than the probability value given in the profile,
-            // assign
-            if (chance <= fp) {
-                present = 1;
-            }
-
-            featureVector.put(fid, present);
-        }
-
-        // for feature hiding purposes - we are creating this array so that we
-        // can
-        // 'efficiently' chose a random feature to hide, even though a map is
-        // not random access
-        String[] featureKeys = features.keySet().toArray(new String[0]);
-
-        // remove features according to experimental parameters
-        for (int k = 0; k < maxMissingFeatures; k++) {
-            // if probabilistically determined
-            if (random.nextDouble() < missingFeatureProb) {
-                // featureVector.remove(featureKeys[random.nextInt(featureKeys.length)]);
-                // // lobotomising the array :)
-                featureVector.put(featureKeys[random.nextInt(featureKeys.length)], null);
-            }
-        }
-
-        // System.out.println(featureVector);
-        return featureVector;
-    }
-
-    /**
-     * Randomly assign the trustors to teams
-     */
-    private void assignTrustorsToTeams() {
-        // full list of agents a trustor will have access to 
-        // for each trustor,
-        // pick a random team from the team list and chuck him in
-        for (Agent trustor : trustors) {
-            List<Agent> fullTeam = new ArrayList<Agent>();
-            // loop until the maximum concurent teams limit has been reached
-            for (int i = 0; i < maxConcurrentMembership; i++) {
-                List<Agent> team = teams.get(random.nextInt(teams.size()));
-                team.add(trustor);
-                // build 'aggregated' team
-                fullTeam.addAll(team);
-            }
-
-            this.assignments.put(trustor, fullTeam);
-        }
-    }
-
-    /**
-     * Filter the list of agents according to role; return only a set of
-     * <i>trustees</i>.
-     *
-     * @param candidates
-     * @return a list of trustees
-     */
-    private List<Agent> filterTrustees(List<Agent> candidates) {
-        List<Agent> trustees = new ArrayList<Agent>();
-        // filter the candidates
-        for (Agent a : candidates) {
-            if (a.getRole() == Agent.TRUSTEE) {
-                trustees.add(a);
-            }
-        }
-        return trustees;
+    private Map<String, Integer> createFeatureVector(Profile profile, Random random) {
+        return PopulationTemplate.createFeatureVector(profile, noiseFeatures, maxMissingFeatures, missingFeatureProb,
+                random);
     }
 
     /**
@@ -1092,7 +1714,7 @@ public class Experiment {
      * @param agent
      * @return list of agents
      */
-    public List<Agent> getDelegationCandidates(Agent agent) {
+    public CandidateView getDelegationCandidates(Agent agent) {
         // If we are running the global direct and reputational mode, then
         // return the set of all agents. That is, we are ignoring the existance
         // of teams.
@@ -1105,7 +1727,7 @@ public class Experiment {
             case Experiment.GB:
             case Experiment.GGB:
             case Experiment.NT:
-                return agents;
+                return new CandidateView(globalMarket());
             // If we are in the ad-hoc team case, return the list of agents in
             // this agent's team
             case Experiment.AD:
@@ -1113,11 +1735,79 @@ public class Experiment {
             case Experiment.AARS:
             case Experiment.AGR:
             case Experiment.AGRS:
-                return filterTrustees(this.assignments.get(agent));
+                return teamEngine.getTrusteesOf(agent);
         }
         return null;
     }
 
+    /**
+     * The trustees in the global conditions' market. With a virtual
+     * population, these are the trustees that have been delegated to, and one
+     * newcomer drawn at random from the rest, who stays until someone
+     * delegates to it. A model that doesn't stereotype can't tell untried
+     * trustees apart - no-one has any evidence about them - so the newcomer
+     * stands for all of them, and only the ones chosen get built.
+     * Stereotyping models can tell them apart by their features, so they
+     * still see the whole population.
+     *
+     * @return the trustees
+     */
+    private List<Agent> globalMarket() {
+        if (!hasNewcomers()) {
+            return agents;
+        }
+        VirtualPopulation population = (VirtualPopulation) agents;
+        synchronized (population) {
+            if (newcomer == null || !newcomer.isTrusteeNewbie()) {
+                newcomer = population.pickUntried(newcomerRandom);
+            }
+            List<Agent> market = population.getTried();
+            if (newcomer != null) {
+                market.add(newcomer);
+            }
+            return market;
+        }
+    }
+
+    /**
+     * @return whether the global market has a newcomer standing for the
+     *         untried trustees (see globalMarket())
+     */
+    private boolean hasNewcomers() {
+        return agents instanceof VirtualPopulation && condition != GGRS;
+    }
+
+    /**
+     * The average expected loss over a market - each member's chance of
+     * failure times its asking price - given the trust in its members. If the
+     * newcomer is in the market, its chance of failure goes for every untried
+     * trustee, so they are all counted (at their own asking prices) without
+     * building the ones that haven't been.
+     *
+     * @param trust
+     *            trust in each member of the market
+     * @return the average expected loss
+     */
+    public double averageEL(Map<Agent, Double> trust) {
+        Double newcomerTrust = newcomer == null ? null : trust.get(newcomer);
+        double sum = 0, count = 0;
+        for (Entry<Agent, Double> entry : trust.entrySet()) {
+            Agent a = entry.getKey();
+            // the untried ones are counted below
+            if (newcomerTrust != null && a.getRole() == Agent.TRUSTEE && a.isTrusteeNewbie()) {
+                continue;
+            }
+            sum += (1 - entry.getValue()) * a.getAskingPrice();
+            count++;
+        }
+        if (newcomerTrust != null) {
+            VirtualPopulation population = (VirtualPopulation) agents;
+            sum += (1 - newcomerTrust) * population.getUntriedAskingPrice();
+            count += population.getUntriedCount();
+        }
+        return sum / count;
+    }
+
     /**
      * Return a list of candidates that an agent can ask for reputational
      * opinions
@@ -1148,7 +1838,7 @@ public class Experiment {
                 // in the ad-hoc case, select them from the ad-hoc team the agent is
                 // in
                 // return this.assignments.get(agent);
-                return trustorsInTeam(agent, assignments.get(agent));
+                return trustorsInTeam(agent, teamEngine.getTeamOf(agent));
         }
         return null;
     }
@@ -1191,14 +1881,15 @@ public class Experiment {
      */
     public void diagnostics(int timeStep) {
 
-        // average ask
-        double sum = 0, count = 0;
-        for (Agent a : agents) {
-            if (a.getRole() == Agent.TRUSTEE) {
-                sum += a.getAskingPrice();
-                count++;
-            }
-        }
+        // average ask (goes through every trustee, building a virtual
+        // population, so only when it's printed)
+//        double sum = 0, count = 0;
+//        for (Agent a : agents) {
+//            if (a.getRole() == Agent.TRUSTEE) {
+//                sum += a.getAskingPrice();
+//                count++;
+//            }
+//        }
         //System.err.println(sum / count);
 
         // delegation type tracking
@@ -1339,10 +2030,183 @@ public class Experiment {
         return history;
     }
 
-    public void setHistory(List<State> history) {
+    /**
+     * Set a directory of models saved by saveModels() to warm start the
+     * trustors' stereotype learners from when the experiment is run.
+     *
+     * @param warmStartDir
+     *            directory, or null to start from nothing
+     */
+    public void setWarmStartDir(File warmStartDir) {
+        this.warmStartDir = warmStartDir;
+    }
+
+    /**
+     * Set the seed the population (feature vectors, and virtual trustees) is
+     * generated from. Conditions run with the same seed get the same agents,
+     * and share their feature vectors.
+     *
+     * @param populationSeed
+     */
+    public void setPopulationSeed(long populationSeed) {
+        this.populationSeed = populationSeed;
+    }
+
+    public long getPopulationSeed() {
+        return populationSeed;
+    }
+
+    /**
+     * Set the seed of this run. Unless a population seed was given, the
+     * population is generated from it too.
+     *
+     * @param runSeed
+     */
+    public void setRunSeed(long runSeed) {
+        this.runSeed = runSeed;
+        if (!fixedPopulationSeed) {
+            this.populationSeed = RandomStreams.seedOf(runSeed, RandomStreams.POPULATION);
+        }
+    }
+
+    public long getRunSeed() {
+        return runSeed;
+    }
+
+    /**
+     * @return the seed all of this condition's random streams come from (the
+     *         run seed itself with common random numbers)
+     */
+    public long getSeed() {
+        return commonRandomNumbers ? runSeed : RandomStreams.seedOf(runSeed, "condition" + condition);
+    }
+
+    /**
+     * Save the trustors' learned stereotype models, one file per trustor.
+     * Models are keyed by effort level (* for the unconditional model).
+     *
+     * @param dir
+     *            directory to write to (created if necessary)
+     * @throws IOException
+     */
+    public void saveModels(File dir) throws IOException {
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        for (Agent t : trustors) {
+            HashMap<String, Serializable> states = new HashMap<String, Serializable>();
+            for (Entry<String, DirectStereoSL> e : getStereotypeModels(t).entrySet()) {
+                Serializable state = e.getValue().getLearnerState();
+                if (state != null) {
+                    states.put(e.getKey(), state);
+                }
+            }
+            if (states.isEmpty()) {
+                continue;
+            }
+            ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(new File(dir, t.getId() + ".model")));
+            try {
+                out.writeObject(states);
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Warm start the trustors' stereotype learners from models saved by
+     * saveModels(). Trustors are matched up by id; any without a saved model
+     * start from nothing as usual.
+     *
+     * @param dir
+     */
+    @SuppressWarnings("unchecked")
+    private void loadModels(File dir) {
+        for (Agent t : trustors) {
+            File f = new File(dir, t.getId() + ".model");
+            if (!f.exists()) {
+                continue;
+            }
+            try {
+                ObjectInputStream in = new ObjectInputStream(new FileInputStream(f));
+                Map<String, Serializable> states;
+                try {
+                    states = (Map<String, Serializable>) in.readObject();
+                } finally {
+                    in.close();
+                }
+                Map<String, DirectStereoSL> models = getStereotypeModels(t);
+                for (Entry<String, Serializable> e : states.entrySet()) {
+                    if (models.containsKey(e.getKey())) {
+                        models.get(e.getKey()).setLearnerState(e.getValue());
+                    }
+                }
+            } catch (Exception e) {
+                System.err.println("ERROR: Could not load saved models from " + f + ", starting from nothing.");
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Get the stereotyping models an agent holds, keyed by effort level (* for
+     * the unconditional model).
+     *
+     * @param a
+     * @return
+     */
+    private Map<String, DirectStereoSL> getStereotypeModels(Agent a) {
+        Map<String, DirectStereoSL> models = new HashMap<String, DirectStereoSL>();
+        if (!(a.getTrustModel() instanceof EffortAdapter)) {
+            return models;
+        }
+        EffortAdapter adapter = (EffortAdapter) a.getTrustModel();
+        for (Entry<String, TrustModel> e : adapter.getEffortModels().entrySet()) {
+            if (e.getValue() instanceof DirectStereoSL) {
+                models.put(e.getKey(), (DirectStereoSL) e.getValue());
+            }
+        }
+        if (adapter.getUnconditionalTrustModel() instanceof DirectStereoSL) {
+            models.put("*", (DirectStereoSL) adapter.getUnconditionalTrustModel());
+        }
+        return models;
+    }
+
+    public void setHistory(HistoryRecorder history) {
         this.history = history;
     }
 
+    /**
+     * Write per-step metrics to a file as the experiment runs
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void setMetricsFile(File file) throws IOException {
+        metrics = new MetricsSink(file);
+    }
+
+    /**
+     * @return false if agents only keep running totals of their utility and
+     *         outcomes (the agentHistories property), not the histories
+     */
+    public boolean isKeepingAgentHistories() {
+        return agentHistories;
+    }
+
+    /**
+     * Record the history to a file rather than keeping it in memory, if
+     * recording is on
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void setHistoryFile(File file) throws IOException {
+        if (history != null) {
+            history = MappedHistory.create(file, historyKeyframeInterval);
+        }
+    }
+
     public int getTeamCount() {
         return teamCount;
     }
@@ -1371,6 +2235,14 @@ public class Experiment {
         return noiseFeatureCount;
     }
 
+    /**
+     * @return the noise features every agent has, as well as its profile's
+     *         features
+     */
+    public Map<String, Double> getNoiseFeatures() {
+        return noiseFeatures;
+    }
+
     public void setNoiseFeatureCount(int noiseFeatureCount) {
         this.noiseFeatureCount = noiseFeatureCount;
     }
@@ -1439,6 +2311,10 @@ public class Experiment {
         return isSubDelegationAllowed;
     }
 
+    public int getMaxDelegationDepth() {
+        return maxDelegationDepth;
+    }
+
     public int getVisibility() {
         return visibility;
     }
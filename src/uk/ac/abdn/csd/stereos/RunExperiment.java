@@ -2,27 +2,33 @@ package uk.ac.abdn.csd.stereos;
 
 import java.awt.BorderLayout;
 import java.awt.Frame;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintWriter;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Properties;
+import java.util.Random;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.JTextArea;
 
 import uk.ac.abdn.csd.stereos.exceptions.InvalidParametersException;
 
+import uk.ac.abdn.csd.stereos.util.RunStatistics;
 import uk.ac.abdn.csd.stereos.util.reporters.ExampleAverageReporter;
 import uk.ac.abdn.csd.stereos.util.reporters.ExampleRMSEReporter;
 import uk.ac.abdn.csd.stereos.util.reporters.GlobalAverageReporter;
 import uk.ac.abdn.csd.stereos.util.reporters.GlobalOpinionsReporter;
 import uk.ac.abdn.csd.stereos.util.reporters.GlobalRMSEReporter;
-import uk.ac.abdn.csd.stereos.util.reporters.Reporter;
+import uk.ac.abdn.csd.stereos.util.reporters.ReportPipeline;
 import uk.ac.abdn.csd.stereos.util.reporters.TrustorUtilityReporter;
+import uk.ac.abdn.csd.stereos.util.viewer.MappedHistory;
 import uk.ac.abdn.csd.stereos.util.viewer.Viewer;
 
 /**
@@ -46,7 +52,12 @@ public class RunExperiment implements Runnable {
      * @throws IOException
      */
     public static void main(String[] args) throws IOException, InvalidParametersException {
-        if (args.length > 0) {
+        // play back a recorded history, without running anything
+        if (args.length > 1 && args[0].equals("-play")) {
+            Viewer viewer = new Viewer(1000, 800);
+            new ExperimentFrame(viewer).setVisible(true);
+            viewer.setData(MappedHistory.open(new File(args[1])));
+        } else if (args.length > 0) {
             // recording?
             boolean v = false;
             String profile = args[0];
@@ -75,27 +86,27 @@ public class RunExperiment implements Runnable {
         this.statusArea = statusArea;
     }
 
-    public void run() {
+    /**
+     * This inner class implements the frame that will be used to display
+     * the Processing app for viewing the results
+     *
+     * @author cburnett
+     *
+     */
+    private static class ExperimentFrame extends Frame {
 
-         /**
-         * This inner class implements the frame that will be used to display
-         * the Processing app for viewing the results
-         *
-         * @author cburnett
-         *
-         */
-        class ExperimentFrame extends Frame {
-
-            public ExperimentFrame(Viewer pa) {
-                setLayout(new BorderLayout());
-                pa.setVisible(true);
-                this.setResizable(true);
-                this.setSize(1000, 800);
-
-                pa.init();
-                this.add(pa, BorderLayout.CENTER);
-            }
+        public ExperimentFrame(Viewer pa) {
+            setLayout(new BorderLayout());
+            pa.setVisible(true);
+            this.setResizable(true);
+            this.setSize(1000, 800);
+
+            pa.init();
+            this.add(pa, BorderLayout.CENTER);
         }
+    }
+
+    public void run() {
 
         String profile = properties.get("experimentName").toString();
 
@@ -116,15 +127,82 @@ public class RunExperiment implements Runnable {
             runs = Integer.parseInt(properties.getProperty("runs"));
         }
 
+        // adaptive batching - keep doing runs until the confidence intervals of
+        // the summary metrics are narrow enough, up to maxRuns
+        RunStatistics statistics = null;
+        if ("yes".equalsIgnoreCase(properties.getProperty("adaptiveRuns"))) {
+            double ciLevel = Double.parseDouble(properties.getProperty("ciLevel", "0.95"));
+            double ciTarget = Double.parseDouble(properties.getProperty("ciTarget", "0.05"));
+            int minRuns = Integer.parseInt(properties.getProperty("minRuns", "3"));
+            statistics = new RunStatistics(ciLevel, ciTarget, minRuns);
+            // e.g. ciTarget.utility=0.5 for an absolute target
+            for (String metric : RunStatistics.METRICS) {
+                String absolute = properties.getProperty("ciTarget." + metric);
+                if (absolute != null) {
+                    statistics.setAbsoluteTarget(metric, Double.parseDouble(absolute));
+                }
+            }
+            runs = Integer.parseInt(properties.getProperty("maxRuns", Integer.toString(runs)));
+        }
+
         String conditionsString = properties.getProperty("conditions");
         String[] conditions = conditionsString.split(",");
 
+        // saving and warm starting of stereotype models. warmStart can be
+        // 'previous', to carry models over from one run to the next, or the
+        // path of an earlier results directory to start from its models
+        boolean saveModels = "yes".equalsIgnoreCase(properties.getProperty("saveModels"));
+        String warmStart = properties.getProperty("warmStart");
+        File warmStartDir = null;
+        if (warmStart != null && warmStart.equalsIgnoreCase("previous")) {
+            saveModels = true;
+        } else if (warmStart != null && !warmStart.equalsIgnoreCase("no")) {
+            warmStartDir = new File(warmStart, "models");
+        }
+        // the weka EM clusterer has no centres to save
+        if (saveModels && "wekaem".equalsIgnoreCase(properties.getProperty("clusterer"))) {
+            System.err.println("RunExperiment: Models can't be saved with clusterer=wekaem - not saving them.");
+            saveModels = false;
+        }
+        File modelsDir = new File(expsDir, "models");
+
+        // per-step metrics can be written as each experiment runs
+        boolean streamMetrics = "yes".equalsIgnoreCase(properties.getProperty("streamMetrics"));
+        // without the agents' histories the streamed metrics are the only
+        // record of the trustors' utility
+        if (!streamMetrics && "no".equalsIgnoreCase(properties.getProperty("agentHistories"))) {
+            System.err.println("RunExperiment: agentHistories=no - streaming metrics so trustor utility is still written.");
+            streamMetrics = true;
+        }
+        // number of result files to write at once
+        String reportThreadsString = properties.getProperty("reportThreads");
+        int reportThreads = reportThreadsString == null ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(
+                reportThreadsString);
+
         // make a new directory for the results
 
+        // every condition in a run gets the same run seed, so they share a
+        // population (and, with common random numbers, everything else random).
+        // all of them come from one batch seed, which is recorded with the
+        // results - giving it as the runSeed property repeats the whole batch
+        long batchSeed = properties.containsKey("runSeed") ? Long.parseLong(properties.getProperty("runSeed"))
+                : new Random().nextLong();
+        Random seeds = new Random(batchSeed);
+        PrintWriter seedLog = null;
+        try {
+            seedLog = new PrintWriter(new BufferedWriter(new FileWriter(new File(expsDir, profile + "-seeds.csv"))));
+            seedLog.println("run,condition,seed");
+            seedLog.println("0,*," + batchSeed);
+        } catch (IOException e) {
+            System.err.println("RunExperiment: Could not write seed file");
+            e.printStackTrace();
+        }
+
         // begin batching loop
         for (int k = 1; k <= runs; k++) {
             try {
                 System.out.println("Run " + k);
+                long runSeed = seeds.nextLong();
                 // array of experiments
                 Experiment[] experiments = new Experiment[conditions.length];
                 // run each specified condition
@@ -148,10 +226,41 @@ public class RunExperiment implements Runnable {
                             statusArea.append(startString);
                         }
                         try {
-                            experiments[i] = new Experiment("experiments/" + profile + ".properties", visualiser, statusArea);
+                            experiments[i] = new Experiment(properties, visualiser, statusArea);
                             experiments[i].setProfileName(profile + "-" + k);
+                            experiments[i].setRunSeed(runSeed);
                             experiments[i].setCondition(thisCondition);
+                            if (streamMetrics) {
+                                try {
+                                    experiments[i].setMetricsFile(new File(expsDir, profile + "-" + k + "-" + condition + "-metrics.csv"));
+                                } catch (IOException e) {
+                                    System.err.println("RunExperiment: Could not create metrics file");
+                                    e.printStackTrace();
+                                }
+                            }
+                            // the history goes to the results, so it can be played
+                            // back later with -play
+                            if (visualiser) {
+                                try {
+                                    experiments[i].setHistoryFile(new File(expsDir, profile + "-" + k + "-" + condition + "-history.bin"));
+                                } catch (IOException e) {
+                                    System.err.println("RunExperiment: Could not create history file, keeping it in memory");
+                                    e.printStackTrace();
+                                }
+                            }
+                            if (seedLog != null) {
+                                seedLog.println(k + "," + thisCondition + "," + experiments[i].getSeed());
+                                seedLog.flush();
+                            }
+                            if (warmStartDir != null) {
+                                experiments[i].setWarmStartDir(new File(warmStartDir, condition));
+                            } else if (k > 1 && warmStart != null && warmStart.equalsIgnoreCase("previous")) {
+                                experiments[i].setWarmStartDir(new File(modelsDir, condition));
+                            }
                             experiments[i].run();
+                            if (saveModels) {
+                                experiments[i].saveModels(new File(modelsDir, condition));
+                            }
                         } catch (InvalidParametersException e) {
                             System.err.println("ERROR: There was a problem with some experimental parameters.");
                             e.printStackTrace();
@@ -186,25 +295,43 @@ public class RunExperiment implements Runnable {
                     // }
                     // }
                 }
-                // write the datafiles
-                Reporter eaReporter = new ExampleAverageReporter(expsDir);
-                Reporter gaReporter = new GlobalAverageReporter(expsDir);
-                Reporter opReporter = new GlobalOpinionsReporter(expsDir);
-                Reporter eeReporter = new ExampleRMSEReporter(expsDir);
-                Reporter geReporter = new GlobalRMSEReporter(expsDir);
-                Reporter tuReporter = new TrustorUtilityReporter(expsDir);
-                //Reporter puReporter = new ProfileUtilityReporter(expsDir);
-                opReporter.writeReport(experiments);
-                eaReporter.writeReport(experiments);
-                gaReporter.writeReport(experiments);
-                eeReporter.writeReport(experiments);
-                geReporter.writeReport(experiments);
-                //				puReporter.writeReport(experiments);
-                tuReporter.writeReport(experiments);
+                // write the datafiles - the results are scanned once, then
+                // the files are written in parallel
+                ReportPipeline reports = new ReportPipeline(reportThreads);
+                reports.add(new GlobalOpinionsReporter(expsDir));
+                reports.add(new ExampleAverageReporter(expsDir));
+                reports.add(new GlobalAverageReporter(expsDir));
+                reports.add(new ExampleRMSEReporter(expsDir));
+                reports.add(new GlobalRMSEReporter(expsDir));
+                //reports.add(new ProfileUtilityReporter(expsDir));
+                // without the utility histories, the streamed metrics have the
+                // trustors' utility instead (streamMetrics is forced on above)
+                Experiment first = null;
+                for (int i = 0; i < experiments.length && first == null; i++) {
+                    first = experiments[i];
+                }
+                if (first != null && first.isKeepingAgentHistories()) {
+                    reports.add(new TrustorUtilityReporter(expsDir));
+                }
+                System.out.print("Writing results...");
+                reports.run(experiments);
+                System.out.print("...completed.\n");
                 System.out.println("All experiments completed");
+                if (statistics != null) {
+                    statistics.addRun(experiments);
+                    statistics.writeSummary(new File(expsDir, profile + "-summary.csv"));
+                    System.out.println(statistics.getUnsettledCount() + " estimates not yet within their targets");
+                    if (statistics.isPrecise()) {
+                        System.out.println("Estimates are precise enough after " + k + " runs, stopping.");
+                        break;
+                    }
+                }
             } catch (IOException ex) {
                 Logger.getLogger(RunExperiment.class.getName()).log(Level.SEVERE, null, ex);
             }
         }
+        if (seedLog != null) {
+            seedLog.close();
+        }
     }
 }
@@ -1,12 +1,15 @@
 package uk.ac.abdn.csd.stereos.agents;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.Map.Entry;
 
+import org.apache.commons.math.random.RandomData;
+
 import uk.ac.abdn.csd.stereos.Experiment;
 import uk.ac.abdn.csd.stereos.agents.evaluators.DefaultEvaluator;
 import uk.ac.abdn.csd.stereos.agents.evaluators.PerformanceEvaluator;
@@ -16,6 +19,7 @@ import uk.ac.abdn.csd.stereos.reputation.DefaultFilter;
 import uk.ac.abdn.csd.stereos.reputation.ReputationFilter;
 import uk.ac.abdn.csd.stereos.trust.TrustModel;
 import uk.ac.abdn.csd.stereos.trust.sl.Opinion;
+import uk.ac.abdn.csd.stereos.util.CandidateView;
 import uk.ac.abdn.csd.stereos.util.Pair;
 
 /**
@@ -42,6 +46,11 @@ public class Agent {
      * This variable stores a short identifier for the agent
      */
     private String id;
+    /**
+     * The number in the agent's id (a12 is 12), or -1 if it hasn't got one,
+     * so agents can be kept track of in bit sets (see getKey)
+     */
+    private int number;
     /**
      * The trust model this agent will use
      */
@@ -89,6 +98,8 @@ public class Agent {
      */
     private List<Double> avgResult;
     private double totalResult;
+    private double lastAvgResult;
+    private int resultCount;
     /**
      * Utility of the agent at each time step This simple variable records the
      * agent's utility throughout the experiment whether they be trustee or
@@ -96,6 +107,12 @@ public class Agent {
      */
     private double utility;
     private List<Double> utilityHistory;
+    // entries the utility history has (or would have)
+    private int utilityCount = 1;
+    /**
+     * Whether to keep the histories above, or just the running totals
+     */
+    private boolean keepHistories = true;
     /**
      * Asking price of the agent for the (default) task
      */
@@ -105,6 +122,20 @@ public class Agent {
      */
     private int lastContractType;
     private double lastInteractionOutcome;
+    /**
+     * Ratings and opinions as they stood at the start of a bulk synchronous
+     * step, for the agents we have evaluated or been asked about during it,
+     * so that recommenders give the same answers whatever order trustors
+     * decide in
+     */
+    private int frozenStep = -1;
+    private Map<Agent, Double> frozenRatings;
+    private Map<Agent, Opinion> frozenOpinions;
+    /**
+     * Source of this agent's performance draws, or null to draw from the
+     * profile's shared source
+     */
+    private RandomData random;
 
 
     /**
@@ -130,6 +161,7 @@ public class Agent {
             Map<String, Integer> featureVector, Experiment experiment) {
         super();
         this.id = id;
+        this.number = numberOf(id);
         this.trustModel = tm;
         this.trustorDecisionModel = todm;
         this.trusteeDecisionModel = tedm;
@@ -191,6 +223,7 @@ public class Agent {
             PerformanceEvaluator pe, Profile p, Map<String, Integer> featureVector, Experiment e) {
         super();
         this.id = id;
+        this.number = numberOf(id);
         this.trustModel = tm;
         this.trustorDecisionModel = todm;
         this.trusteeDecisionModel = tedm;
@@ -302,6 +335,40 @@ public class Agent {
      */
     public void setId(String id) {
         this.id = id;
+        this.number = numberOf(id);
+    }
+
+    /**
+     * @return the number in this agent's id, or -1 if it hasn't got one
+     */
+    public int getNumber() {
+        return number;
+    }
+
+    /**
+     * Trustees (a12) and trustors (t12) are numbered separately, so their
+     * numbers can be the same. This gives trustees the even keys and everyone
+     * else the odd ones, for bit sets that may hold both.
+     *
+     * @return a key unique to this agent among agents with numbers, or -1 if
+     *         it hasn't got a number
+     */
+    public int getKey() {
+        if (number < 0) {
+            return -1;
+        }
+        return id.charAt(0) == 'a' ? 2 * number : 2 * number + 1;
+    }
+
+    private static int numberOf(String id) {
+        if (id == null || id.length() < 2) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(id.substring(1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
     }
 
     public Profile getProfile() {
@@ -338,19 +405,66 @@ public class Agent {
      *            Returns a reference to the chosen agents.
      */
     public Delegation delegate(Delegation del, int timeStep) {
+        return complete(decide(del, timeStep));
+    }
+
+    /**
+     * Apply an interaction (or leave it for the commit phase of a bulk
+     * synchronous step)
+     *
+     * @return the contract handed back for it
+     */
+    Delegation complete(Interaction interaction) {
+        // in a bulk synchronous step, the effects are applied later on
+        if (experiment == null || !experiment.deferCommit(interaction)) {
+            commit(interaction);
+        }
+        return interaction.getResult();
+    }
+
+    /**
+     * Work out what a delegation came to, once the trustee has performed (or
+     * passed it on)
+     *
+     * @param contract
+     *            the contract we made
+     * @param result
+     *            the contract handed back, or null if it was refused further
+     *            down a sub-delegation chain
+     * @param uAbstain
+     * @param timeStep
+     * @return the interaction, to be committed
+     */
+    Interaction conclude(Delegation contract, Delegation result, double uAbstain, int timeStep) {
+        double observation = result == null ? -1 : result.getOutcome();
+        if (observation < 0) {
+            // if no delegation happened, because the trustee
+            // refused, then we abstain
+            return new Interaction(this, Interaction.REFUSED, contract, observation, 0, uAbstain, timeStep);
+        }
+        double evaluation = this.performanceEvaluator.evaluate(contract.getTrustee(), observation);
+        return new Interaction(this, Interaction.DELEGATED, contract, observation, evaluation, uAbstain, timeStep);
+    }
+
+    /**
+     * The decision part of delegation - choose a trustee and have it perform,
+     * but don't apply the outcome to utilities or the trust model yet.
+     *
+     * @param del
+     * @param timeStep
+     * @return the interaction, to be committed
+     */
+    public Interaction decide(Delegation del, int timeStep) {
         // uSucc and uFail are *global* (trustor) task success/fail utilities
         // set by experiment class at invocation, or passed by another agent in case of sub-delegation
-        double myUSucc = del.getTrustorSuccessPayoff();
-        double myUFail = del.getTrustorFailurePayoff();
         double uAbstain = del.getAbstainPayoff();
         // other trustor parameters from the delegation object
-        // Ask the experiment control for the list of candidates
-        List<Agent> candidates = experiment.getDelegationCandidates(this);
+        // Ask the experiment control for the list of candidates, leaving out
+        // those who are in the sub-delegation path - this prevents loops or
+        // backtracking in delegation chains
+        CandidateView candidates = experiment.getDelegationCandidates(this).exclude(del.getDelegationPath());
         // Ask the experiment control for a list of recommenders
         List<Agent> recommenders = experiment.getReputationCandidates(this);
-        // need to remove candidates for consideration who are in the sub-delegation path
-        // this prevents loops or backtracking in delegation chains
-        candidates.removeAll(del.getDelegationPath());
         // filter recommenders for stereotypical bias - we may contact different
         // recommenders for different agents
         Map<Agent, List<Agent>> filteredRecommenders = filter.filterRecommenders(this, candidates, recommenders);
@@ -362,88 +476,81 @@ public class Agent {
 //			a.compete(timeStep);
 
         // --- MAIN AGENT TRUST PROCESS ---
-        double observation = -1;
+        // others may ask us about these candidates later in the step
+        freeze(candidates);
         // Use trust model to evaluate them - unconditionally
         Map<Agent, Double> unconditionalOpinions = trustModel.evaluate(candidates, filteredRecommenders, timeStep);
         // then conditionally
         Map<String, Map<Agent, Double>> conditionalOpinions = trustModel.conditionallyEvaluate(candidates,
                 filteredRecommenders, timeStep);
-        // until we find an agent who will accept
-        while (observation == -1) {
-            // Use decision model to decide - decision mode produces a
-            // 'contract' (or incentive structure, whatever)
-            Delegation contract = trustorDecisionModel.selectAgent(unconditionalOpinions, conditionalOpinions, del);
-            // add ourselves to the delegationpath
-            contract.getDelegationPath().add(this);
-            //contract.setDelegationPath(delegationPath);
-            // --------------------------------
-            if (contract != null) {
-                // if agent opted to delegate at all
-                double evaluation;
-                // get the chosen trustee from the contract
-                trustee = contract.getTrustee();
-                if (trustee != null) {
-                    // invoke - the trustee is made aware of its competitors and
-                    // recommender peers
-                    // this enables it to calculate its 'self-image' and enables
-                    // reputational incentive
-                    // each agent in the chain (if there is a chain) has to look at the outcome and realise what it means for it
-                    observation = trustee.perform(contract, candidates, filteredRecommenders, timeStep).getOutcome();
-                    lastInteractionOutcome = observation;
-                    if (observation < 0) {
-                        // if no delegation happened, because the trustee
-                        // refused, then we abstain
-                        incUtility(uAbstain);
-                        return null; // return null to the experiment class - no
-                        // interaction happened
-                    }
-
-                    // -1 means trustee refused
-                    evaluation = this.performanceEvaluator.evaluate(trustee, observation);
-                    // transfer payment from trustor to trustee
-                    // unless self delegation!
-
-                    updateUtilities(this, trustee, evaluation, contract);
-
-                    // get effort, if we monitored
-                    String observedEffort = null;
-                    if (contract.getType() == Delegation.DELEGATION_MONITORED) {
-                        observedEffort = contract.getTrusteeEffort();
-                    }
-                    Experience thisExperience = new Experience(this, trustee, observedEffort, observation, evaluation,
-                            this.performanceEvaluator, timeStep);
-                    trustModel.addExperience(thisExperience);
-                    updateAvgResult(evaluation, trustModel.getExperienceBase().size());
-
-                    // submit the new rating to the centralised reputation store
-                    // record the type of delegation
-                    this.lastContractType = contract.getType();
-                    trustorNewbie = false;
-                    // get the new delegation path, after delegation is complete
-                    return contract;
-                } else {
-                    this.lastContractType = Delegation.DELEGATION_ABSTAIN;
-                    this.incUtility(uAbstain);
-                    return contract;
-                }
-            } else {
-                // in the case agent opts to abstain, do not delegate but deduct
-                // the abstain cost
-                // from the agent's utility
-                this.incUtility(uAbstain);
-                this.lastContractType = Delegation.DELEGATION_ABSTAIN;
-                // add the performing agent to the delegation path
-                return contract;
+        // Use decision model to decide - decision mode produces a
+        // 'contract' (or incentive structure, whatever)
+        Delegation contract = trustorDecisionModel.selectAgent(unconditionalOpinions, conditionalOpinions, del);
+        // add ourselves to the delegationpath
+        contract.getDelegationPath().add(this);
+        //contract.setDelegationPath(delegationPath);
+        // --------------------------------
+        if (contract != null) {
+            // get the chosen trustee from the contract
+            trustee = contract.getTrustee();
+            if (trustee != null) {
+                // invoke - the trustee is made aware of its competitors and
+                // recommender peers
+                // this enables it to calculate its 'self-image' and enables
+                // reputational incentive
+                // each agent in the chain (if there is a chain) has to look at the outcome and realise what it means for it
+                Delegation result = trustee.perform(contract, candidates, filteredRecommenders, timeStep);
+                return conclude(contract, result, uAbstain, timeStep);
             }
         }
-        this.lastContractType = Delegation.DELEGATION_ABSTAIN;
-        // if we haven't got an agent at this stage, it means they all refused,
-        // which means we are abstaining
-        // just return the null - CAREFUL
-        return null;
+        // in the case agent opts to abstain, do not delegate but deduct
+        // the abstain cost from the agent's utility
+        return new Interaction(this, Interaction.ABSTAINED, contract, -1, 0, uAbstain, timeStep);
         // -----------------------------------------------------
     }
 
+    /**
+     * Apply the outcome of a delegation decision - utilities, experiences and
+     * so on.
+     *
+     * @param interaction
+     *            an interaction this agent decided on
+     */
+    public void commit(Interaction interaction) {
+        Delegation contract = interaction.contract;
+        switch (interaction.outcome) {
+            case Interaction.REFUSED:
+                lastInteractionOutcome = interaction.observation;
+                incUtility(interaction.abstainPayoff);
+                break;
+            case Interaction.ABSTAINED:
+                this.incUtility(interaction.abstainPayoff);
+                this.lastContractType = Delegation.DELEGATION_ABSTAIN;
+                break;
+            case Interaction.DELEGATED:
+                Agent trustee = contract.getTrustee();
+                lastInteractionOutcome = interaction.observation;
+                // transfer payment from trustor to trustee
+                // unless self delegation!
+                updateUtilities(this, trustee, interaction.evaluation, contract);
+
+                // get effort, if we monitored
+                String observedEffort = null;
+                if (contract.getType() == Delegation.DELEGATION_MONITORED) {
+                    observedEffort = contract.getTrusteeEffort();
+                }
+                Experience thisExperience = new Experience(this, trustee, observedEffort, interaction.observation,
+                        interaction.evaluation, this.performanceEvaluator, interaction.timeStep);
+                trustModel.addExperience(thisExperience);
+                updateAvgResult(interaction.evaluation, trustModel.getExperienceBase().size());
+
+                // record the type of delegation
+                this.lastContractType = contract.getType();
+                trustorNewbie = false;
+                break;
+        }
+    }
+
     public double getLastInteractionOutcome() {
         return lastInteractionOutcome;
     }
@@ -518,7 +625,11 @@ public class Agent {
      */
     private void updateAvgResult(double outcome, int expCount) {
         totalResult += outcome;
-        avgResult.add(totalResult / expCount);
+        lastAvgResult = totalResult / expCount;
+        resultCount++;
+        if (keepHistories) {
+            avgResult.add(lastAvgResult);
+        }
     }
 
     /**
@@ -540,6 +651,21 @@ public class Agent {
         return this.avgResult;
     }
 
+    /**
+     * @return the agent's latest average interaction outcome, or -1 if it has
+     *         none yet
+     */
+    public double getLastAvgResult() {
+        return resultCount > 0 ? lastAvgResult : -1;
+    }
+
+    /**
+     * @return how many average outcomes the agent has had
+     */
+    public int getResultCount() {
+        return resultCount;
+    }
+
     /**
      * Perform a virtual task on behalf of a delegating agent and return the
      * result
@@ -551,7 +677,7 @@ public class Agent {
 
         // when asked to perform without an incentive structure, we select the
         // default level of effort from the profile
-        return profile.getDefaultPerformanceValue();
+        return random == null ? profile.getDefaultPerformanceValue() : profile.getDefaultPerformanceValue(random);
     }
 
     /**
@@ -566,6 +692,14 @@ public class Agent {
      *         delegation, and that's not wah
      */
     public Delegation perform(Delegation del, List<Agent> competitors, Map<Agent, List<Agent>> recommenders, int timeStep) {
+        // check to see if sub-delegation is allowed - if so, the chain is
+        // followed from here (see DelegationChain)
+        if (experiment.isSubDelegationAllowed()) {
+            CandidateView view = competitors instanceof CandidateView ? (CandidateView) competitors
+                    : new CandidateView(competitors);
+            return new DelegationChain(view, recommenders, experiment.getMaxDelegationDepth(), timeStep).run(del);
+        }
+
         // in deciding whether to accept the delegation, the agent needs to
         // consider its standing in the society
         // it does this by consulting its 'self-trust' model.
@@ -573,21 +707,17 @@ public class Agent {
         // then conditionally
         Map<String, Map<Agent, Double>> conditionalOpinions = trustModel.conditionallyEvaluate(competitors,
                 recommenders, timeStep);
+        return performTask(del, unconditionalOpinions, conditionalOpinions);
+    }
 
-        // check to see if sub-delegation is allowed
-        // NOTE - currently, sub-delegation is not fully implemented.
-        if (experiment.isSubDelegationAllowed()) {
-
-            Delegation contract = trustorDecisionModel.selectAgent(unconditionalOpinions, conditionalOpinions, del);
-            // assuming we are not included in the opinions
-            if (contract.getTrustee() != this) // if we are not the best agent for the job, sub-delegate
-            {
-                return delegate(del, timeStep);
-            }
-        }
-
-        // sub-delegating is not allowed, or if it is, we are the 'best' agent
-        // in this case, we are actually performing the task, and not subdelegating
+    /**
+     * Actually perform a task (rather than passing it on), given our opinions
+     * of our competitors
+     *
+     * @return the contract, with the outcome set
+     */
+    Delegation performTask(Delegation del, Map<Agent, Double> unconditionalOpinions,
+            Map<String, Map<Agent, Double>> conditionalOpinions) {
         EffortLevel selectedEffort = trusteeDecisionModel.selectEffort(del, askingPrice, profile,
                 unconditionalOpinions, conditionalOpinions);
         if (selectedEffort == null) {
@@ -599,7 +729,8 @@ public class Agent {
         // add ourselves as performers to the contract
         del.getDelegationPath().add(this);
         // do the performance
-        double rawOutcome = profile.getPerformanceValue(selectedEffort);
+        double rawOutcome = random == null ? profile.getPerformanceValue(selectedEffort) : profile
+                .getPerformanceValue(selectedEffort, random);
         double outcome = 0;
 
         // normalise outcome to be between 0 and 1
@@ -629,6 +760,10 @@ public class Agent {
      * @return a calculated rating for that agent
      */
     public double query(Agent a) {
+        if (isFrozen()) {
+            freeze(a);
+            return frozenRatings.get(a);
+        }
         // get the cached calculated rating from the trust model
         return trustModel.query(a);
     }
@@ -653,9 +788,54 @@ public class Agent {
      * @return an SL opinion, or null if the agent's model is not SL based
      */
     public Opinion opinionQuery(Agent a) {
+        if (isFrozen()) {
+            freeze(a);
+            Opinion op = frozenOpinions.get(a);
+            return op == null ? null : new Opinion(op);
+        }
         return trustModel.opinionQuery(a);
     }
 
+    /**
+     * Are we in the read phase of a bulk synchronous step? If so, make sure
+     * the frozen ratings are for this step.
+     */
+    private boolean isFrozen() {
+        int step = experiment == null ? -1 : experiment.getReadPhaseStep();
+        if (step < 0) {
+            return false;
+        }
+        if (frozenStep != step) {
+            frozenStep = step;
+            frozenRatings = new HashMap<Agent, Double>();
+            frozenOpinions = new HashMap<Agent, Opinion>();
+        }
+        return true;
+    }
+
+    /**
+     * Keep our current rating and opinion of an agent for the rest of the
+     * step, if we haven't already
+     */
+    private void freeze(Agent a) {
+        if (!frozenRatings.containsKey(a)) {
+            frozenRatings.put(a, trustModel.query(a));
+            frozenOpinions.put(a, trustModel.opinionQuery(a));
+        }
+    }
+
+    /**
+     * Freeze our view of the given agents before evaluating them (which
+     * changes the model's ratings), if we are in a bulk synchronous step
+     */
+    void freeze(List<Agent> agents) {
+        if (isFrozen()) {
+            for (Agent a : agents) {
+                freeze(a);
+            }
+        }
+    }
+
     /**
      * Return a short string describing this agent
      */
@@ -688,7 +868,10 @@ public class Agent {
     public void incUtility(double amount) {
         // get the last item in the utility history
         utility += amount;
-        utilityHistory.add(amount);
+        utilityCount++;
+        if (keepHistories) {
+            utilityHistory.add(amount);
+        }
     }
 
     /**
@@ -697,7 +880,10 @@ public class Agent {
     public void decUtility(double amount) {
         // get the last item in the utility history
         utility -= amount;
-        utilityHistory.add(amount);
+        utilityCount++;
+        if (keepHistories) {
+            utilityHistory.add(amount);
+        }
     }
 
     /**
@@ -710,6 +896,24 @@ public class Agent {
         return utilityHistory;
     }
 
+    /**
+     * @return the agent's average utility per entry of its utility history,
+     *         without needing the history
+     */
+    public double getMeanUtility() {
+        return utility / utilityCount;
+    }
+
+    /**
+     * Stop (or start) keeping the utility and outcome histories - the running
+     * totals are still kept
+     *
+     * @param keepHistories
+     */
+    public void setKeepHistories(boolean keepHistories) {
+        this.keepHistories = keepHistories;
+    }
+
     /**
      * Return a nice string representing the feature vector of this agent
      *
@@ -734,6 +938,15 @@ public class Agent {
         return out.toString();
     }
 
+    /**
+     * Give this agent its own source of performance draws
+     *
+     * @param random
+     */
+    public void setRandom(RandomData random) {
+        this.random = random;
+    }
+
     public PerformanceEvaluator getPerformanceEvaluator() {
         return performanceEvaluator;
     }
@@ -777,12 +990,22 @@ public class Agent {
      * giving it a chance of being selected
      */
     public void compete(int timeStep) {
+        askingPrice = competitivePrice(timeStep);
+    }
+
+    /**
+     * Work out the asking price compete() would set, without setting it.
+     *
+     * @param timeStep
+     * @return the new asking price
+     */
+    public double competitivePrice(int timeStep) {
         // best asking price is based on the lowest level of effort
 
         // our competitors
         // Ask the experiment control for the list of competitors
-        List<Agent> competitors = new ArrayList<Agent>(experiment.getDelegationCandidates(this));
-        competitors.add(this); // add ourselves, so we get our 'standing'
+        // add ourselves, so we get our 'standing'
+        CandidateView competitors = experiment.getDelegationCandidates(this).with(this);
         // Ask the experiment control for a list of recommenders
         List<Agent> recommenders = experiment.getReputationCandidates(this);
         // evaluate society
@@ -793,6 +1016,7 @@ public class Agent {
         // Map<Agent,Map<String,Double>> conditionalOpinions =
         // transposeInput(trustModel.conditionallyEvaluate(competitors,
         // filteredRecommenders, timeStep));
+        freeze(competitors);
         Map<Agent, Double> unconditionals = trustModel.evaluate(competitors, filteredRecommenders, timeStep);
         // calculate average (target) EL - minimum effort
         double targetEL = calculateAverageEL(unconditionals);
@@ -808,10 +1032,27 @@ public class Agent {
 
 
         // what should our asking price be to meed the target?
-        askingPrice = targetEL / myP;
+        return targetEL / myP;
 
-        // System.err.println("Newask: " + askingPrice);
+    }
 
+    /**
+     * Our trust in ourselves - our standing, as competitivePrice() works it
+     * out, but without evaluating our competitors too. The competition engine
+     * shares the evaluation of a market between its members, but each
+     * member's failure probability still comes from its own model.
+     *
+     * @param timeStep
+     * @return the trust we have in ourselves
+     */
+    public double selfTrust(int timeStep) {
+        List<Agent> self = Collections.singletonList(this);
+        Map<Agent, List<Agent>> filteredRecommenders = new DefaultFilter().filterRecommenders(this, self,
+                experiment.getReputationCandidates(this));
+        freeze(self);
+        synchronized (trustModel) {
+            return trustModel.evaluate(self, filteredRecommenders, timeStep).get(this);
+        }
     }
 
     /**
@@ -820,6 +1061,10 @@ public class Agent {
      * @return
      */
     private double calculateAverageEL(Map<Agent, Double> unconditionals) {
+        // (the experiment knows who a virtual population's newcomer stands for)
+        if (experiment != null) {
+            return experiment.averageEL(unconditionals);
+        }
         // average expected loss
         double sum = 0, count = 0;
         // find the market level of expected loss - calculate the average
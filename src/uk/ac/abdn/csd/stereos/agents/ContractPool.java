@@ -0,0 +1,76 @@
+package uk.ac.abdn.csd.stereos.agents;
+
+/**
+ * Spare Delegation objects, so that decision models can fill in contracts
+ * rather than allocating new ones for every alternative they consider. There
+ * is one pool per thread, so nothing is shared.
+ *
+ * A contract should only be released once nothing refers to it any more - an
+ * alternative that wasn't chosen, an initial contract once the trustor has
+ * delegated, or a contract whose interaction has been committed. Releasing
+ * one twice is harmless.
+ *
+ * @author Chris Burnett
+ *
+ */
+public class ContractPool
+{
+
+	/**
+	 * Most spare contracts kept per thread
+	 */
+	public static final int CAPACITY = 64;
+
+	private static final ThreadLocal<ContractPool> pools = new ThreadLocal<ContractPool>() {
+		@Override
+		protected ContractPool initialValue()
+		{
+			return new ContractPool();
+		}
+	};
+
+	/**
+	 * @return the pool of the current thread
+	 */
+	public static ContractPool get()
+	{
+		return pools.get();
+	}
+
+	private final Delegation[] spare = new Delegation[CAPACITY];
+	private int count;
+
+	private ContractPool()
+	{
+	}
+
+	/**
+	 * @return an empty contract, to be filled in (with Delegation.setInitial,
+	 *         setUnmonitored etc.)
+	 */
+	public Delegation obtain()
+	{
+		if (count == 0)
+			return new Delegation();
+		Delegation d = spare[--count];
+		spare[count] = null;
+		d.pooled = false;
+		return d;
+	}
+
+	/**
+	 * Give a contract back, once nothing refers to it
+	 *
+	 * @param d
+	 *            the contract (may be null)
+	 */
+	public void release(Delegation d)
+	{
+		if (d == null || d.pooled || count == CAPACITY)
+			return;
+		d.clear();
+		d.pooled = true;
+		spare[count++] = d;
+	}
+
+}
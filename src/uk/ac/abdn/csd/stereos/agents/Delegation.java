@@ -32,7 +32,13 @@ public class Delegation {
     public static final int DELEGATION_MONITORED = 103;
     public static final int DELEGATION_REPINC = 104;
    
-    // payoff structures for the TRUSTEE in case of success or failure
+    // payoffs for the TRUSTEE in case of success or failure. if a forced
+    // effort is set, they are only paid if that effort was used (monitored
+    // contracts), otherwise they are paid whatever the effort
+    private double successPayoff;
+    private double failurePayoff;
+    private String forcedEffort;
+    // payoffs by effort, only if given as maps
     private Map<String, Double> successPayoffs;
     private Map<String, Double> failurePayoffs;
     // payoffs for the TRUSTOR in case of success/failure
@@ -67,6 +73,9 @@ public class Delegation {
     // a flag recording the visibility condition of this delegation object
     private int visibility;
 
+    // true while waiting in a ContractPool
+    boolean pooled;
+
 
     /**
      * The EU the trustor expects to get from the contract This allows
@@ -97,14 +106,33 @@ public class Delegation {
      */
     public Delegation(Agent trustor, double trustorSuccessPayoff, double trustorFailurePayoff, double abstainPayoff, double monitoringCost, int visibility)
     {
+        setInitial(trustor, trustorSuccessPayoff, trustorFailurePayoff, abstainPayoff, monitoringCost, visibility);
+        // by default, we just record a delegation as having a default path including the trustor.
+        this.delegationPath = new ArrayList<Agent>();
+    }
+
+    /**
+     * An empty contract, for a ContractPool to fill in
+     */
+    Delegation() {
+    }
+
+    /**
+     * Fill in an initial delegation (see the initial delegation constructor).
+     * The path is made when it is first asked for.
+     *
+     * @return this contract
+     */
+    public Delegation setInitial(Agent trustor, double trustorSuccessPayoff, double trustorFailurePayoff, double abstainPayoff, double monitoringCost, int visibility)
+    {
+        this.trustor = trustor;
         this.trustorSuccessPayoff = trustorSuccessPayoff;
         this.trustorFailurePayoff = trustorFailurePayoff;
         this.abstainPayoff = abstainPayoff;
         this.monitoringCost = monitoringCost;
         this.outcome = 0.0;
-        // by default, we just record a delegation as having a default path including the trustor.
-        this.delegationPath = new ArrayList<Agent>();
         this.visibility = visibility;
+        return this;
     }
 
     /**
@@ -116,15 +144,31 @@ public class Delegation {
     public Delegation(Agent trustor, Agent trustee, double trustorSuccessPayoff, double trustorFailurePayoff, double successPayoff, double failurePayoff, double abstainPayoff, double monitoringCost, double trustorEU,
             int type) {
 
+        setUnmonitored(trustor, trustee, trustorSuccessPayoff, trustorFailurePayoff, successPayoff, failurePayoff,
+                abstainPayoff, monitoringCost, trustorEU, type);
+
+        // by default, we just record a delegation as having a default path including the trustor.
+        this.delegationPath = new ArrayList<Agent>();
+        this.delegationPath.add(trustor);
+    }
+
+    /**
+     * Fill in an unmonitored delegation (see the unmonitored delegation
+     * constructor). The path and visibility are left as they are.
+     *
+     * @return this contract
+     */
+    public Delegation setUnmonitored(Agent trustor, Agent trustee, double trustorSuccessPayoff, double trustorFailurePayoff, double successPayoff, double failurePayoff, double abstainPayoff, double monitoringCost, double trustorEU,
+            int type) {
         this.trustorSuccessPayoff = trustorSuccessPayoff;
         this.trustorFailurePayoff = trustorFailurePayoff;
 
-        successPayoffs = new HashMap<String, Double>();
-        failurePayoffs = new HashMap<String, Double>();
-
-        // * represents all effort levels, since we aren't being monititored
-        successPayoffs.put("*", successPayoff);
-        failurePayoffs.put("*", failurePayoff);
+        // paid whatever the effort level, since we aren't being monititored
+        this.successPayoff = successPayoff;
+        this.failurePayoff = failurePayoff;
+        this.forcedEffort = null;
+        this.successPayoffs = null;
+        this.failurePayoffs = null;
         this.abstainPayoff = abstainPayoff;
         this.monitoringCost = monitoringCost;
         isRi = false;
@@ -140,15 +184,10 @@ public class Delegation {
         this.trusteeEffort = null;
         this.type = type;
 
-        // by default, we just record a delegation as having a default path including the trustor.
-        this.delegationPath = new ArrayList<Agent>();
-        this.delegationPath.add(trustor);
-
         // outcome is by default 0 - if anything happens such that this isn't set, or the delegation
         // fails to complete, the worst (completely unsatisfied) outcome should remain
         this.outcome = 0.0;
-
-
+        return this;
     }
 
     /**
@@ -187,6 +226,26 @@ public class Delegation {
         this.outcome = 0.0;
     }
 
+    /**
+     * Fill in a monitored forcing contract - the trustee is only paid if it
+     * is seen to use the given effort level. The path and visibility are left
+     * as they are.
+     *
+     * @param effort
+     *            id of the effort level the payoff depends on
+     * @param payoff
+     *            payoff for that effort, whatever the outcome
+     * @return this contract
+     */
+    public Delegation setMonitored(Agent trustor, Agent trustee, double trustorSuccessPayoff, double trustorFailurePayoff, String effort, double payoff, double abstainPayoff, double monitoringCost, double trustorEU,
+            int type) {
+        setUnmonitored(trustor, trustee, trustorSuccessPayoff, trustorFailurePayoff, payoff, payoff, abstainPayoff,
+                monitoringCost, trustorEU, type);
+        this.forcedEffort = effort;
+        isMonitored = true;
+        return this;
+    }
+
     /**
      * Reputational incentive constructor
      *
@@ -201,32 +260,48 @@ public class Delegation {
             double riP, double riN, int type)
     {
 
-        this.trustorSuccessPayoff = trustorSuccessPayoff;
-        this.trustorFailurePayoff = trustorFailurePayoff;
+        setReputational(trustor, trustee, trustorSuccessPayoff, trustorFailurePayoff, successPayoff, failurePayoff,
+                abstainPayoff, monitoringCost, trustorEU, riP, riN, type);
 
-        successPayoffs = new HashMap<String, Double>();
-        failurePayoffs = new HashMap<String, Double>();
-        successPayoffs.put("*", successPayoff);
-        failurePayoffs.put("*", failurePayoff);
-        this.abstainPayoff = abstainPayoff;
+        // by default, we just record a delegation as having a default path including the trustor.
+        this.delegationPath = new ArrayList<Agent>();
+    }
+
+    /**
+     * Fill in a reputational incentive contract (see the constructor). The
+     * path and visibility are left as they are.
+     *
+     * @return this contract
+     */
+    public Delegation setReputational(Agent trustor, Agent trustee, double trustorSuccessPayoff, double trustorFailurePayoff, double successPayoff, double failurePayoff, double abstainPayoff, double monitoringCost, double trustorEU,
+            double riP, double riN, int type) {
+        setUnmonitored(trustor, trustee, trustorSuccessPayoff, trustorFailurePayoff, successPayoff, failurePayoff,
+                abstainPayoff, monitoringCost, trustorEU, type);
         riPos = riP;
         riNeg = riN;
         isRi = true;
-        isMonitored = false;
-        this.monitoringCost = monitoringCost;
-
-
-        this.trustee = trustee;
-        this.trustor = trustor;
-        this.trusteeEffort = null;
-        this.type = type;
-        this.trustorEU = trustorEU;
-
-        // by default, we just record a delegation as having a default path including the trustor.
-        this.delegationPath = new ArrayList<Agent>();
+        return this;
+    }
 
-        // the final result of the delegation
-        this.outcome = 0.0;
+    /**
+     * Forget everything, ready to be filled in again
+     */
+    void clear() {
+        trustor = trustee = null;
+        successPayoff = failurePayoff = 0;
+        forcedEffort = null;
+        successPayoffs = failurePayoffs = null;
+        trustorSuccessPayoff = trustorFailurePayoff = abstainPayoff = 0;
+        riNeg = riPos = 0;
+        type = 0;
+        isMonitored = isRi = false;
+        monitoringCost = 0;
+        performanceThreshold = 0.5;
+        trusteeEffort = null;
+        delegationPath = null;
+        outcome = 0;
+        visibility = 0;
+        trustorEU = 0;
     }
 
     /**
@@ -261,14 +336,20 @@ public class Delegation {
      * Return unmonitored success payoff for this delegation
      */
     public double getSuccessPayoff() {
-        return riPos + successPayoffs.get("*");
+        if (successPayoffs != null) {
+            return riPos + successPayoffs.get("*");
+        }
+        return riPos + successPayoff;
     }
 
     /**
      * Return unmonitored failure payoff for this delegation
      */
     public double getFailurePayoff() {
-        return riNeg + failurePayoffs.get("*");
+        if (failurePayoffs != null) {
+            return riNeg + failurePayoffs.get("*");
+        }
+        return riNeg + failurePayoff;
     }
 
     /**
@@ -278,7 +359,10 @@ public class Delegation {
      * @return
      */
     public double getSuccessPayoff(String effort) {
-        return riPos + successPayoffs.get(effort);
+        if (successPayoffs != null) {
+            return riPos + successPayoffs.get(effort);
+        }
+        return riPos + (forcedEffort == null || forcedEffort.equals(effort) ? successPayoff : 0);
     }
 
     /**
@@ -289,7 +373,10 @@ public class Delegation {
      * @return
      */
     public double getFailurePayoff(String effort) {
-        return riNeg + failurePayoffs.get(effort);
+        if (failurePayoffs != null) {
+            return riNeg + failurePayoffs.get(effort);
+        }
+        return riNeg + (forcedEffort == null || forcedEffort.equals(effort) ? failurePayoff : 0);
     }
 
     public double getRiNeg() {
@@ -329,6 +416,9 @@ public class Delegation {
     }
 
     public Map<String, Double> getSuccessPayoffs() {
+        if (successPayoffs == null) {
+            return payoffMap(successPayoff);
+        }
         return successPayoffs;
     }
 
@@ -337,9 +427,27 @@ public class Delegation {
     }
 
     public Map<String, Double> getFailurePayoffs() {
+        if (failurePayoffs == null) {
+            return payoffMap(failurePayoff);
+        }
         return failurePayoffs;
     }
 
+    /**
+     * Payoffs by effort, as they used to be kept (* for any effort)
+     */
+    private Map<String, Double> payoffMap(double payoff) {
+        Map<String, Double> payoffs = new HashMap<String, Double>();
+        if (forcedEffort == null) {
+            payoffs.put("*", payoff);
+        } else {
+            for (String e : trustee.getEfforts().keySet()) {
+                payoffs.put(e, e.equals(forcedEffort) ? payoff : 0.0);
+            }
+        }
+        return payoffs;
+    }
+
     public void setFailurePayoffs(Map<String, Double> failurePayoffs) {
         this.failurePayoffs = failurePayoffs;
     }
@@ -372,6 +480,10 @@ public class Delegation {
     }
 
     public List<Agent> getDelegationPath() {
+        // pooled contracts only make a path if they need one
+        if (delegationPath == null) {
+            delegationPath = new ArrayList<Agent>();
+        }
         return delegationPath;
     }
 
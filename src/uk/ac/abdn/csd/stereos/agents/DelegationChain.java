@@ -0,0 +1,151 @@
+package uk.ac.abdn.csd.stereos.agents;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import uk.ac.abdn.csd.stereos.trust.LazyTrustModel;
+import uk.ac.abdn.csd.stereos.util.CandidateView;
+
+/**
+ * Follows a sub-delegation chain from the first trustee to the agent that
+ * finally performs the task, in a loop rather than by agents calling each
+ * other, so long chains don't mean deep stacks.
+ *
+ * At each hop, the agent evaluates the trustor's candidates (leaving out
+ * anyone already in the chain, tracked in a bit set by agent key) plus
+ * itself, once, using the trustor's filtered recommenders. It passes the task
+ * on if its decision model picks someone else, and the chain isn't at its
+ * maximum depth yet; otherwise it performs, using the same opinions to choose
+ * its effort. The intermediaries' interactions are then applied innermost
+ * first, as they would be if each had delegated in turn.
+ *
+ * @author Chris Burnett
+ *
+ */
+public class DelegationChain
+{
+
+	private final CandidateView candidates;
+	private final Map<Agent, List<Agent>> recommenders;
+	private final int maxDepth;
+	private final int timeStep;
+
+	// agents in the chain so far, by key - not by number, as the trustor
+	// at the root and a trustee may have the same one
+	private final BitSet visited = new BitSet();
+	// and any without numbers
+	private final List<Agent> unnumbered = new ArrayList<Agent>();
+	// everyone in the chain, for checking the views (with -ea)
+	private final List<Agent> chain = new ArrayList<Agent>();
+
+	/**
+	 * @param candidates
+	 *            the trustor's delegation candidates
+	 * @param recommenders
+	 *            the trustor's filtered recommenders
+	 * @param maxDepth
+	 *            the most times the task can be passed on
+	 * @param timeStep
+	 */
+	public DelegationChain(CandidateView candidates, Map<Agent, List<Agent>> recommenders, int maxDepth,
+			int timeStep)
+	{
+		this.candidates = candidates;
+		this.recommenders = recommenders;
+		this.maxDepth = maxDepth;
+		this.timeStep = timeStep;
+	}
+
+	/**
+	 * Follow the chain
+	 *
+	 * @param contract
+	 *            the trustor's contract with the first trustee
+	 * @return the contract handed back to the trustor, or null if it was
+	 *         refused further down the chain
+	 */
+	public Delegation run(Delegation contract)
+	{
+		for (Agent a : contract.getDelegationPath())
+			visit(a);
+
+		// the contracts each intermediary made, in order
+		List<Delegation> passedOn = new ArrayList<Delegation>();
+		Delegation incoming = contract;
+		Agent current = contract.getTrustee();
+		Delegation result;
+		while (true) {
+			visit(current);
+			CandidateView view = candidates.exclude(visited);
+			if (!unnumbered.isEmpty())
+				view = view.exclude(unnumbered);
+			// e.g. a chain rooted at t3 must still be able to reach a3
+			assert leavesOutOnlyChain(view);
+			view = view.with(current);
+
+			boolean mayPassOn = passedOn.size() < maxDepth && view.size() > 1;
+			// a trustee deciding whether to pass the task on uses its own model
+			if (mayPassOn && current.trustModel instanceof LazyTrustModel)
+				((LazyTrustModel) current.trustModel).getModel();
+
+			current.freeze(view);
+			Map<Agent, Double> unconditionalOpinions = current.trustModel.evaluate(view, recommenders, timeStep);
+			Map<String, Map<Agent, Double>> conditionalOpinions = current.trustModel.conditionallyEvaluate(view,
+					recommenders, timeStep);
+
+			if (mayPassOn) {
+				Delegation sub = current.trustorDecisionModel.selectAgent(unconditionalOpinions, conditionalOpinions,
+						incoming);
+				Agent next = sub == null ? null : sub.getTrustee();
+				// if we are not the best agent for the job, sub-delegate
+				if (next != null && next != current) {
+					sub.getDelegationPath().add(current);
+					passedOn.add(sub);
+					incoming = sub;
+					current = next;
+					continue;
+				}
+			}
+			result = current.performTask(incoming, unconditionalOpinions, conditionalOpinions);
+			break;
+		}
+
+		// each intermediary sees what came back from the agent it chose
+		for (int k = passedOn.size() - 1; k >= 0; k--) {
+			Delegation sub = passedOn.get(k);
+			Delegation received = k == 0 ? contract : passedOn.get(k - 1);
+			Agent intermediary = received.getTrustee();
+			result = intermediary.complete(intermediary.conclude(sub, result, received.getAbstainPayoff(), timeStep));
+		}
+		return result;
+	}
+
+	private void visit(Agent a)
+	{
+		chain.add(a);
+		if (a.getKey() >= 0)
+			visited.set(a.getKey());
+		else
+			unnumbered.add(a);
+	}
+
+	/**
+	 * Check that every candidate missing from a view is in the chain
+	 */
+	private boolean leavesOutOnlyChain(CandidateView view)
+	{
+		Map<Agent, Boolean> seen = new IdentityHashMap<Agent, Boolean>();
+		for (Agent a : view)
+			seen.put(a, Boolean.TRUE);
+		for (Agent a : chain)
+			seen.put(a, Boolean.TRUE);
+		for (Agent a : candidates)
+			if (!seen.containsKey(a))
+				return false;
+		return true;
+	}
+
+}
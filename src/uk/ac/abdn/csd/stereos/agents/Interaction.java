@@ -0,0 +1,74 @@
+package uk.ac.abdn.csd.stereos.agents;
+
+/**
+ * The result of a trustor's delegation decision, before any of its effects
+ * (utilities, experiences) have been applied. In bulk synchronous steps, these
+ * are collected while every trustor decides, then committed together.
+ *
+ * @author Chris Burnett
+ *
+ */
+public class Interaction
+{
+
+	/**
+	 * The trustor abstained (or the contract had no trustee)
+	 */
+	public static final int ABSTAINED = 0;
+	/**
+	 * The chosen trustee refused the contract
+	 */
+	public static final int REFUSED = 1;
+	/**
+	 * The task was delegated and performed
+	 */
+	public static final int DELEGATED = 2;
+
+	final Agent trustor;
+	final int outcome;
+	final Delegation contract;
+	final double observation;
+	final double evaluation;
+	final double abstainPayoff;
+	final int timeStep;
+
+	Interaction(Agent trustor, int outcome, Delegation contract, double observation, double evaluation,
+			double abstainPayoff, int timeStep)
+	{
+		this.trustor = trustor;
+		this.outcome = outcome;
+		this.contract = contract;
+		this.observation = observation;
+		this.evaluation = evaluation;
+		this.abstainPayoff = abstainPayoff;
+		this.timeStep = timeStep;
+	}
+
+	public Agent getTrustor()
+	{
+		return trustor;
+	}
+
+	public int getOutcome()
+	{
+		return outcome;
+	}
+
+	/**
+	 * @return the contract delegate() hands back for this interaction (null if
+	 *         the trustee refused)
+	 */
+	public Delegation getResult()
+	{
+		return outcome == REFUSED ? null : contract;
+	}
+
+	/**
+	 * Apply the effects of this interaction
+	 */
+	public void commit()
+	{
+		trustor.commit(this);
+	}
+
+}
@@ -10,6 +10,7 @@ import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.apache.commons.math.random.RandomData;
 import org.apache.commons.math.random.RandomDataImpl;
 
 /**
@@ -133,6 +134,30 @@ public class Profile
 		this.defaultAmbiguityAversion = defaultAA;
 	}
 
+	/**
+	 * Copy a profile, so that changes to the copy (e.g. swapping performance
+	 * in mix mode) don't affect the original. Features are shared, as they are
+	 * never changed once parsed.
+	 *
+	 * @param p
+	 */
+	public Profile(Profile p)
+	{
+		this.id = p.id;
+		this.trusteeCount = p.trusteeCount;
+		this.trustorCount = p.trustorCount;
+		this.defaultAskingPrice = p.defaultAskingPrice;
+		this.defaultAmbiguityAversion = p.defaultAmbiguityAversion;
+		this.defaultEffortLevelId = p.defaultEffortLevelId;
+		this.random = new RandomDataImpl();
+		this.features = p.features;
+		this.efforts = new HashMap<String, EffortLevel>();
+		for (Map.Entry<String, EffortLevel> e : p.efforts.entrySet()) {
+			EffortLevel el = e.getValue();
+			efforts.put(e.getKey(), new EffortLevel(el.getMean(), el.getVariance(), el.getCost()));
+		}
+	}
+
 	public void setId(String id)
 	{
 		this.id = id;
@@ -207,6 +232,19 @@ public class Profile
 	}
 
 	public double getPerformanceValue(EffortLevel el)
+	{
+		return getPerformanceValue(el, random);
+	}
+
+	/**
+	 * Get a simulated performance value, drawn from the given source rather
+	 * than the one shared by the profile
+	 *
+	 * @param el
+	 * @param random
+	 * @return a performance value
+	 */
+	public double getPerformanceValue(EffortLevel el, RandomData random)
 	{
 		if (el.getMean() == 0.0 && el.getVariance() == 0.0)
 			return random.nextUniform(0, 1);
@@ -219,6 +257,11 @@ public class Profile
 	 * @return a performance value
 	 */
 	public double getDefaultPerformanceValue()
+	{
+		return getDefaultPerformanceValue(random);
+	}
+
+	public double getDefaultPerformanceValue(RandomData random)
 	{
 		EffortLevel e = efforts.get(defaultEffortLevelId);
 		// Return a simulated performance value from the normal distribution
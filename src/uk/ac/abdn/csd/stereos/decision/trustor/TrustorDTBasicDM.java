@@ -75,18 +75,13 @@ public class TrustorDTBasicDM extends TrustorDecisionModel {
 
         // if no it's better to abstain, delegate to ourselves
         if (new BigDecimal(bestEU, Experiment.mathContext).compareTo(new BigDecimal(uAbs, Experiment.mathContext)) < 0) {
-            Delegation newContract = new Delegation(owner, owner, uSucc, uFail, uAbs, uAbs, uAbs, monitoringCost, uAbs, Delegation.DELEGATION_SIMPLE);
-            newContract.setDelegationPath(contract.getDelegationPath());
-            newContract.setVisibility(contract.getVisibility());
-            return newContract;
+            return newContract(contract).setUnmonitored(owner, owner, uSucc, uFail, uAbs, uAbs, uAbs, monitoringCost, uAbs,
+                    Delegation.DELEGATION_SIMPLE);
 
         }
         // create a simple contract, just containing the selected agent
-        Delegation newContract = new Delegation(owner, bestAgent, uSucc, uFail, bestAgent.getAskingPrice(), bestAgent.getAskingPrice(), uAbs, monitoringCost, bestEU,
-                Delegation.DELEGATION_SIMPLE);
-        newContract.setDelegationPath(contract.getDelegationPath());
-        newContract.setVisibility(contract.getVisibility());
-        return newContract;
+        return newContract(contract).setUnmonitored(owner, bestAgent, uSucc, uFail, bestAgent.getAskingPrice(),
+                bestAgent.getAskingPrice(), uAbs, monitoringCost, bestEU, Delegation.DELEGATION_SIMPLE);
     }
 
     @Override
@@ -1,6 +1,7 @@
 package uk.ac.abdn.csd.stereos.decision.trustor;
 
 import uk.ac.abdn.csd.stereos.agents.Agent;
+import uk.ac.abdn.csd.stereos.agents.ContractPool;
 import uk.ac.abdn.csd.stereos.agents.Delegation;
 import uk.ac.abdn.csd.stereos.trust.TrustModel;
 
@@ -75,4 +76,19 @@ public abstract class TrustorDecisionModel
 
 	public abstract Delegation selectAgent(Map<Agent, Double> agents, Delegation contract);
 
+	/**
+	 * Get an empty contract from the thread's pool, following on from the
+	 * given one (same delegation path and visibility), to be filled in
+	 *
+	 * @param previous
+	 * @return the new contract
+	 */
+	protected Delegation newContract(Delegation previous)
+	{
+		Delegation d = ContractPool.get().obtain();
+		d.setDelegationPath(previous.getDelegationPath());
+		d.setVisibility(previous.getVisibility());
+		return d;
+	}
+
 }
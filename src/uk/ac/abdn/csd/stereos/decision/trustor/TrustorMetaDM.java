@@ -5,6 +5,7 @@ import java.util.Map;
 
 import uk.ac.abdn.csd.stereos.Experiment;
 import uk.ac.abdn.csd.stereos.agents.Agent;
+import uk.ac.abdn.csd.stereos.agents.ContractPool;
 import uk.ac.abdn.csd.stereos.agents.Delegation;
 
 /**
@@ -15,6 +16,11 @@ import uk.ac.abdn.csd.stereos.agents.Delegation;
  */
 public class TrustorMetaDM extends TrustorDecisionModel {
 
+    // the models we run, made when first needed
+    private TrustorDecisionModel simplePA;
+    private TrustorDecisionModel monitoredPA;
+    private TrustorDecisionModel riPA;
+
     /**
      * Needs to call the other models in turn, and pick the best contract
      */
@@ -38,15 +44,19 @@ public class TrustorMetaDM extends TrustorDecisionModel {
 //				 uFail, uAbs, monitoringCost);
         //System.out.println("DT:" + alternatives[0].getTrustorEU());
 
+        if (simplePA == null) {
+            simplePA = new TrustorPABasicDM();
+            monitoredPA = new TrustorPAMonitoredDM();
+            riPA = new TrustorPARepIncDM();
+        }
+
         // unmonitored-conditional
-        TrustorDecisionModel simplePA = new TrustorPABasicDM();
         simplePA.setOwner(this.getOwner());
         simplePA.setTrustModel(tm);
         alternatives[0] = simplePA.selectAgent(unconditionalOpinions, conditionalOpinions, contract);
         // System.out.println("PA:" + alternatives[0].getTrustorEU());
 
         // monitored-conditional
-        TrustorDecisionModel monitoredPA = new TrustorPAMonitoredDM();
         monitoredPA.setOwner(this.getOwner());
         monitoredPA.setTrustModel(tm);
         alternatives[1] = monitoredPA.selectAgent(unconditionalOpinions, conditionalOpinions, contract);
@@ -54,7 +64,6 @@ public class TrustorMetaDM extends TrustorDecisionModel {
         // System.out.println("PAM:" + alternatives[1].getTrustorEU());
 
         // unmonitored-RI
-        TrustorDecisionModel riPA = new TrustorPARepIncDM();
         riPA.setTrustModel(tm);
         riPA.setOwner(this.getOwner());
         alternatives[2] = riPA.selectAgent(unconditionalOpinions, conditionalOpinions, contract);
@@ -73,6 +82,12 @@ public class TrustorMetaDM extends TrustorDecisionModel {
                 bestDel = d;
             }
         }
+        // the others can be filled in again next time
+        for (Delegation d : alternatives) {
+            if (d != bestDel) {
+                ContractPool.get().release(d);
+            }
+        }
         // System.err.println(bestDel.getType());
         bestDel.setDelegationPath(contract.getDelegationPath());
         bestDel.setVisibility(contract.getVisibility());
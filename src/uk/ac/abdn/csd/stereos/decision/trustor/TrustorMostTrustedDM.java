@@ -48,11 +48,10 @@ public class TrustorMostTrustedDM extends TrustorDecisionModel
 		if (bestAgent == null)
 			return null;
 
-		Delegation newContract = new Delegation(owner, bestAgent, contract.getTrustorSuccessPayoff(), contract.getTrustorFailurePayoff(), bestAgent.getAskingPrice(), bestAgent.getAskingPrice(), uAbstain, monitoringCost, uAbstain,
-				Delegation.DELEGATION_MOST_TRUSTED);
-                newContract.setDelegationPath(contract.getDelegationPath());  // update delegation path to new contract
-                newContract.setVisibility(contract.getVisibility());
-                return newContract;
+		// (with the delegation path carried over to the new contract)
+		return newContract(contract).setUnmonitored(owner, bestAgent, contract.getTrustorSuccessPayoff(),
+				contract.getTrustorFailurePayoff(), bestAgent.getAskingPrice(), bestAgent.getAskingPrice(), uAbstain,
+				monitoringCost, uAbstain, Delegation.DELEGATION_MOST_TRUSTED);
 	}
 
 	@Override
@@ -208,18 +208,14 @@ public class TrustorPABasicDM extends TrustorDecisionModel
 
 		// if no it's better to abstain, delegate to ourselves
 		if (bestContract == null) {
-                    Delegation newContract = new Delegation(owner, owner, uSucc, uFail, uAbs, uAbs, uAbs, monitoringCost, uAbs, Delegation.DELEGATION_ABSTAIN);
-                    newContract.setVisibility(del.getVisibility());
-                    newContract.setDelegationPath(del.getDelegationPath());
-                    return newContract;
+			return newContract(del).setUnmonitored(owner, owner, uSucc, uFail, uAbs, uAbs, uAbs, monitoringCost, uAbs,
+					Delegation.DELEGATION_ABSTAIN);
 		}
 
 		// return the contract
-		Delegation newContract = new Delegation(owner, bestTrustee, uSucc, uFail, bestContract.get(Delegation.OUTCOME_SUCCESS), bestContract
-				.get(Delegation.OUTCOME_FAILURE), uAbs, monitoringCost, myBestEU, Delegation.DELEGATION_UNMONITORED);
-                newContract.setDelegationPath(del.getDelegationPath());
-                newContract.setVisibility(del.getVisibility());
-                return newContract;
+		return newContract(del).setUnmonitored(owner, bestTrustee, uSucc, uFail,
+				bestContract.get(Delegation.OUTCOME_SUCCESS), bestContract.get(Delegation.OUTCOME_FAILURE), uAbs,
+				monitoringCost, myBestEU, Delegation.DELEGATION_UNMONITORED);
 	}
 
 	@Override
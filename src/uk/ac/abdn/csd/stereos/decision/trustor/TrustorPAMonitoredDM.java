@@ -1,7 +1,6 @@
 package uk.ac.abdn.csd.stereos.decision.trustor;
 
 import java.math.BigDecimal;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 
@@ -143,36 +142,15 @@ public class TrustorPAMonitoredDM extends TrustorDecisionModel
 		}
 		// if no it's better to abstain, delegate to ourselves
 		if (theBestEffort == null) {
-			Delegation newContract = new Delegation(owner, owner, uSucc, uFail, uAbs, uAbs, uAbs, monitoringCost, uAbs, Delegation.DELEGATION_ABSTAIN);
-		        newContract.setDelegationPath(contract.getDelegationPath());
-                        newContract.setVisibility(contract.getVisibility());
-                        return newContract;
-                }
-
-		// need to build a structure here - keep the delegation object general
-		Map<String, Double> successPayoffs = new HashMap<String, Double>();
-		Map<String, Double> failurePayoffs = new HashMap<String, Double>();
-
-		// payoff only obtained if correct effort is observed - forcing contract
-		for (String e : bestTrustee.getEfforts().keySet()) {
-			if (e.equals(theBestEffortID)) {
-				successPayoffs.put(e, bestTrusteeSuccPayoff);
-				failurePayoffs.put(e, bestTrusteeSuccPayoff);
-			} else {
-				successPayoffs.put(e, 0.0);
-				failurePayoffs.put(e, 0.0);
-			}
-
+			return newContract(contract).setUnmonitored(owner, owner, uSucc, uFail, uAbs, uAbs, uAbs, monitoringCost,
+					uAbs, Delegation.DELEGATION_ABSTAIN);
 		}
 
 		// return the contract, which is just a forcing one on the best effort -
-		// fail payoff will always be 0
-		Delegation newContract = new Delegation(owner, bestTrustee, uSucc, uFail, successPayoffs, failurePayoffs, uAbs, monitoringCost, myBestEU,
-				Delegation.DELEGATION_MONITORED);
-                newContract.setDelegationPath(contract.getDelegationPath());
-                newContract.setVisibility(contract.getVisibility());
-
-                return newContract;
+		// payoff only obtained if correct effort is observed, and is 0 for
+		// any other effort
+		return newContract(contract).setMonitored(owner, bestTrustee, uSucc, uFail, theBestEffortID,
+				bestTrusteeSuccPayoff, uAbs, monitoringCost, myBestEU, Delegation.DELEGATION_MONITORED);
 	}
 
 	@Override
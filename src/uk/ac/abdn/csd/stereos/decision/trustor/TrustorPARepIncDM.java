@@ -169,18 +169,15 @@ public class TrustorPARepIncDM extends TrustorDecisionModel {
         // if no it's better to abstain, delegate to ourselves
         if (bestContract == null) {
 
-            Delegation newContract = new Delegation(owner, owner, uSucc, uFail, uAbs, uAbs, uAbs, monitoringCost, uAbs, Delegation.DELEGATION_ABSTAIN);
-            newContract.setDelegationPath(del.getDelegationPath());
-            newContract.setVisibility(del.getVisibility());
-            return newContract;
+            return newContract(del).setUnmonitored(owner, owner, uSucc, uFail, uAbs, uAbs, uAbs, monitoringCost, uAbs,
+                    Delegation.DELEGATION_ABSTAIN);
         }
 
         // return the contract, with reputational incentives explicitly stated
-        Delegation newContract = new Delegation(owner, bestTrustee, uSucc, uFail, bestContract.get(Delegation.OUTCOME_SUCCESS), bestContract.get(Delegation.OUTCOME_FAILURE), uAbs, monitoringCost, myBestEU, bestRi[Delegation.OUTCOME_SUCCESS],
-                bestRi[Delegation.OUTCOME_FAILURE], Delegation.DELEGATION_REPINC);
-        newContract.setDelegationPath(del.getDelegationPath());
-        newContract.setVisibility(del.getVisibility());
-        return newContract;
+        return newContract(del).setReputational(owner, bestTrustee, uSucc, uFail,
+                bestContract.get(Delegation.OUTCOME_SUCCESS), bestContract.get(Delegation.OUTCOME_FAILURE), uAbs,
+                monitoringCost, myBestEU, bestRi[Delegation.OUTCOME_SUCCESS], bestRi[Delegation.OUTCOME_FAILURE],
+                Delegation.DELEGATION_REPINC);
     }
 
     /**
@@ -43,4 +43,20 @@ public interface Clusterer
 
 	public boolean isReady();
 
+	/**
+	 * Get the centres of the clusters found, in (b,u)
+	 * 
+	 * @return one {b,u} row per cluster, or null if not available
+	 */
+	public double[][] getCentres();
+
+	/**
+	 * Restore previously found cluster centres (e.g. from a saved model), so
+	 * that base rates can be given without rebuilding.
+	 * 
+	 * @param centres
+	 *            one {b,u} row per cluster
+	 */
+	public void setCentres(double[][] centres);
+
 }
\ No newline at end of file
@@ -0,0 +1,367 @@
+package uk.ac.abdn.csd.stereos.learning;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.Map.Entry;
+
+import uk.ac.abdn.csd.stereos.agents.Agent;
+import uk.ac.abdn.csd.stereos.trust.sl.Opinion;
+import weka.classifiers.Classifier;
+import weka.core.Instances;
+
+/**
+ * A locally weighted learner along the lines of LWLLearner, but specialised for
+ * the binary feature vectors agents have, rather than going through Weka's
+ * brute force neighbour search.
+ *
+ * Training examples are packed into bitmasks and grouped by signature (agents
+ * with identical features fall into the same group). By default every
+ * example is used, as LWL does. If a number of neighbours is given, groups
+ * are bucketed by the number of set bits, and since two signatures can't be
+ * closer in Hamming distance than the difference in their bit counts, the
+ * search for the k nearest works outwards from the query's own bucket, keeping
+ * the nearest in a bounded heap, and stops as soon as no closer group can
+ * remain.
+ *
+ * The neighbours are weighted with a linear kernel over Euclidean distance,
+ * as LWL's are (for 0/1 features, that is the square root of the Hamming
+ * distance, and Weka's range normalisation doesn't change them). Unlike LWL,
+ * which fits a weighted decision stump by default, the prediction is the
+ * weighted mean of the neighbours' expectation values.
+ *
+ * Predictions are memoized by signature, as most agents share their features
+ * with many others.
+ *
+ * @author Chris Burnett
+ *
+ */
+public class IndexedLWLLearner implements Learner
+{
+
+	/**
+	 * Default number of neighbours to use - all of them, as LWL does
+	 */
+	public static final int DEFAULT_NEIGHBOURS = 0;
+
+	// number of neighbours to use, or 0 or less for all of them
+	private final int neighbours;
+
+	// feature ids and their bit positions, fixed at training time
+	private Map<String, Integer> featureIndex;
+	private int words;
+
+	// the training examples, grouped by signature. each group holds the sum
+	// and count of the expectation values of the agents with that signature
+	private List<Group> groups;
+	// groups, bucketed by the number of set bits in their signature
+	private List<List<Group>> buckets;
+
+	// previous predictions, by signature
+	private Map<Signature, Double> predictions;
+
+	private boolean isReady;
+
+	/**
+	 * A packed feature vector. Missing features have their bit set in the
+	 * missing mask, and count as a mismatch against anything.
+	 */
+	private static class Signature
+	{
+		final long[] bits;
+		final long[] missing;
+		final int count;
+
+		Signature(long[] bits, long[] missing)
+		{
+			this.bits = bits;
+			this.missing = missing;
+			int c = 0;
+			for (int w = 0; w < bits.length; w++)
+				c += Long.bitCount(bits[w]);
+			this.count = c;
+		}
+
+		int distance(Signature other)
+		{
+			int d = 0;
+			for (int w = 0; w < bits.length; w++)
+				d += Long.bitCount((bits[w] ^ other.bits[w]) | missing[w] | other.missing[w]);
+			return d;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof Signature))
+				return false;
+			Signature s = (Signature) o;
+			return Arrays.equals(bits, s.bits) && Arrays.equals(missing, s.missing);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return 31 * Arrays.hashCode(bits) + Arrays.hashCode(missing);
+		}
+	}
+
+	private static class Group
+	{
+		final Signature signature;
+		double sum;
+		int count;
+
+		Group(Signature signature)
+		{
+			this.signature = signature;
+		}
+	}
+
+	/**
+	 * A group found near a query, and how far away it is
+	 */
+	private static class Neighbour
+	{
+		final Group group;
+		final int distance;
+
+		Neighbour(Group group, int distance)
+		{
+			this.group = group;
+			this.distance = distance;
+		}
+	}
+
+	// furthest first
+	private static final Comparator<Neighbour> FURTHEST_FIRST = new Comparator<Neighbour>() {
+		public int compare(Neighbour a, Neighbour b)
+		{
+			return b.distance - a.distance;
+		}
+	};
+
+	public IndexedLWLLearner()
+	{
+		this(DEFAULT_NEIGHBOURS);
+	}
+
+	/**
+	 * @param neighbours
+	 *            number of nearest neighbours to use, or 0 to use all the
+	 *            training examples (as LWL does by default)
+	 */
+	public IndexedLWLLearner(int neighbours)
+	{
+		this.neighbours = neighbours;
+		isReady = false;
+	}
+
+	public void train(Map<Agent, Opinion> opinions)
+	{
+		train(opinions, new TreeSet<String>());
+	}
+
+	public void train(Map<Agent, Opinion> opinions, Set<String> hiddenFeatures)
+	{
+		// filter out uniformative (totally uncertain) opinions
+		Map<Agent, Opinion> examples = new HashMap<Agent, Opinion>();
+		for (Entry<Agent, Opinion> e : opinions.entrySet())
+			if (e.getValue().getUncertainty() != 1.0)
+				examples.put(e.getKey(), e.getValue());
+		if (examples.isEmpty())
+			return;
+
+		// fix the schema, in a stable order
+		Agent example = LearningUtils.mostFeaturefulAgent(new ArrayList<Agent>(examples.keySet()));
+		featureIndex = new HashMap<String, Integer>();
+		int i = 0;
+		for (String fid : new TreeSet<String>(example.getFeatures().keySet()))
+			if (!hiddenFeatures.contains(fid))
+				featureIndex.put(fid, i++);
+		words = Math.max(1, (i + 63) / 64);
+
+		// group the examples by signature
+		Map<Signature, Group> bySignature = new HashMap<Signature, Group>();
+		for (Entry<Agent, Opinion> e : examples.entrySet()) {
+			Signature s = signatureOf(e.getKey());
+			Group g = bySignature.get(s);
+			if (g == null) {
+				g = new Group(s);
+				bySignature.put(s, g);
+			}
+			g.sum += e.getValue().getExpectationValue();
+			g.count++;
+		}
+		groups = new ArrayList<Group>(bySignature.values());
+
+		// and bucket the groups by bit count
+		buckets = new ArrayList<List<Group>>(featureIndex.size() + 1);
+		for (int b = 0; b <= featureIndex.size(); b++)
+			buckets.add(new ArrayList<Group>());
+		for (Group g : groups)
+			buckets.get(g.signature.count).add(g);
+
+		predictions = new HashMap<Signature, Double>();
+		isReady = true;
+	}
+
+	/**
+	 * Pack an agent's features according to the training schema. Features
+	 * the model doesn't know about are ignored.
+	 */
+	private Signature signatureOf(Agent a)
+	{
+		long[] bits = new long[words];
+		long[] missing = new long[words];
+		for (Entry<String, Integer> f : a.getFeatures().entrySet()) {
+			Integer index = featureIndex.get(f.getKey());
+			if (index == null)
+				continue;
+			long mask = 1L << (index % 64);
+			if (f.getValue() == null)
+				missing[index / 64] |= mask;
+			else if (f.getValue() != 0)
+				bits[index / 64] |= mask;
+		}
+		return new Signature(bits, missing);
+	}
+
+	public Map<Agent, Double> getBaseRates(List<Agent> agents)
+	{
+		Map<Agent, Double> biases = new HashMap<Agent, Double>();
+		if (isReady) {
+			for (Agent a : agents) {
+				Signature s = signatureOf(a);
+				Double result = predictions.get(s);
+				if (result == null) {
+					result = predict(s);
+					predictions.put(s, result);
+				}
+				biases.put(a, result);
+			}
+		}
+		return biases;
+	}
+
+	/**
+	 * Find the nearest groups to the given signature and return their
+	 * kernel weighted mean.
+	 */
+	private double predict(Signature query)
+	{
+		List<Neighbour> found;
+		if (neighbours > 0)
+			found = nearest(query);
+		else {
+			found = new ArrayList<Neighbour>(groups.size());
+			for (Group g : groups)
+				found.add(new Neighbour(g, query.distance(g.signature)));
+		}
+
+		// the furthest one used sets the bandwidth
+		int bandwidth = 0;
+		for (Neighbour n : found)
+			bandwidth = Math.max(bandwidth, n.distance);
+
+		// linear kernel, as in LWL
+		double weighted = 0, total = 0;
+		for (Neighbour n : found) {
+			double d = bandwidth > 0 ? Math.sqrt((double) n.distance / bandwidth) : 0;
+			double w = 1.0001 - d;
+			weighted += w * n.group.sum;
+			total += w * n.group.count;
+		}
+		return total > 0 ? weighted / total : 0.5;
+	}
+
+	/**
+	 * Find the groups with the nearest examples to a signature - everything
+	 * up to the distance of the kth nearest example, ties included.
+	 */
+	private List<Neighbour> nearest(Signature query)
+	{
+		PriorityQueue<Neighbour> heap = new PriorityQueue<Neighbour>(11, FURTHEST_FIRST);
+		// examples in the heap, in total and at each distance
+		int examples = 0;
+		int[] examplesAt = new int[featureIndex.size() + 1];
+
+		// search outwards from the query's bucket
+		for (int delta = 0; delta < buckets.size(); delta++) {
+			// no group in this ring or beyond can be as close as the kth
+			if (examples >= neighbours && delta > heap.peek().distance)
+				break;
+			for (int side = -1; side <= 1; side += 2) {
+				int b = query.count + side * delta;
+				if (delta == 0 && side == 1)
+					continue;
+				if (b < 0 || b >= buckets.size())
+					continue;
+				for (Group g : buckets.get(b)) {
+					int d = query.distance(g.signature);
+					if (examples >= neighbours && d > heap.peek().distance)
+						continue;
+					heap.add(new Neighbour(g, d));
+					examples += g.count;
+					examplesAt[d] += g.count;
+					// drop the furthest while there are enough without them
+					while (examples - examplesAt[heap.peek().distance] >= neighbours) {
+						int furthest = heap.peek().distance;
+						examples -= examplesAt[furthest];
+						examplesAt[furthest] = 0;
+						while (!heap.isEmpty() && heap.peek().distance == furthest)
+							heap.poll();
+					}
+				}
+			}
+		}
+		return new ArrayList<Neighbour>(heap);
+	}
+
+	public boolean isReady()
+	{
+		return isReady;
+	}
+
+	/**
+	 * Not evaluated.
+	 *
+	 * @return 0
+	 */
+	public double getErrorRate()
+	{
+		return 0;
+	}
+
+	/**
+	 * Not supported - a lazy learner has no model to speak of.
+	 *
+	 * @return null
+	 */
+	public Set<String> getModelSignature()
+	{
+		return null;
+	}
+
+	/**
+	 * Not a Weka classifier.
+	 *
+	 * @return null
+	 */
+	public Classifier getClassifier()
+	{
+		return null;
+	}
+
+	public Instances getData()
+	{
+		return null;
+	}
+
+}
@@ -310,6 +310,37 @@ public class KMClusterer implements Clusterer
 	// return centroids;
 	// }
 
+	public double[][] getCentres()
+	{
+		if (centroids == null)
+			return null;
+		double[][] centres = new double[centroids.numInstances()][2];
+		for (int i = 0; i < centres.length; i++) {
+			centres[i][0] = centroids.instance(i).value(0);
+			centres[i][1] = centroids.instance(i).value(1);
+		}
+		return centres;
+	}
+
+	/**
+	 * Restore centres from a saved model. The centroids are rebuilt too, so
+	 * getCentres() gives them back (and the model can be saved again) before
+	 * the next build.
+	 */
+	public void setCentres(double[][] centres)
+	{
+		FastVector atts = new FastVector();
+		atts.addElement(new Attribute("b"));
+		atts.addElement(new Attribute("u"));
+		centroids = new Instances("Centroids", atts, centres.length);
+		baseRateCache = new double[centres.length];
+		for (int i = 0; i < centres.length; i++) {
+			centroids.add(new Instance(1.0, new double[] { centres[i][0], centres[i][1] }));
+			baseRateCache[i] = new Opinion(centres[i][0], 1 - centres[i][0] - centres[i][1], centres[i][1])
+					.getExpectationValue();
+		}
+	}
+
 	public int getNumClusters()
 	{
 		try {
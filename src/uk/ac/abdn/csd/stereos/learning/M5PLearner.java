@@ -1,6 +1,7 @@
 package uk.ac.abdn.csd.stereos.learning;
 
 import java.awt.BorderLayout;
+import java.io.Serializable;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -26,7 +27,17 @@ import weka.gui.treevisualizer.TreeVisualizer;
  * @author Chris Burnett
  * 
  */
-public class M5PLearner implements Learner {
+public class M5PLearner implements Learner, PersistentLearner {
+
+    /**
+     * Saved form of a trained model: the tree and the schema it was built on.
+     */
+    private static class ModelState implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+        M5P classifier;
+        Instances header;
+    }
 
     private M5P classifier;
     private boolean isReady;
@@ -287,4 +298,26 @@ public class M5PLearner implements Learner {
     public Classifier getClassifier() {
         return classifier;
     }
+
+    public Serializable getModelState() {
+        if (!isReady) {
+            return null;
+        }
+        ModelState state = new ModelState();
+        state.classifier = classifier;
+        state.header = new Instances(data, 0);
+        return state;
+    }
+
+    /**
+     * Restore a saved model. The cross validation error isn't saved, so
+     * getErrorRate() reports 0 until the next retrain.
+     */
+    public void setModelState(Serializable s) {
+        ModelState state = (ModelState) s;
+        classifier = state.classifier;
+        data = state.header;
+        evaluationReady = false;
+        isReady = true;
+    }
 }
@@ -0,0 +1,296 @@
+package uk.ac.abdn.csd.stereos.learning;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+
+import uk.ac.abdn.csd.stereos.agents.Agent;
+import uk.ac.abdn.csd.stereos.trust.sl.Opinion;
+
+/**
+ * Base class for clusterers which work directly on the two dimensional (b,u)
+ * opinion space using plain double arrays, rather than going through the
+ * general purpose Weka data structures.
+ *
+ * Subclasses fill in the cluster centres and the point labels; this class
+ * deals with mapping those back onto agents and base rates. Cluster centres
+ * are kept between builds so that each rebuild can be warm started from the
+ * last solution.
+ *
+ * @author Chris Burnett
+ *
+ */
+public abstract class NativeClusterer implements Clusterer
+{
+
+	/**
+	 * Default cap on the number of iterations per build
+	 */
+	public static final int DEFAULT_MAX_ITERATIONS = 100;
+
+	/**
+	 * Default seed for choosing initial centres (same default as Weka)
+	 */
+	public static final long DEFAULT_SEED = 10;
+
+	// number of clusters we are looking for
+	protected final int k;
+
+	// maximum iterations allowed for a single build
+	protected final int maxIterations;
+
+	// the data - one entry per opinion
+	protected double[] bs;
+	protected double[] us;
+	protected Agent[] instancesToAgents;
+	protected int n;
+
+	// cluster centres in (b,u), preserved between builds for warm starting
+	protected double[] centreB;
+	protected double[] centreU;
+
+	// cluster index of each data point after a build
+	protected int[] labels;
+
+	// labelling of agents to clusters, once the algorithm has run
+	protected Map<Agent, Integer> agentLabels;
+
+	// base rates calculated from the cluster centres
+	protected double[] baseRateCache;
+
+	// number of iterations taken by the last build
+	protected int iterations;
+
+	protected boolean isReady;
+
+	/**
+	 * Create a new clusterer looking for the given number of clusters.
+	 *
+	 * @param noOfClusters
+	 * @param maxIterations
+	 *            cap on the number of iterations per build
+	 */
+	public NativeClusterer(int noOfClusters, int maxIterations)
+	{
+		this.k = noOfClusters;
+		this.maxIterations = maxIterations;
+		isReady = false;
+		n = 0;
+		bs = new double[0];
+		us = new double[0];
+		instancesToAgents = new Agent[0];
+		agentLabels = new HashMap<Agent, Integer>();
+		baseRateCache = new double[k];
+	}
+
+	/**
+	 * Copy the opinions into the flat data arrays, reusing them where they are
+	 * already big enough.
+	 */
+	public void addOpinions(Map<Agent, Opinion> opinions)
+	{
+		isReady = false;
+		n = opinions.size();
+		if (bs.length < n) {
+			bs = new double[n];
+			us = new double[n];
+			instancesToAgents = new Agent[n];
+			labels = new int[n];
+		}
+		int i = 0;
+		for (Entry<Agent, Opinion> e : opinions.entrySet()) {
+			instancesToAgents[i] = e.getKey();
+			bs[i] = e.getValue().getBelief();
+			us[i] = e.getValue().getUncertainty();
+			i++;
+		}
+	}
+
+	/**
+	 * Run the clustering algorithm and label the agents.
+	 */
+	public void createClusters()
+	{
+		agentLabels = new HashMap<Agent, Integer>();
+		if (n == 0) {
+			isReady = false;
+			return;
+		}
+		if (labels == null || labels.length < n)
+			labels = new int[n];
+
+		// fresh start if we have no centres from last time
+		if (centreB == null) {
+			centreB = new double[k];
+			centreU = new double[k];
+			seedCentres();
+		}
+
+		iterations = build();
+
+		// map the assignments back to agents, counting occupied clusters
+		boolean[] occupied = new boolean[k];
+		int found = 0;
+		for (int i = 0; i < n; i++) {
+			agentLabels.put(instancesToAgents[i], labels[i]);
+			if (!occupied[labels[i]]) {
+				occupied[labels[i]] = true;
+				found++;
+			}
+		}
+
+		for (int j = 0; j < k; j++)
+			baseRateCache[j] = baseRateFromCentre(centreB[j], centreU[j]);
+
+		// as with the Weka clusterers, one cluster is no use to the classifier
+		isReady = found > 1;
+	}
+
+	/**
+	 * Pick initial centres using k-means++ seeding with a fixed seed, so
+	 * builds are repeatable.
+	 */
+	protected void seedCentres()
+	{
+		Random random = new Random(DEFAULT_SEED);
+		double[] dist = new double[n];
+		int first = random.nextInt(n);
+		centreB[0] = bs[first];
+		centreU[0] = us[first];
+		for (int i = 0; i < n; i++)
+			dist[i] = sqDist(bs[i], us[i], centreB[0], centreU[0]);
+		for (int j = 1; j < k; j++) {
+			double total = 0;
+			for (int i = 0; i < n; i++)
+				total += dist[i];
+			int chosen = random.nextInt(n);
+			if (total > 0) {
+				double r = random.nextDouble() * total;
+				for (int i = 0; i < n; i++) {
+					r -= dist[i];
+					if (r <= 0) {
+						chosen = i;
+						break;
+					}
+				}
+			}
+			centreB[j] = bs[chosen];
+			centreU[j] = us[chosen];
+			for (int i = 0; i < n; i++)
+				dist[i] = Math.min(dist[i], sqDist(bs[i], us[i], centreB[j], centreU[j]));
+		}
+	}
+
+	/**
+	 * Run the algorithm from the current centres, leaving the final centres
+	 * in centreB/centreU and the point labels in labels.
+	 *
+	 * @return the number of iterations taken
+	 */
+	protected abstract int build();
+
+	/**
+	 * Squared euclidean distance in the (b,u) plane
+	 */
+	protected static double sqDist(double b1, double u1, double b2, double u2)
+	{
+		double db = b1 - b2;
+		double du = u1 - u2;
+		return db * db + du * du;
+	}
+
+	/**
+	 * Calculate a base rate value from cluster centre coordinates
+	 *
+	 * @return a base rate value for this cluster
+	 */
+	public double baseRateFromCentre(double b, double u)
+	{
+		Opinion o = new Opinion(b, 1 - b - u, u);
+		return o.getExpectationValue();
+	}
+
+	/**
+	 * Forget the previous centres, so the next build starts from scratch.
+	 */
+	public void reset()
+	{
+		centreB = null;
+		centreU = null;
+	}
+
+	public double[][] getCentres()
+	{
+		if (centreB == null)
+			return null;
+		double[][] centres = new double[k][2];
+		for (int j = 0; j < k; j++) {
+			centres[j][0] = centreB[j];
+			centres[j][1] = centreU[j];
+		}
+		return centres;
+	}
+
+	/**
+	 * Restore centres from a saved model. These are also used to warm start
+	 * the next build.
+	 */
+	public void setCentres(double[][] centres)
+	{
+		reset();
+		centreB = new double[k];
+		centreU = new double[k];
+		for (int j = 0; j < k && j < centres.length; j++) {
+			centreB[j] = centres[j][0];
+			centreU[j] = centres[j][1];
+			baseRateCache[j] = baseRateFromCentre(centreB[j], centreU[j]);
+		}
+	}
+
+	public Map<Agent, Integer> getLabelledAgents()
+	{
+		return agentLabels;
+	}
+
+	public Map<Agent, Double> getClassPEValues(Map<Agent, Integer> agents)
+	{
+		Map<Agent, Double> results = new HashMap<Agent, Double>();
+		for (Entry<Agent, Integer> e : agents.entrySet())
+			results.put(e.getKey(), baseRateCache[e.getValue()]);
+		return results;
+	}
+
+	public int getNumClusters()
+	{
+		return k;
+	}
+
+	public boolean isReady()
+	{
+		return isReady;
+	}
+
+	/**
+	 * Number of iterations the last build took
+	 */
+	public int getIterations()
+	{
+		return iterations;
+	}
+
+	public void visualise()
+	{
+		// nothing to show
+	}
+
+	public String printCentroids()
+	{
+		StringBuffer result = new StringBuffer();
+		if (centreB != null)
+			for (int j = 0; j < k; j++)
+				result.append(centreB[j] + "," + centreU[j] + "\n");
+		return result.toString();
+	}
+
+}
@@ -0,0 +1,184 @@
+package uk.ac.abdn.csd.stereos.learning;
+
+/**
+ * Expectation maximisation for a mixture of axis-aligned Gaussians in the
+ * (b,u) opinion space. Unlike the Weka EM used by SLClusterer, the number of
+ * components is fixed rather than selected by cross validation on every build,
+ * and each build is warm started from the previous mixture.
+ *
+ * Agents are labelled with their most probable component, and the component
+ * means are used as the cluster centres for base rates.
+ *
+ * @author Chris Burnett
+ *
+ */
+public class NativeEMClusterer extends NativeClusterer
+{
+
+	/**
+	 * Stop when the log likelihood improves by less than this
+	 */
+	public static final double TOLERANCE = 1e-6;
+
+	/**
+	 * Variance floor, so that components sitting on identical opinions don't
+	 * collapse
+	 */
+	public static final double MIN_VARIANCE = 1e-6;
+
+	// mixture parameters (means are the inherited centres)
+	private double[] varB;
+	private double[] varU;
+	private double[] weights;
+
+	// responsibilities, n x k flattened, grown as required
+	private double[] resp;
+
+	public NativeEMClusterer(int noOfClusters)
+	{
+		this(noOfClusters, DEFAULT_MAX_ITERATIONS);
+	}
+
+	public NativeEMClusterer(int noOfClusters, int maxIterations)
+	{
+		super(noOfClusters, maxIterations);
+		resp = new double[0];
+	}
+
+	/**
+	 * Start every component at the current centres, with the global variance
+	 * and equal weight.
+	 */
+	private void initMixture()
+	{
+		double mb = 0, mu = 0;
+		for (int i = 0; i < n; i++) {
+			mb += bs[i];
+			mu += us[i];
+		}
+		mb /= n;
+		mu /= n;
+		double vb = 0, vu = 0;
+		for (int i = 0; i < n; i++) {
+			vb += (bs[i] - mb) * (bs[i] - mb);
+			vu += (us[i] - mu) * (us[i] - mu);
+		}
+		vb = Math.max(vb / n, MIN_VARIANCE);
+		vu = Math.max(vu / n, MIN_VARIANCE);
+		varB = new double[k];
+		varU = new double[k];
+		weights = new double[k];
+		for (int j = 0; j < k; j++) {
+			varB[j] = vb;
+			varU[j] = vu;
+			weights[j] = 1.0 / k;
+		}
+	}
+
+	@Override
+	public void reset()
+	{
+		super.reset();
+		varB = null;
+		varU = null;
+		weights = null;
+	}
+
+	@Override
+	protected int build()
+	{
+		if (resp.length < n * k)
+			resp = new double[n * k];
+		// new or restored centres need the rest of the mixture setting up
+		if (varB == null)
+			initMixture();
+
+		double lastLL = Double.NEGATIVE_INFINITY;
+		int it = 0;
+		while (it < maxIterations) {
+			it++;
+			double ll = expectation();
+			maximisation();
+			if (ll - lastLL < TOLERANCE)
+				break;
+			lastLL = ll;
+		}
+		// final responsibilities for the fitted mixture, then hard labels
+		expectation();
+		for (int i = 0; i < n; i++) {
+			int row = i * k;
+			int best = 0;
+			for (int j = 1; j < k; j++)
+				if (resp[row + j] > resp[row + best])
+					best = j;
+			labels[i] = best;
+		}
+		return it;
+	}
+
+	/**
+	 * E step. Fills in the responsibilities and returns the log likelihood.
+	 */
+	private double expectation()
+	{
+		double ll = 0;
+		for (int i = 0; i < n; i++) {
+			int row = i * k;
+			// log densities, normalised with log-sum-exp
+			double max = Double.NEGATIVE_INFINITY;
+			for (int j = 0; j < k; j++) {
+				double db = bs[i] - centreB[j];
+				double du = us[i] - centreU[j];
+				double lp = Math.log(weights[j]) - 0.5
+						* (Math.log(2 * Math.PI * varB[j]) + Math.log(2 * Math.PI * varU[j]) + db * db / varB[j] + du
+								* du / varU[j]);
+				resp[row + j] = lp;
+				if (lp > max)
+					max = lp;
+			}
+			double sum = 0;
+			for (int j = 0; j < k; j++) {
+				resp[row + j] = Math.exp(resp[row + j] - max);
+				sum += resp[row + j];
+			}
+			for (int j = 0; j < k; j++)
+				resp[row + j] /= sum;
+			ll += max + Math.log(sum);
+		}
+		return ll;
+	}
+
+	/**
+	 * M step. Re-estimates weights, means and variances from the
+	 * responsibilities.
+	 */
+	private void maximisation()
+	{
+		for (int j = 0; j < k; j++) {
+			double w = 0, sb = 0, su = 0;
+			for (int i = 0; i < n; i++) {
+				double r = resp[i * k + j];
+				w += r;
+				sb += r * bs[i];
+				su += r * us[i];
+			}
+			// a component with no support keeps its old parameters
+			if (w <= 0)
+				continue;
+			double mb = sb / w;
+			double mu = su / w;
+			double vb = 0, vu = 0;
+			for (int i = 0; i < n; i++) {
+				double r = resp[i * k + j];
+				vb += r * (bs[i] - mb) * (bs[i] - mb);
+				vu += r * (us[i] - mu) * (us[i] - mu);
+			}
+			centreB[j] = mb;
+			centreU[j] = mu;
+			varB[j] = Math.max(vb / w, MIN_VARIANCE);
+			varU[j] = Math.max(vu / w, MIN_VARIANCE);
+			weights[j] = Math.max(w / n, Double.MIN_VALUE);
+		}
+	}
+
+}
@@ -0,0 +1,95 @@
+package uk.ac.abdn.csd.stereos.learning;
+
+/**
+ * Lloyd's k-means in the (b,u) opinion space. A drop-in replacement for
+ * KMClusterer that avoids building Weka instances on every rebuild. Each build
+ * starts from the centres found by the previous one, so when the opinion base
+ * has only moved a little since the last interval it converges in a handful of
+ * iterations.
+ *
+ * @author Chris Burnett
+ *
+ */
+public class NativeKMClusterer extends NativeClusterer
+{
+
+	// per-cluster accumulators, kept to avoid reallocating on every iteration
+	private final double[] sumB;
+	private final double[] sumU;
+	private final int[] counts;
+
+	public NativeKMClusterer(int noOfClusters)
+	{
+		this(noOfClusters, DEFAULT_MAX_ITERATIONS);
+	}
+
+	public NativeKMClusterer(int noOfClusters, int maxIterations)
+	{
+		super(noOfClusters, maxIterations);
+		sumB = new double[k];
+		sumU = new double[k];
+		counts = new int[k];
+	}
+
+	@Override
+	protected int build()
+	{
+		int it = 0;
+		boolean changed = true;
+		// force every point to be assigned on the first pass
+		for (int i = 0; i < n; i++)
+			labels[i] = -1;
+
+		while (changed && it < maxIterations) {
+			it++;
+			changed = false;
+
+			// assignment step
+			for (int i = 0; i < n; i++) {
+				int best = nearest(bs[i], us[i]);
+				if (best != labels[i]) {
+					labels[i] = best;
+					changed = true;
+				}
+			}
+
+			// update step
+			for (int j = 0; j < k; j++) {
+				sumB[j] = 0;
+				sumU[j] = 0;
+				counts[j] = 0;
+			}
+			for (int i = 0; i < n; i++) {
+				sumB[labels[i]] += bs[i];
+				sumU[labels[i]] += us[i];
+				counts[labels[i]]++;
+			}
+			// empty clusters keep their old centre
+			for (int j = 0; j < k; j++) {
+				if (counts[j] > 0) {
+					centreB[j] = sumB[j] / counts[j];
+					centreU[j] = sumU[j] / counts[j];
+				}
+			}
+		}
+		return it;
+	}
+
+	/**
+	 * Index of the centre closest to the given point
+	 */
+	private int nearest(double b, double u)
+	{
+		int best = 0;
+		double bestDist = Double.MAX_VALUE;
+		for (int j = 0; j < k; j++) {
+			double d = sqDist(b, u, centreB[j], centreU[j]);
+			if (d < bestDist) {
+				bestDist = d;
+				best = j;
+			}
+		}
+		return best;
+	}
+
+}
@@ -0,0 +1,92 @@
+package uk.ac.abdn.csd.stereos.learning;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs learner retrains on a pool of worker threads. Trust models hand their
+ * retrain off to this when their learning interval runs out, and the
+ * experiment waits for all outstanding retrains at the end of each time step,
+ * so that every new model is in place before the next round of evaluations.
+ *
+ * Each retrain works on its own learner and a snapshot of the opinions, so the
+ * models produced are the same as they would be if trained one after another.
+ *
+ * @author Chris Burnett
+ *
+ */
+public class ParallelTrainer
+{
+
+	private final ExecutorService pool;
+
+	// retrains submitted since the last barrier
+	private final List<Future<?>> outstanding;
+
+	/**
+	 * Create a trainer with the given number of worker threads.
+	 *
+	 * @param threads
+	 */
+	public ParallelTrainer(int threads)
+	{
+		pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable r)
+			{
+				// don't keep the JVM alive for idle workers
+				Thread t = new Thread(r, "learner");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		outstanding = new ArrayList<Future<?>>();
+	}
+
+	/**
+	 * Queue a retrain.
+	 *
+	 * @param job
+	 * @return a future the owning model can wait on before using its learner
+	 */
+	public Future<?> submit(Runnable job)
+	{
+		Future<?> f = pool.submit(job);
+		outstanding.add(f);
+		return f;
+	}
+
+	/**
+	 * Block until all retrains submitted so far have finished.
+	 */
+	public void awaitAll()
+	{
+		for (Future<?> f : outstanding)
+			await(f);
+		outstanding.clear();
+	}
+
+	/**
+	 * Wait for a single retrain, reporting (but not propagating) any failure,
+	 * as a sequential retrain would.
+	 */
+	public static void await(Future<?> f)
+	{
+		try {
+			f.get();
+		} catch (Exception e) {
+			System.err.println("ParallelTrainer: Exception occurred while training:");
+			e.printStackTrace();
+		}
+	}
+
+	public void shutdown()
+	{
+		awaitAll();
+		pool.shutdown();
+	}
+
+}
@@ -0,0 +1,32 @@
+package uk.ac.abdn.csd.stereos.learning;
+
+import java.io.Serializable;
+
+/**
+ * A learner whose trained model can be saved and later restored, so that a
+ * new run can start from where a previous one left off rather than from
+ * nothing.
+ * 
+ * @author Chris Burnett
+ * 
+ */
+public interface PersistentLearner
+{
+
+	/**
+	 * Get a snapshot of the trained model. The snapshot holds no references to
+	 * agents, only the model itself and the feature schema it was built on.
+	 * 
+	 * @return the model state, or null if the learner has not been trained
+	 */
+	public Serializable getModelState();
+
+	/**
+	 * Restore a model from a snapshot taken by getModelState(). The learner
+	 * is ready to use afterwards.
+	 * 
+	 * @param state
+	 */
+	public void setModelState(Serializable state);
+
+}
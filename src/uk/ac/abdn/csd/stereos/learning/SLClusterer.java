@@ -324,6 +324,25 @@ public class SLClusterer implements Clusterer
 	// return centroids;
 	// }
 
+	/**
+	 * Not supported - EM doesn't give us centroids, so models using this
+	 * clusterer can't be saved (RunExperiment turns saveModels off for it).
+	 * 
+	 * @return null
+	 */
+	public double[][] getCentres()
+	{
+		return null;
+	}
+
+	public void setCentres(double[][] centres)
+	{
+		baseRateCache = new double[centres.length];
+		for (int i = 0; i < centres.length; i++)
+			baseRateCache[i] = new Opinion(centres[i][0], 1 - centres[i][0] - centres[i][1], centres[i][1])
+					.getExpectationValue();
+	}
+
 	public int getNumClusters()
 	{
 		try {
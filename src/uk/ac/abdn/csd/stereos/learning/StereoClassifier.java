@@ -254,6 +254,32 @@ public class StereoClassifier
 		return isReady;
 	}
 
+	/**
+	 * Restore a classifier built earlier, along with the dataset header and
+	 * feature positions it was built with.
+	 * 
+	 * @param classifier
+	 * @param header
+	 *            an (empty) dataset with the attributes the classifier expects
+	 * @param attributeMap
+	 *            positions of the features in the dataset
+	 */
+	public void restore(weka.classifiers.Classifier classifier, Instances header, Map<String, Integer> attributeMap)
+	{
+		this.classifier = classifier;
+		this.data = header;
+		this.attributeMap = attributeMap;
+		nominalVals = new FastVector();
+		nominalVals.addElement("0");
+		nominalVals.addElement("1");
+		isReady = true;
+	}
+
+	public Map<String, Integer> getAttributeMap()
+	{
+		return attributeMap;
+	}
+
 	public String toString()
 	{
 		return classifier.toString();
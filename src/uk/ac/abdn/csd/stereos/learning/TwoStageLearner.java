@@ -1,5 +1,6 @@
 package uk.ac.abdn.csd.stereos.learning;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -19,9 +20,31 @@ import weka.core.Instances;
  * @author Chris Burnett
  * 
  */
-public class TwoStageLearner implements Learner
+public class TwoStageLearner implements Learner, PersistentLearner
 {
 
+	/**
+	 * Saved form of a trained two stage learner: the tree, the schema it
+	 * was built on, and the cluster centres it maps to.
+	 */
+	private static class ModelState implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		Classifier classifier;
+		Instances header;
+		HashMap<String, Integer> attributeMap;
+		double[][] centres;
+	}
+
+	/**
+	 * Clustering components available for the first stage
+	 */
+	public static final int CLUSTERER_WEKA_KM = 0;
+	public static final int CLUSTERER_WEKA_EM = 1;
+	public static final int CLUSTERER_NATIVE_KM = 2;
+	public static final int CLUSTERER_NATIVE_EM = 3;
+
 	private Clusterer clusterer;
 	private StereoClassifier classifier;
 
@@ -37,12 +60,34 @@ public class TwoStageLearner implements Learner
 	 *            Otherwise EM algorithm is used for the clustering component.
 	 */
 	public TwoStageLearner(int noOfClusters, boolean km)
+	{
+		this(noOfClusters, km ? CLUSTERER_WEKA_KM : CLUSTERER_WEKA_EM);
+	}
+
+	/**
+	 * Create a new two stage learner with the given clustering component.
+	 * 
+	 * @param noOfClusters
+	 *            number of clusters to create at the clustering phase.
+	 * @param clustererType
+	 *            one of the CLUSTERER_ constants
+	 */
+	public TwoStageLearner(int noOfClusters, int clustererType)
 	{
 		isReady = false;
-		if (!km)
+		switch (clustererType) {
+		case CLUSTERER_WEKA_EM:
 			clusterer = new SLClusterer(noOfClusters);
-		else
+			break;
+		case CLUSTERER_NATIVE_KM:
+			clusterer = new NativeKMClusterer(noOfClusters);
+			break;
+		case CLUSTERER_NATIVE_EM:
+			clusterer = new NativeEMClusterer(noOfClusters);
+			break;
+		default:
 			clusterer = new KMClusterer(noOfClusters);
+		}
 		classifier = new StereoClassifier(noOfClusters);
 	}
 
@@ -150,6 +195,27 @@ public class TwoStageLearner implements Learner
 
 	}
 
+	public Serializable getModelState()
+	{
+		double[][] centres = clusterer.getCentres();
+		if (!isReady || centres == null)
+			return null;
+		ModelState state = new ModelState();
+		state.classifier = classifier.classifier;
+		state.header = new Instances(classifier.getData(), 0);
+		state.attributeMap = new HashMap<String, Integer>(classifier.getAttributeMap());
+		state.centres = centres;
+		return state;
+	}
+
+	public void setModelState(Serializable s)
+	{
+		ModelState state = (ModelState) s;
+		classifier.restore(state.classifier, state.header, state.attributeMap);
+		clusterer.setCentres(state.centres);
+		isReady = true;
+	}
+
 	public Instances getData()
 	{
 		// TODO Auto-generated method stub
@@ -0,0 +1,45 @@
+package uk.ac.abdn.csd.stereos.test;
+
+import java.io.FileInputStream;
+import java.util.Properties;
+
+import uk.ac.abdn.csd.stereos.Experiment;
+import uk.ac.abdn.csd.stereos.util.VirtualPopulation;
+
+/**
+ * Checks that a short run with a virtual population leaves most of its
+ * trustees unbuilt, in a global and an ad-hoc condition. Takes the path of an
+ * experiment properties file (experiments/experiment.properties by default).
+ *
+ * @author Chris Burnett
+ *
+ */
+public class VirtualPopulationTest
+{
+
+	public static void main(String[] args) throws Exception
+	{
+		String path = args.length > 0 ? args[0] : "experiments/experiment.properties";
+		Properties properties = new Properties();
+		properties.load(new FileInputStream(path));
+		properties.setProperty("population", "virtual");
+		properties.setProperty("timeSteps", "5");
+		properties.setProperty("runs", "1");
+
+		boolean ok = true;
+		for (int condition : new int[] { Experiment.GGR, Experiment.AGR }) {
+			Experiment e = new Experiment(properties, false, null);
+			e.setCondition(condition);
+			e.run();
+			VirtualPopulation population = (VirtualPopulation) e.getAgents();
+			int built = population.getMaterialisedCount();
+			System.out.println("Condition " + condition + ": " + built + "/" + population.size() + " built");
+			if (built * 2 > population.size())
+				ok = false;
+		}
+		System.out.println(ok ? "OK" : "FAILED: most trustees were built");
+		if (!ok)
+			System.exit(1);
+	}
+
+}
@@ -3,6 +3,7 @@ package uk.ac.abdn.csd.stereos.trust;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Map.Entry;
 
 import uk.ac.abdn.csd.stereos.agents.Agent;
@@ -145,6 +146,15 @@ public class EffortAdapter extends TrustModel
 		unconditionalModel.setDefaultPrior(defaultPrior);
 	}
 
+	@Override
+	public void setRandom(Random random)
+	{
+		// the models all belong to one agent, so share its stream
+		for (TrustModel tm : effortModels.values())
+			tm.setRandom(random);
+		unconditionalModel.setRandom(random);
+	}
+
 	@Override
 	public void forget()
 	{
@@ -152,9 +162,22 @@ public class EffortAdapter extends TrustModel
 			tm.forget();
 	}
 
+	@Override
+	public void retire()
+	{
+		for (TrustModel tm : effortModels.values())
+			tm.retire();
+		unconditionalModel.retire();
+	}
+
         public TrustModel getUnconditionalTrustModel()
         {
             return this.unconditionalModel;
         }
 
+	public Map<String, TrustModel> getEffortModels()
+	{
+		return effortModels;
+	}
+
 }
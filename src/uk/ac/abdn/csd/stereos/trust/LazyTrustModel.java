@@ -0,0 +1,236 @@
+package uk.ac.abdn.csd.stereos.trust;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Map.Entry;
+
+import uk.ac.abdn.csd.stereos.agents.Agent;
+import uk.ac.abdn.csd.stereos.agents.EffortLevel;
+import uk.ac.abdn.csd.stereos.agents.Experience;
+import uk.ac.abdn.csd.stereos.trust.sl.Opinion;
+import uk.ac.abdn.csd.stereos.util.Pair;
+
+/**
+ * A trust model that isn't built until it is needed. Every trustee in a team
+ * evaluates its competitors each step to set its asking price, but only gets
+ * experiences of its own if it sub-delegates - so until then, its model is
+ * just an empty one, and giving every trustee a full model (an effort adapter
+ * with a model per effort level, and learners in stereotype conditions) wastes
+ * a lot of memory in large populations.
+ *
+ * Until the real model is built, this answers evaluations, and rating,
+ * evidence and opinion queries, itself - as an empty model of the same kind
+ * would - using an evaluator shared by all of them, with its own default
+ * prior. The real model is built when an experience is added, when the agent
+ * is about to decide whether to sub-delegate, or when the evaluator can't
+ * answer (stereotyping models, whose evaluations consult a learner). Anything
+ * else builds the model and passes the call on too.
+ *
+ * @author Chris Burnett
+ *
+ */
+public class LazyTrustModel extends TrustModel
+{
+
+	/**
+	 * Builds the real model
+	 */
+	public interface Factory
+	{
+		public TrustModel create();
+	}
+
+	private Factory factory;
+	private TrustModel model;
+	// an empty model of the kind the factory builds, never given experiences
+	private final TrustModel evaluator;
+
+	/**
+	 * @param factory
+	 * @param evaluator
+	 *            an empty model of the same kind as the one the factory
+	 *            builds, to answer for this one until it is built (may be
+	 *            shared, and null to build the model whenever it is used)
+	 */
+	public LazyTrustModel(Factory factory, TrustModel evaluator)
+	{
+		// skip the lists the superclass would make - we never use them
+		super(false);
+		this.factory = factory;
+		this.evaluator = evaluator;
+	}
+
+	/**
+	 * @return the real model, building it if it hasn't been already
+	 */
+	public synchronized TrustModel getModel()
+	{
+		if (model == null) {
+			model = factory.create();
+			model.setDefaultPrior(defaultPrior);
+			if (random != null)
+				model.setRandom(random);
+			factory = null;
+		}
+		return model;
+	}
+
+	public synchronized boolean isMaterialised()
+	{
+		return model != null;
+	}
+
+	/**
+	 * @return whether calls should go to the evaluator, rather than the real
+	 *         model
+	 */
+	private boolean isAnswering()
+	{
+		return evaluator != null && !isMaterialised();
+	}
+
+	@Override
+	public Map<Agent, Double> evaluate(List<Agent> agents, Map<Agent, List<Agent>> filteredRecommenders, int time)
+	{
+		if (isAnswering()) {
+			Map<Agent, Double> results = evaluator.evaluateWithoutExperience(agents, filteredRecommenders,
+					defaultPrior, time);
+			if (results != null)
+				return results;
+		}
+		return getModel().evaluate(agents, filteredRecommenders, time);
+	}
+
+	@Override
+	public Map<Agent, Double> evaluate(List<Agent> agents, Map<Agent, List<Agent>> recommenders, EffortLevel effort,
+			int time)
+	{
+		return getModel().evaluate(agents, recommenders, effort, time);
+	}
+
+	@Override
+	public Map<String, Map<Agent, Double>> conditionallyEvaluate(List<Agent> candidates,
+			Map<Agent, List<Agent>> filteredRecommenders, int timeStep)
+	{
+		if (isAnswering()) {
+			// as the effort adapter does, with an empty model per effort level
+			Map<String, Map<Agent, Double>> results = new HashMap<String, Map<Agent, Double>>();
+			for (Entry<String, EffortLevel> e : candidates.listIterator().next().getEfforts().entrySet()) {
+				Map<Agent, Double> evaluations = evaluator.evaluateWithoutExperience(candidates,
+						filteredRecommenders, defaultPrior, timeStep);
+				if (evaluations == null)
+					return getModel().conditionallyEvaluate(candidates, filteredRecommenders, timeStep);
+				results.put(e.getKey(), evaluations);
+			}
+			return results;
+		}
+		return getModel().conditionallyEvaluate(candidates, filteredRecommenders, timeStep);
+	}
+
+	@Override
+	public void addExperience(Experience experience)
+	{
+		getModel().addExperience(experience);
+	}
+
+	@Override
+	public List<Experience> getExperienceBase()
+	{
+		if (!isMaterialised())
+			return Collections.emptyList();
+		return model.getExperienceBase();
+	}
+
+	@Override
+	public double query(Agent a)
+	{
+		// the evaluator has no ratings, or evidence or opinions, to change
+		if (isAnswering())
+			return evaluator.query(a);
+		return getModel().query(a);
+	}
+
+	@Override
+	public Pair<Double, Double> evidenceQuery(Agent a)
+	{
+		if (isAnswering())
+			return evaluator.evidenceQuery(a);
+		return getModel().evidenceQuery(a);
+	}
+
+	@Override
+	public Opinion opinionQuery(Agent a)
+	{
+		if (isAnswering())
+			return evaluator.opinionQuery(a);
+		return getModel().opinionQuery(a);
+	}
+
+	@Override
+	public Opinion opinionQuery(Agent candidate, String effort)
+	{
+		return getModel().opinionQuery(candidate, effort);
+	}
+
+	@Override
+	public Map<Agent, Opinion> getOpinions()
+	{
+		return getModel().getOpinions();
+	}
+
+	@Override
+	public double stereotypeQuery(Agent trustee)
+	{
+		return getModel().stereotypeQuery(trustee);
+	}
+
+	@Override
+	public double confidenceQuery()
+	{
+		return getModel().confidenceQuery();
+	}
+
+	@Override
+	public double confidenceQuery(int index)
+	{
+		return getModel().confidenceQuery(index);
+	}
+
+	@Override
+	public synchronized void setDefaultPrior(double defaultPrior)
+	{
+		// remembered for when the model is built
+		this.defaultPrior = defaultPrior;
+		if (model != null)
+			model.setDefaultPrior(defaultPrior);
+	}
+
+	@Override
+	public synchronized void setRandom(Random random)
+	{
+		// remembered for when the model is built
+		this.random = random;
+		if (model != null)
+			model.setRandom(random);
+	}
+
+	@Override
+	public void forget()
+	{
+		// an empty model has nothing to forget
+		if (isMaterialised())
+			model.forget();
+	}
+
+	@Override
+	public void retire()
+	{
+		// an unbuilt model hasn't joined anything
+		if (isMaterialised())
+			model.retire();
+	}
+
+}
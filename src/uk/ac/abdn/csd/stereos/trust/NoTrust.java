@@ -38,6 +38,14 @@ public class NoTrust extends TrustModel
 		return results;
 	}
 
+	@Override
+	public Map<Agent, Double> evaluateWithoutExperience(List<Agent> agents, Map<Agent, List<Agent>> recommenders,
+			double prior, int time)
+	{
+		// no different from any other time
+		return evaluate(agents, recommenders, time);
+	}
+
 	@Override
 	public Map<Agent, Double> evaluate(List<Agent> agents, Map<Agent, List<Agent>> recommenders, EffortLevel effort,
 			int time)
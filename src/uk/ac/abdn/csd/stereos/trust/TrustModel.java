@@ -45,11 +45,23 @@ public abstract class TrustModel
 
 	// Default constructor
 	public TrustModel()
+	{
+		this(true);
+	}
+
+	/**
+	 * @param withState
+	 *            false to skip making the experience base and lookup, for
+	 *            models that only pass calls on to another model
+	 */
+	protected TrustModel(boolean withState)
 	{
 		// initialise the experience base and lookup
-		experienceBase = new ArrayList<Experience>();
-		ratings = new HashMap<Agent, Double>();
-		random = new Random();
+		if (withState) {
+			experienceBase = new ArrayList<Experience>();
+			ratings = new HashMap<Agent, Double>();
+			random = new Random();
+		}
 		defaultPrior = 0.5;
 	}
 
@@ -65,6 +77,26 @@ public abstract class TrustModel
 	public abstract Map<Agent, Double> evaluate(List<Agent> agents, Map<Agent, List<Agent>> filteredRecommenders,
 			int time);
 
+	/**
+	 * Evaluate the given agents as a new model of this kind would, with no
+	 * experiences of its own. This mustn't use or change the model's state, so
+	 * that one model can answer for others that haven't been built yet (see
+	 * LazyTrustModel), from several threads at once.
+	 * 
+	 * @param agents
+	 * @param filteredRecommenders
+	 * @param prior
+	 *            the default prior of the model being answered for
+	 * @param time
+	 * @return a mapping of agents to trust evaluations, or null if a new model
+	 *         of this kind can't be answered for without building it
+	 */
+	public Map<Agent, Double> evaluateWithoutExperience(List<Agent> agents,
+			Map<Agent, List<Agent>> filteredRecommenders, double prior, int time)
+	{
+		return null;
+	}
+
 	/**
 	 * Record an experienced outcome of a delegation relationship
 	 * 
@@ -192,6 +224,14 @@ public abstract class TrustModel
 
 	public abstract void forget();
 
+	/**
+	 * Called when the agent with this model leaves the society, so anything
+	 * shared with other models can let go of it. Does nothing by default.
+	 */
+	public void retire()
+	{
+	}
+
 	public abstract Map<String, Map<Agent, Double>> conditionallyEvaluate(List<Agent> candidates,
 			Map<Agent, List<Agent>> filteredRecommenders, int timeStep);
 
@@ -204,6 +244,17 @@ public abstract class TrustModel
 	public abstract Map<Agent, Double> evaluate(List<Agent> agents, Map<Agent, List<Agent>> recommenders,
 			EffortLevel effort, int time);
 
+	/**
+	 * Use the given random number source, e.g. a stream of the agent's own,
+	 * rather than an unseeded one
+	 *
+	 * @param random
+	 */
+	public void setRandom(Random random)
+	{
+		this.random = random;
+	}
+
 	public double getDefaultPrior()
 	{
 		return defaultPrior;
@@ -197,6 +197,16 @@ public class DirectB extends TrustModel
 		return results;
 	}
 
+	@Override
+	public Map<Agent, Double> evaluateWithoutExperience(List<Agent> agents, Map<Agent, List<Agent>> recommenders,
+			double prior, int time)
+	{
+		Map<Agent, Double> results = new HashMap<Agent, Double>();
+		for (Agent a : agents)
+			results.put(a, 0.5);
+		return results;
+	}
+
 	@Override
 	public Map<Agent, Double> evaluate(List<Agent> agents, Map<Agent, List<Agent>> recommenders, EffortLevel effort,
 			int time)
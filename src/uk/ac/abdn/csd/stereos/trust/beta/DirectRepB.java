@@ -32,6 +32,18 @@ public class DirectRepB extends DirectB
 		return results;
 	}
 
+	@Override
+	public Map<Agent, Double> evaluateWithoutExperience(List<Agent> agents, Map<Agent, List<Agent>> recommenders,
+			double prior, int time)
+	{
+		Map<Agent, Double> results = new HashMap<Agent, Double>();
+		for (Agent a : agents) {
+			Pair<Double, Double> repEvidence = aggregateReputation(recommenders.get(a), a, time);
+			results.put(a, calculateProbabilityExpectation(repEvidence.a, repEvidence.b));
+		}
+		return results;
+	}
+
 	public double evaluate(Agent a, Map<Agent, List<Agent>> recommenders, int time)
 	{
 		// double totalPositives = 0, totalNegatives = 0;
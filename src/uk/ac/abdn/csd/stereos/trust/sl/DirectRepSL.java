@@ -36,6 +36,21 @@ public class DirectRepSL extends DirectSL
 		return results;
 	}
 
+	/**
+	 * With no direct evidence, only the reputation counts
+	 */
+	@Override
+	public Map<Agent, Double> evaluateWithoutExperience(List<Agent> agents, Map<Agent, List<Agent>> recommenders,
+			double prior, int time)
+	{
+		Map<Agent, Double> results = new HashMap<Agent, Double>();
+		for (Agent a : agents) {
+			Pair<Double, Double> repEvidence = Utilities.aggregateReputation(recommenders.get(a), a, time);
+			results.put(a, new Opinion(repEvidence.a, repEvidence.b).getExpectationValue());
+		}
+		return results;
+	}
+
 	/**
 	 * evaluate a single agent
 	 */
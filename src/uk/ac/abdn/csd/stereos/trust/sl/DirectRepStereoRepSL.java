@@ -40,6 +40,21 @@ public class DirectRepStereoRepSL extends DirectRepStereoSL {
         super(temperature, halfLife, learningInterval, clusters);
     }
 
+    /**
+     * Create a new model, specifying the clustering component to use
+     *
+     * @param temperature
+     * @param halfLife
+     * @param learningInterval
+     * @param clusters
+     * @param clustererType
+     * @throws InvalidParametersException
+     */
+    public DirectRepStereoRepSL(double temperature, int halfLife, int learningInterval, int clusters, int clustererType)
+            throws InvalidParametersException {
+        super(temperature, halfLife, learningInterval, clusters, clustererType);
+    }
+
     @Override
     public Map<Agent, Double> evaluate(List<Agent> agents, Map<Agent, List<Agent>> recommenders, int time) {
         Map<Agent, Double> results = new HashMap<Agent, Double>();
@@ -116,7 +131,7 @@ public class DirectRepStereoRepSL extends DirectRepStereoSL {
 
         // if not, then we should try to produce one
         // but not if the model isn't ready - if it's not, return a 'shrug' ;)
-        if (!learner.isReady()) {
+        if (!getLearner().isReady()) {
             return 0.5;
         }
 
@@ -35,6 +35,22 @@ public class DirectRepStereoSL extends DirectStereoSL
 		super(temperature, halfLife, learningInterval, clusters);
 	}
 
+	/**
+	 * Create a new model, specifying the clustering component to use
+	 * 
+	 * @param temperature
+	 * @param halfLife
+	 * @param learningInterval
+	 * @param clusters
+	 * @param clustererType
+	 * @throws InvalidParametersException
+	 */
+	public DirectRepStereoSL(double temperature, int halfLife, int learningInterval, int clusters, int clustererType)
+			throws InvalidParametersException
+	{
+		super(temperature, halfLife, learningInterval, clusters, clustererType);
+	}
+
 	@Override
 	public Map<Agent, Double> evaluate(List<Agent> agents, Map<Agent, List<Agent>> recommenders, int time)
 	{
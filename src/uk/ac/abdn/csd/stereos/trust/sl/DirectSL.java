@@ -149,6 +149,19 @@ public class DirectSL extends TrustModel
 		return results;
 	}
 
+	/**
+	 * With no ratings, everyone gets the prior
+	 */
+	@Override
+	public Map<Agent, Double> evaluateWithoutExperience(List<Agent> agents, Map<Agent, List<Agent>> recommenders,
+			double prior, int time)
+	{
+		Map<Agent, Double> results = new HashMap<Agent, Double>();
+		for (Agent a : agents)
+			results.put(a, prior);
+		return results;
+	}
+
 	/**
 	 * Just returns the unconditional trust, if this method is called.
 	 */
@@ -1,9 +1,11 @@
 package uk.ac.abdn.csd.stereos.trust.sl;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 
 import uk.ac.abdn.csd.stereos.agents.Agent;
 import uk.ac.abdn.csd.stereos.agents.Experience;
@@ -11,6 +13,8 @@ import uk.ac.abdn.csd.stereos.exceptions.InvalidParametersException;
 
 import uk.ac.abdn.csd.stereos.learning.Learner;
 import uk.ac.abdn.csd.stereos.learning.M5PLearner;
+import uk.ac.abdn.csd.stereos.learning.ParallelTrainer;
+import uk.ac.abdn.csd.stereos.learning.PersistentLearner;
 import uk.ac.abdn.csd.stereos.learning.TwoStageLearner; //import uk.ac.abdn.csd.stereos.learning.ReFELearner;
 //import uk.ac.abdn.csd.stereos.learning.ReducedModelLearner;
 
@@ -74,6 +78,28 @@ public class DirectStereoSL extends DirectSL
 	
 	protected int clusters;
 
+	/**
+	 * Which clustering component the learner uses
+	 */
+	protected int clustererType;
+
+	/**
+	 * If set, retrains are handed off to this rather than run in place
+	 */
+	protected ParallelTrainer trainer;
+
+	/**
+	 * A retrain that has been handed off and not yet collected, and the index
+	 * of the first error entry recorded since it was started
+	 */
+	private Future<?> pendingTraining;
+	private int pendingErrorIndex;
+
+	/**
+	 * If set, this model shares the cohort's learner instead of its own
+	 */
+	protected LearningCohort cohort;
+
 	/**
 	 * Create a new model with the given parameters
 	 * 
@@ -84,12 +110,29 @@ public class DirectStereoSL extends DirectSL
 	 */
 	public DirectStereoSL(double temperature, int halfLife, int learningInterval, int clusters)
 			throws InvalidParametersException
+	{
+		this(temperature, halfLife, learningInterval, clusters, TwoStageLearner.CLUSTERER_WEKA_KM);
+	}
+
+	/**
+	 * Create a new model, specifying the clustering component to use
+	 * 
+	 * @param temperature
+	 * @param halfLife
+	 * @param clusters
+	 * @param clustererType
+	 *            one of the TwoStageLearner.CLUSTERER_ constants
+	 * @throws InvalidParametersException
+	 */
+	public DirectStereoSL(double temperature, int halfLife, int learningInterval, int clusters, int clustererType)
+			throws InvalidParametersException
 	{
 		super(temperature, halfLife);
 		// create the clusterer and classifier learner
-		this.learner = new TwoStageLearner(clusters, true);
+		this.learner = new TwoStageLearner(clusters, clustererType);
 		//this.learner = new M5PLearner();
 		this.clusters = clusters;
+		this.clustererType = clustererType;
 		this.learningInterval = learningInterval;
 		intervalRemaining = learningInterval;
 		stereotypeRatingCache = new HashMap<Agent, Double>();
@@ -107,15 +150,33 @@ public class DirectStereoSL extends DirectSL
 		super.addExperience(e);
 		// figure out if we should reproduce the clusters and classifier
 		// if we should:
-		if (intervalRemaining <= 0) {
-			learner.train(this.opinions);
+		if (cohort != null)
+			cohort.experienceAdded(); // the cohort decides when to rebuild
+		else if (intervalRemaining <= 0) {
+			awaitTraining();
+			if (trainer == null)
+				learner.train(this.opinions);
+			else {
+				// train on a snapshot, since our opinions will keep changing
+				final Learner l = learner;
+				final Map<Agent, Opinion> snapshot = getOpinions();
+				pendingErrorIndex = errors.size();
+				pendingTraining = trainer.submit(new Runnable() {
+					public void run()
+					{
+						l.train(snapshot);
+					}
+				});
+			}
 			// reset counter and base rate cache
 			intervalRemaining = learningInterval;
 		} else
 			intervalRemaining--; // otherwise, decrement and continue
 		// record the error at this point
-		if (learner.isReady())
-			errors.add(learner.getErrorRate());
+		if (pendingTraining != null)
+			errors.add(1.0); // filled in when the retrain is collected
+		else if (getLearner().isReady())
+			errors.add(getLearner().getErrorRate());
 		else
 			errors.add(1.0); // if we haven't got the model ready, then add full
 								// error
@@ -148,6 +209,17 @@ public class DirectStereoSL extends DirectSL
 		return results;
 	}
 
+	/**
+	 * Evaluating consults the learner (which may be a cohort's, and trained
+	 * already), so can't be done without building the model
+	 */
+	@Override
+	public Map<Agent, Double> evaluateWithoutExperience(List<Agent> agents, Map<Agent, List<Agent>> recommenders,
+			double prior, int time)
+	{
+		return null;
+	}
+
 	@Override
 	public double evaluate(Agent a, Map<Agent, List<Agent>> recommenders, int time)
 	{
@@ -186,8 +258,9 @@ public class DirectStereoSL extends DirectSL
 	{
 		// this is the list of unknown agents we will pass to the classifier
 		List<Agent> classificationList = new ArrayList<Agent>();
+		Learner current = getLearner();
 		// classify this agent using the classifier we have built, if one exists
-		if (learner.isReady()) {
+		if (current.isReady()) {
 			for (Agent trustee : trustees) {
 				// the classifier is ready, so use our trained model
 				// but first check to see if we have a cached value
@@ -197,27 +270,110 @@ public class DirectStereoSL extends DirectSL
 			// don't do anything if all the agents already have stereotypes
 			if (!classificationList.isEmpty()) {
 				// now classify the uncached agents
-				Map<Agent, Double> newBaseRates = learner.getBaseRates(classificationList);
+				Map<Agent, Double> newBaseRates = current.getBaseRates(classificationList);
 				// update the cache...
 				this.stereotypeRatingCache.putAll(newBaseRates);
 			}
 		}
 	}
 
+	/**
+	 * Collect any retrain that has been handed off, so that the learner is
+	 * safe to use. Error entries recorded while it was running are set to what
+	 * the retrained model would have reported.
+	 */
+	protected void awaitTraining()
+	{
+		if (pendingTraining == null)
+			return;
+		ParallelTrainer.await(pendingTraining);
+		pendingTraining = null;
+		double error = learner.isReady() ? learner.getErrorRate() : 1.0;
+		for (int i = pendingErrorIndex; i < errors.size(); i++)
+			errors.set(i, error);
+	}
+
+	/**
+	 * Hand retrains off to the given trainer (or run them in place, if null)
+	 * 
+	 * @param trainer
+	 */
+	public void setTrainer(ParallelTrainer trainer)
+	{
+		awaitTraining();
+		this.trainer = trainer;
+	}
+
+	/**
+	 * Share the given cohort's learner rather than training our own
+	 * 
+	 * @param cohort
+	 */
+	public void setCohort(LearningCohort cohort)
+	{
+		awaitTraining();
+		this.cohort = cohort;
+		cohort.join(this);
+	}
+
+	public LearningCohort getCohort()
+	{
+		return cohort;
+	}
+
+	/**
+	 * Get a saveable snapshot of the learned stereotype model
+	 * 
+	 * @return the snapshot, or null if there is nothing (yet) to save
+	 */
+	public Serializable getLearnerState()
+	{
+		Learner l = getLearner();
+		if (l instanceof PersistentLearner)
+			return ((PersistentLearner) l).getModelState();
+		return null;
+	}
+
+	/**
+	 * Warm start the learner from a snapshot taken by getLearnerState()
+	 * 
+	 * @param state
+	 */
+	public void setLearnerState(Serializable state)
+	{
+		Learner l = getLearner();
+		if (l instanceof PersistentLearner)
+			((PersistentLearner) l).setModelState(state);
+	}
+
 	public Learner getLearner()
 	{
+		if (cohort != null)
+			return cohort.getLearner();
+		awaitTraining();
 		return this.learner;
 	}
 	
 	public void forget()
 	{
+		awaitTraining();
 		super.forget();
 		this.opinions.clear();
 		this.stereotypeRatingCache.clear();
 		this.ratings.clear();
 		this.evidence.clear();
 		
-		this.learner = new TwoStageLearner(clusters, true);
+		// a cohort's model is shared - we only take back our own opinions,
+		// which the next pool won't have
+		if (cohort == null)
+			this.learner = new TwoStageLearner(clusters, clustererType);
+	}
+
+	@Override
+	public void retire()
+	{
+		if (cohort != null)
+			cohort.leave(this);
 	}
 
 	/**
@@ -226,7 +382,7 @@ public class DirectStereoSL extends DirectSL
 	 */
 	public double confidenceQuery()
 	{
-		return 1 - learner.getErrorRate();
+		return 1 - getLearner().getErrorRate();
 	}
 
 	/**
@@ -234,6 +390,7 @@ public class DirectStereoSL extends DirectSL
 	 */
 	public double confidenceQuery(int index)
 	{
+		awaitTraining();
 		return 1 - errors.get(index);
 	}
 }
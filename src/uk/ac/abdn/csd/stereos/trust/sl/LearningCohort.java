@@ -0,0 +1,128 @@
+package uk.ac.abdn.csd.stereos.trust.sl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import uk.ac.abdn.csd.stereos.agents.Agent;
+import uk.ac.abdn.csd.stereos.learning.Learner;
+import uk.ac.abdn.csd.stereos.learning.TwoStageLearner;
+
+/**
+ * A group of stereotyping trust models which share a single learner. The
+ * opinions of all members are pooled (using the consensus operator) and the
+ * learner is trained on the pool, so stereotypes are learned once per cohort
+ * rather than once per trustor.
+ *
+ * The cohort retrains after learningInterval experiences per member, on
+ * average, so each member sees roughly the same rebuild rate as it would on its
+ * own. Members that forget only lose their own opinions (and so their part of
+ * the next pool) - the shared model is only thrown away once every member has
+ * left.
+ *
+ * @author Chris Burnett
+ *
+ */
+public class LearningCohort
+{
+
+	private final int clusters;
+	private final int clustererType;
+	private final int learningInterval;
+
+	private Learner learner;
+	private List<DirectStereoSL> members;
+	private int intervalRemaining;
+
+	public LearningCohort(int learningInterval, int clusters, int clustererType)
+	{
+		this.learningInterval = learningInterval;
+		this.clusters = clusters;
+		this.clustererType = clustererType;
+		this.learner = new TwoStageLearner(clusters, clustererType);
+		this.members = new ArrayList<DirectStereoSL>();
+		this.intervalRemaining = learningInterval;
+	}
+
+	/**
+	 * Add a model to this cohort
+	 *
+	 * @param member
+	 */
+	public void join(DirectStereoSL member)
+	{
+		members.add(member);
+		intervalRemaining += learningInterval;
+	}
+
+	/**
+	 * Remove a model from this cohort (e.g. when its agent is replaced). If it
+	 * was the last member, the shared model is thrown away.
+	 *
+	 * @param member
+	 */
+	public void leave(DirectStereoSL member)
+	{
+		for (int i = 0; i < members.size(); i++) {
+			if (members.get(i) == member) {
+				members.remove(i);
+				break;
+			}
+		}
+		if (members.isEmpty()) {
+			learner = new TwoStageLearner(clusters, clustererType);
+			intervalRemaining = learningInterval;
+		} else
+			intervalRemaining = Math.min(intervalRemaining, learningInterval * members.size());
+	}
+
+	/**
+	 * Called by members whenever they add an experience. Retrains the shared
+	 * learner when the interval runs out.
+	 */
+	public void experienceAdded()
+	{
+		if (intervalRemaining <= 0) {
+			learner.train(pooledOpinions());
+			intervalRemaining = learningInterval * members.size();
+		} else
+			intervalRemaining--;
+	}
+
+	/**
+	 * Combine the opinions of all members. Vacuous opinions are skipped, as the
+	 * learner ignores them anyway.
+	 *
+	 * @return a map of agents to pooled opinions
+	 */
+	public Map<Agent, Opinion> pooledOpinions()
+	{
+		Map<Agent, Opinion> pool = new HashMap<Agent, Opinion>();
+		for (DirectStereoSL m : members) {
+			for (Entry<Agent, Opinion> e : m.opinions.entrySet()) {
+				Opinion op = e.getValue();
+				if (op.getUncertainty() == 1.0)
+					continue;
+				Opinion pooled = pool.get(e.getKey());
+				if (pooled == null)
+					pool.put(e.getKey(), new Opinion(op));
+				else
+					pool.put(e.getKey(), Opinion.consensus(pooled, op));
+			}
+		}
+		return pool;
+	}
+
+	public Learner getLearner()
+	{
+		return learner;
+	}
+
+	public List<DirectStereoSL> getMembers()
+	{
+		return members;
+	}
+
+}
@@ -3,6 +3,7 @@ package uk.ac.abdn.csd.stereos.trust.wm;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 import uk.ac.abdn.csd.stereos.agents.Agent;
 import uk.ac.abdn.csd.stereos.agents.EffortLevel;
@@ -202,6 +203,13 @@ public class DirectWM extends TrustModel
 		return null;
 	}
 
+	@Override
+	public void setRandom(Random random)
+	{
+		super.setRandom(random);
+		boltzmann.setRandom(random);
+	}
+
 	@Override
 	public void forget()
 	{
@@ -39,6 +39,16 @@ public class Boltzmann
 
 	}
 
+	/**
+	 * Use the given random number source rather than an unseeded one
+	 *
+	 * @param random
+	 */
+	public void setRandom(Random random)
+	{
+		this.random = random;
+	}
+
 	/**
 	 * Calculate the Boltzmann exploration decision.
 	 * 
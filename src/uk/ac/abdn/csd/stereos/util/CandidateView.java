@@ -0,0 +1,260 @@
+package uk.ac.abdn.csd.stereos.util;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import uk.ac.abdn.csd.stereos.agents.Agent;
+
+/**
+ * A read-only list of delegation candidates, made up of index ranges over
+ * existing lists (e.g. the global trustee list, or the trustee part of a team)
+ * rather than a copy of them.
+ *
+ * Agents can be left out with an exclusion mask - one bit per position - so
+ * that removing the delegation path from the candidates doesn't mean copying
+ * or changing the underlying lists. Excluding or adding agents gives a new
+ * view and leaves this one as it was, so a view can be handed around freely.
+ *
+ * @author Chris Burnett
+ *
+ */
+public class CandidateView extends AbstractList<Agent>
+{
+
+	private static final CandidateView EMPTY = new CandidateView(Collections.<Agent> emptyList());
+
+	// the ranges making up the view. range r is bases.get(r) from from[r]
+	// up to to[r], and starts at position start[r] in the view
+	private final List<List<Agent>> bases;
+	private final int[] from;
+	private final int[] to;
+	private final int[] start;
+	// number of positions, including excluded ones
+	private final int positions;
+
+	// excluded positions, or null if nothing is excluded
+	private final long[] excluded;
+	private final int size;
+
+	/**
+	 * A view of a whole list
+	 *
+	 * @param agents
+	 */
+	public CandidateView(List<Agent> agents)
+	{
+		this(Collections.singletonList(agents), new int[] { 0 }, new int[] { agents.size() });
+	}
+
+	/**
+	 * A view of several ranges, one after the other
+	 *
+	 * @param bases
+	 *            the lists the ranges are taken from
+	 * @param from
+	 *            the start of each range (inclusive)
+	 * @param to
+	 *            the end of each range (exclusive)
+	 */
+	public CandidateView(List<List<Agent>> bases, int[] from, int[] to)
+	{
+		this(bases, from, to, null, 0);
+	}
+
+	private CandidateView(List<List<Agent>> bases, int[] from, int[] to, long[] excluded, int excludedCount)
+	{
+		this.bases = bases;
+		this.from = from;
+		this.to = to;
+		this.start = new int[from.length];
+		int p = 0;
+		for (int r = 0; r < from.length; r++) {
+			start[r] = p;
+			p += to[r] - from[r];
+		}
+		this.positions = p;
+		this.excluded = excluded;
+		this.size = p - excludedCount;
+	}
+
+	/**
+	 * @return a view with nothing in it
+	 */
+	public static CandidateView empty()
+	{
+		return EMPTY;
+	}
+
+	/**
+	 * Get a view without the given agents (compared by identity, as
+	 * List.removeAll does for agents).
+	 *
+	 * @param agents
+	 *            agents to leave out, e.g. a delegation path
+	 * @return a new view, or this one if there is nothing to leave out
+	 */
+	public CandidateView exclude(Collection<Agent> agents)
+	{
+		if (agents.isEmpty() || size == 0)
+			return this;
+		Map<Agent, Boolean> out = new IdentityHashMap<Agent, Boolean>();
+		for (Agent a : agents)
+			out.put(a, Boolean.TRUE);
+
+		long[] mask = excluded == null ? new long[(positions + 63) / 64] : excluded.clone();
+		int count = positions - size;
+		for (int r = 0; r < from.length; r++) {
+			List<Agent> base = bases.get(r);
+			for (int i = from[r], p = start[r]; i < to[r]; i++, p++) {
+				long bit = 1L << (p & 63);
+				if ((mask[p >> 6] & bit) == 0 && out.containsKey(base.get(i))) {
+					mask[p >> 6] |= bit;
+					count++;
+				}
+			}
+		}
+		if (count == positions - size)
+			return this;
+		return new CandidateView(bases, from, to, mask, count);
+	}
+
+	/**
+	 * Get a view without the agents whose keys are set in a bit set (see
+	 * Agent.getKey()). Agents without numbers are never left out.
+	 *
+	 * @param keys
+	 *            keys of the agents to leave out
+	 * @return a new view, or this one if there is nothing to leave out
+	 */
+	public CandidateView exclude(BitSet keys)
+	{
+		if (keys.isEmpty() || size == 0)
+			return this;
+		long[] mask = excluded == null ? new long[(positions + 63) / 64] : excluded.clone();
+		int count = positions - size;
+		for (int r = 0; r < from.length; r++) {
+			List<Agent> base = bases.get(r);
+			for (int i = from[r], p = start[r]; i < to[r]; i++, p++) {
+				long bit = 1L << (p & 63);
+				int k = base.get(i).getKey();
+				if ((mask[p >> 6] & bit) == 0 && k >= 0 && keys.get(k)) {
+					mask[p >> 6] |= bit;
+					count++;
+				}
+			}
+		}
+		if (count == positions - size)
+			return this;
+		return new CandidateView(bases, from, to, mask, count);
+	}
+
+	/**
+	 * Get a view with one more agent on the end
+	 *
+	 * @param agent
+	 * @return a new view
+	 */
+	public CandidateView with(Agent agent)
+	{
+		int n = from.length;
+		List<List<Agent>> b = new ArrayList<List<Agent>>(n + 1);
+		b.addAll(bases);
+		b.add(Collections.singletonList(agent));
+		int[] f = new int[n + 1];
+		int[] t = new int[n + 1];
+		System.arraycopy(from, 0, f, 0, n);
+		System.arraycopy(to, 0, t, 0, n);
+		t[n] = 1;
+		long[] mask = null;
+		if (excluded != null) {
+			mask = new long[(positions + 64) / 64];
+			System.arraycopy(excluded, 0, mask, 0, excluded.length);
+		}
+		return new CandidateView(b, f, t, mask, positions - size);
+	}
+
+	/**
+	 * The agent at a position (excluded or not)
+	 */
+	private Agent at(int p)
+	{
+		int r = from.length - 1;
+		while (start[r] > p)
+			r--;
+		return bases.get(r).get(from[r] + p - start[r]);
+	}
+
+	private boolean isExcluded(int p)
+	{
+		return excluded != null && (excluded[p >> 6] & (1L << (p & 63))) != 0;
+	}
+
+	@Override
+	public Agent get(int i)
+	{
+		if (i < 0 || i >= size)
+			throw new IndexOutOfBoundsException();
+		if (excluded == null)
+			return at(i);
+		// find the ith position not excluded, a word at a time
+		int w = 0;
+		while (true) {
+			int clear = 64 - Long.bitCount(excluded[w]);
+			if (i < clear)
+				break;
+			i -= clear;
+			w++;
+		}
+		int p = w * 64;
+		while (isExcluded(p) || i-- > 0)
+			p++;
+		return at(p);
+	}
+
+	@Override
+	public int size()
+	{
+		return size;
+	}
+
+	@Override
+	public Iterator<Agent> iterator()
+	{
+		return new Iterator<Agent>() {
+			private int r = 0;
+			private int p = 0;
+
+			public boolean hasNext()
+			{
+				while (p < positions && isExcluded(p))
+					p++;
+				return p < positions;
+			}
+
+			public Agent next()
+			{
+				if (!hasNext())
+					throw new NoSuchElementException();
+				while (start[r] + to[r] - from[r] <= p)
+					r++;
+				Agent a = bases.get(r).get(from[r] + p - start[r]);
+				p++;
+				return a;
+			}
+
+			public void remove()
+			{
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+}
@@ -0,0 +1,194 @@
+package uk.ac.abdn.csd.stereos.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import uk.ac.abdn.csd.stereos.agents.Agent;
+import uk.ac.abdn.csd.stereos.reputation.DefaultFilter;
+import uk.ac.abdn.csd.stereos.trust.TrustModel;
+
+/**
+ * Works out trustee asking prices from a shared summary of each market, rather
+ * than having every trustee evaluate all of its competitors itself (as
+ * Agent.compete does, which is quadratic in a global market).
+ *
+ * A market is a set of competing trustees - the whole population in global
+ * conditions, or a team. Once per step, each market's members are evaluated
+ * once, by one of them, and the market's average expected loss (the target
+ * that compete() aims for) is worked out. Each trustee then sets its price to
+ * meet its own market's target, given its own estimated failure probability -
+ * which, as in compete(), comes from its own trust in itself (see
+ * Agent.selfTrust), not from the market's evaluator. Only the target is
+ * shared. Markets are evaluated in parallel, then prices are worked out in
+ * parallel.
+ *
+ * As all prices are worked out from the prices at the start of the step, the
+ * result doesn't depend on the order trustees are visited in.
+ *
+ * @author Chris Burnett
+ *
+ */
+public class CompetitionEngine
+{
+
+	/**
+	 * A set of competing trustees, with the agent whose trust model will
+	 * evaluate them and the recommenders it may ask
+	 */
+	public static class Market
+	{
+		final List<Agent> members;
+		final Agent evaluator;
+		final List<Agent> recommenders;
+		// results of the last summary
+		Map<Agent, Double> trust;
+		double targetEL;
+
+		public Market(List<Agent> members, Agent evaluator, List<Agent> recommenders)
+		{
+			this.members = members;
+			this.evaluator = evaluator;
+			this.recommenders = recommenders;
+		}
+
+		/**
+		 * Evaluate the members and work out the average expected loss
+		 */
+		void summarise(int timeStep)
+		{
+			Map<Agent, List<Agent>> filtered = new DefaultFilter().filterRecommenders(evaluator, members,
+					recommenders);
+			TrustModel tm = evaluator.getTrustModel();
+			// an agent may evaluate more than one market
+			synchronized (tm) {
+				trust = tm.evaluate(members, filtered, timeStep);
+			}
+			targetEL = averageEL(trust);
+		}
+
+		/**
+		 * The average expected loss over the members, given the trust in them
+		 */
+		protected double averageEL(Map<Agent, Double> trust)
+		{
+			double sum = 0;
+			int count = 0;
+			for (Agent a : members) {
+				sum += (1 - trust.get(a)) * a.getAskingPrice();
+				count++;
+			}
+			return count > 0 ? sum / count : 0;
+		}
+
+		public double getTargetEL()
+		{
+			return targetEL;
+		}
+	}
+
+	private final ExecutorService pool;
+	private final int threads;
+
+	/**
+	 * @param threads
+	 *            number of worker threads (1 to do everything on the calling
+	 *            thread)
+	 */
+	public CompetitionEngine(int threads)
+	{
+		this.threads = Math.max(1, threads);
+		if (this.threads > 1)
+			pool = Executors.newFixedThreadPool(this.threads, new ThreadFactory() {
+				public Thread newThread(Runnable r)
+				{
+					Thread t = new Thread(r, "competition");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		else
+			pool = null;
+	}
+
+	/**
+	 * Summarise the markets and work out new asking prices.
+	 *
+	 * @param markets
+	 * @param trustees
+	 *            trustees to price
+	 * @param marketOf
+	 *            the market each trustee competes in (which must contain it)
+	 * @param timeStep
+	 * @return the new asking prices, in the order of the trustees
+	 */
+	public double[] compete(List<Market> markets, final List<Agent> trustees, final Market[] marketOf,
+			final int timeStep)
+	{
+		// summarise each market once
+		List<Callable<Object>> jobs = new ArrayList<Callable<Object>>();
+		for (final Market m : markets)
+			jobs.add(new Callable<Object>() {
+				public Object call()
+				{
+					m.summarise(timeStep);
+					return null;
+				}
+			});
+		run(jobs);
+
+		// then price everyone from the summaries
+		final double[] prices = new double[trustees.size()];
+		jobs.clear();
+		int chunk = (prices.length + threads - 1) / threads;
+		for (int start = 0; start < prices.length; start += chunk) {
+			final int from = start;
+			final int to = Math.min(prices.length, start + chunk);
+			jobs.add(new Callable<Object>() {
+				public Object call()
+				{
+					for (int i = from; i < to; i++) {
+						double myP = 1 - trustees.get(i).selfTrust(timeStep);
+						prices[i] = marketOf[i].targetEL / myP;
+					}
+					return null;
+				}
+			});
+		}
+		run(jobs);
+		return prices;
+	}
+
+	private void run(List<Callable<Object>> jobs)
+	{
+		if (pool == null) {
+			for (Callable<Object> job : jobs)
+				try {
+					job.call();
+				} catch (Exception e) {
+					System.err.println("CompetitionEngine: Exception occurred while competing:");
+					e.printStackTrace();
+				}
+			return;
+		}
+		try {
+			for (Future<Object> f : pool.invokeAll(jobs))
+				f.get();
+		} catch (Exception e) {
+			System.err.println("CompetitionEngine: Exception occurred while competing:");
+			e.printStackTrace();
+		}
+	}
+
+	public void shutdown()
+	{
+		if (pool != null)
+			pool.shutdown();
+	}
+
+}
@@ -0,0 +1,122 @@
+package uk.ac.abdn.csd.stereos.util;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import uk.ac.abdn.csd.stereos.agents.Agent;
+
+/**
+ * A priority queue of simulation events, for running an experiment event by
+ * event rather than stepping every agent at every time step.
+ *
+ * Events are ordered by time step, then by type (so that, within a step,
+ * things happen in the same order as they would in the stepped loop), then by
+ * the order they were scheduled in, which keeps runs repeatable.
+ *
+ * @author Chris Burnett
+ *
+ */
+public class EventScheduler
+{
+
+	/**
+	 * A scheduled event. What the type means is up to the experiment.
+	 */
+	public static class Event implements Comparable<Event>
+	{
+		public final int time;
+		public final int type;
+		public final Agent agent;
+		private final long seq;
+
+		Event(int time, int type, Agent agent, long seq)
+		{
+			this.time = time;
+			this.type = type;
+			this.agent = agent;
+			this.seq = seq;
+		}
+
+		public int compareTo(Event e)
+		{
+			if (time != e.time)
+				return time < e.time ? -1 : 1;
+			if (type != e.type)
+				return type < e.type ? -1 : 1;
+			return seq < e.seq ? -1 : (seq == e.seq ? 0 : 1);
+		}
+	}
+
+	private final PriorityQueue<Event> queue;
+	private final Random random;
+	private final int endTime;
+	private long seq;
+
+	/**
+	 * @param random
+	 *            random number source for drawing arrival times
+	 * @param endTime
+	 *            events at or after this time step are never scheduled
+	 */
+	public EventScheduler(Random random, int endTime)
+	{
+		this.random = random;
+		this.endTime = endTime;
+		this.queue = new PriorityQueue<Event>();
+	}
+
+	/**
+	 * Schedule an event, if it falls within the run
+	 *
+	 * @param time
+	 * @param type
+	 * @param agent
+	 *            the agent concerned, or null
+	 */
+	public void schedule(int time, int type, Agent agent)
+	{
+		if (time < endTime)
+			queue.add(new Event(time, type, agent, seq++));
+	}
+
+	/**
+	 * Schedule the next occurrence of something that happens with probability
+	 * p in each step, after the given step. The gap between occurrences of a
+	 * Bernoulli process is geometric, so it can be drawn in one go and the
+	 * steps in between skipped.
+	 *
+	 * @param after
+	 *            the current step (-1 to include step 0)
+	 * @param p
+	 *            the per step probability
+	 * @param type
+	 * @param agent
+	 */
+	public void scheduleArrival(int after, double p, int type, Agent agent)
+	{
+		if (p <= 0)
+			return;
+		int gap = 0;
+		if (p < 1) {
+			double g = Math.floor(Math.log(1 - random.nextDouble()) / Math.log(1 - p));
+			if (g >= endTime)
+				return;
+			gap = (int) g;
+		}
+		schedule(after + 1 + gap, type, agent);
+	}
+
+	/**
+	 * @return the next event, or null if there are none left
+	 */
+	public Event next()
+	{
+		return queue.poll();
+	}
+
+	public boolean isEmpty()
+	{
+		return queue.isEmpty();
+	}
+
+}
@@ -0,0 +1,115 @@
+package uk.ac.abdn.csd.stereos.util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+
+import uk.ac.abdn.csd.stereos.agents.Agent;
+import uk.ac.abdn.csd.stereos.agents.Delegation;
+
+/**
+ * Summary statistics of an experiment, worked out from the trustors' running
+ * totals at the end of each step (or sample, in event driven runs) and written
+ * out straight away, so the reporters' per-agent histories don't need to be
+ * kept until the end. One line per step:
+ *
+ * the trustors' average utility so far, their average interaction outcome so
+ * far, the average error of their models (as GlobalRMSEReporter reports it),
+ * and how many of them made each type of contract last (as in
+ * Experiment.diagnostics).
+ *
+ * @author Chris Burnett
+ *
+ */
+public class MetricsSink
+{
+
+	public static final String HEADER = "time,utility,outcome,rmse,unmonitored,monitored,repinc,abstain,other";
+
+	private final File file;
+	private final PrintWriter out;
+
+	/**
+	 * @param file
+	 *            where to write the metrics (replaced if it exists)
+	 * @throws IOException
+	 */
+	public MetricsSink(File file) throws IOException
+	{
+		this.file = file;
+		out = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+		out.println(HEADER);
+	}
+
+	/**
+	 * Write the metrics of a step
+	 *
+	 * @param timeStep
+	 * @param trustors
+	 */
+	public void record(int timeStep, List<Agent> trustors)
+	{
+		double utility = 0, outcome = 0, rmse = 0;
+		int outcomes = 0, models = 0;
+		int unmonitored = 0, monitored = 0, repinc = 0, abstain = 0, other = 0;
+		for (Agent t : trustors) {
+			utility += t.getMeanUtility();
+			if (t.getResultCount() > 0) {
+				outcome += t.getLastAvgResult();
+				outcomes++;
+			}
+			int experiences = t.getTrustModel().getExperienceBase().size();
+			if (experiences > 1) {
+				rmse += t.getTrustModel().confidenceQuery(experiences - 1);
+				models++;
+			}
+			switch (t.getLastContractType()) {
+			case Delegation.DELEGATION_UNMONITORED:
+				unmonitored++;
+				break;
+			case Delegation.DELEGATION_MONITORED:
+				monitored++;
+				break;
+			case Delegation.DELEGATION_REPINC:
+				repinc++;
+				break;
+			case Delegation.DELEGATION_ABSTAIN:
+				abstain++;
+				break;
+			default:
+				other++;
+			}
+		}
+		out.print(timeStep);
+		out.print(',');
+		out.print(trustors.isEmpty() ? 0 : utility / trustors.size());
+		out.print(',');
+		out.print(outcomes > 0 ? outcome / outcomes : 0);
+		out.print(',');
+		out.print(models > 0 ? rmse / models : 0);
+		out.print(',');
+		out.print(unmonitored);
+		out.print(',');
+		out.print(monitored);
+		out.print(',');
+		out.print(repinc);
+		out.print(',');
+		out.print(abstain);
+		out.print(',');
+		out.println(other);
+	}
+
+	/**
+	 * Flush and close the file
+	 */
+	public void close()
+	{
+		out.close();
+		if (out.checkError())
+			System.err.println("MetricsSink: Could not write metrics to " + file);
+	}
+
+}
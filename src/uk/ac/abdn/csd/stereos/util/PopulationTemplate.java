@@ -0,0 +1,326 @@
+package uk.ac.abdn.csd.stereos.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Map.Entry;
+
+import uk.ac.abdn.csd.stereos.agents.BehaviouralBias;
+import uk.ac.abdn.csd.stereos.agents.EffortLevel;
+import uk.ac.abdn.csd.stereos.agents.PerceptualBias;
+import uk.ac.abdn.csd.stereos.agents.Profile;
+import uk.ac.abdn.csd.stereos.exceptions.InvalidParametersException;
+
+/**
+ * The parts of an experiment's setup that are the same for every condition:
+ * the parsed profile and bias files, and, for a given population seed, the
+ * noise features and every agent's feature vector.
+ *
+ * Templates are cached by profile set, so running several conditions (or
+ * several runs) only reads the files once, and conditions run with the same
+ * seed share feature vectors rather than generating them again. Each
+ * experiment gets its own copy of the profiles and biases (which mix mode
+ * changes), while feature vectors are shared read-only.
+ *
+ * @author Chris Burnett
+ *
+ */
+public class PopulationTemplate
+{
+
+	private static final Map<String, PopulationTemplate> templates = new HashMap<String, PopulationTemplate>();
+
+	/**
+	 * Get the template for a profile set, reading the files if they haven't
+	 * been read yet or have changed since.
+	 *
+	 * @param profileSet
+	 *            name of the profile set (experiments/[name].profiles)
+	 * @return the template
+	 * @throws IOException
+	 */
+	public static synchronized PopulationTemplate forProfileSet(String profileSet) throws IOException
+	{
+		PopulationTemplate t = templates.get(profileSet);
+		if (t == null || t.isStale()) {
+			t = new PopulationTemplate(profileSet);
+			templates.put(profileSet, t);
+		}
+		return t;
+	}
+
+	private final File profileFile;
+	private final File biasFile;
+	private final long profilesModified;
+	private final long biasModified;
+
+	private final List<Profile> profiles;
+	private Map<Profile, List<BehaviouralBias>> bBiases;
+	private Map<Profile, List<PerceptualBias>> pBiases;
+
+	// feature vectors for the last seed asked for
+	private Features features;
+
+	private PopulationTemplate(String profileSet) throws IOException
+	{
+		this.profileFile = new File("experiments/" + profileSet + ".profiles");
+		this.biasFile = new File("experiments/" + profileSet + ".bias");
+		this.profilesModified = profileFile.lastModified();
+		this.biasModified = biasFile.lastModified();
+		this.profiles = Profile.parseAgentProfiles(profileFile.getPath());
+	}
+
+	private boolean isStale()
+	{
+		return profileFile.lastModified() != profilesModified || biasFile.lastModified() != biasModified;
+	}
+
+	/**
+	 * @return a copy of the profiles, for one experiment to use
+	 */
+	public List<Profile> copyProfiles()
+	{
+		List<Profile> copies = new ArrayList<Profile>(profiles.size());
+		for (Profile p : profiles)
+			copies.add(new Profile(p));
+		return copies;
+	}
+
+	/**
+	 * Get the behavioural biases, for profiles copied with copyProfiles()
+	 *
+	 * @param copies
+	 * @return a map from each copied profile to its biases
+	 * @throws InvalidParametersException
+	 * @throws IOException
+	 */
+	public synchronized Map<Profile, List<BehaviouralBias>> getBehaviouralBiases(List<Profile> copies)
+			throws InvalidParametersException, IOException
+	{
+		if (bBiases == null)
+			bBiases = BehaviouralBias.parseBiases(biasFile.getPath(), profiles);
+		Map<Profile, List<BehaviouralBias>> result = new HashMap<Profile, List<BehaviouralBias>>();
+		for (int i = 0; i < profiles.size(); i++) {
+			Profile p = profiles.get(i);
+			Profile copy = copies.get(i);
+			if (!bBiases.containsKey(p))
+				continue;
+			List<BehaviouralBias> biases = new ArrayList<BehaviouralBias>();
+			for (BehaviouralBias b : bBiases.get(p))
+				biases.add(new BehaviouralBias(copy, copy.getEffortLevel(effortId(p, b.getEffort())), b.getFeatures()));
+			result.put(copy, biases);
+		}
+		return result;
+	}
+
+	/**
+	 * Get the perceptual biases, for profiles copied with copyProfiles()
+	 *
+	 * @param copies
+	 * @return a map from each copied profile to its biases
+	 * @throws InvalidParametersException
+	 * @throws IOException
+	 */
+	public synchronized Map<Profile, List<PerceptualBias>> getPerceptualBiases(List<Profile> copies)
+			throws InvalidParametersException, IOException
+	{
+		if (pBiases == null)
+			pBiases = PerceptualBias.parseBiases(biasFile.getPath(), profiles);
+		Map<Profile, List<PerceptualBias>> result = new HashMap<Profile, List<PerceptualBias>>();
+		for (int i = 0; i < profiles.size(); i++) {
+			Profile p = profiles.get(i);
+			Profile copy = copies.get(i);
+			if (!pBiases.containsKey(p))
+				continue;
+			List<PerceptualBias> biases = new ArrayList<PerceptualBias>();
+			for (PerceptualBias b : pBiases.get(p))
+				biases.add(new PerceptualBias(copy, b.getThreshold(), b.getFeatures()));
+			result.put(copy, biases);
+		}
+		return result;
+	}
+
+	private static String effortId(Profile p, EffortLevel e)
+	{
+		for (Entry<String, EffortLevel> el : p.getEfforts().entrySet())
+			if (el.getValue() == e)
+				return el.getKey();
+		return null;
+	}
+
+	/**
+	 * The noise features and agent feature vectors for one population seed.
+	 * Vectors are generated when first asked for, and are read-only.
+	 */
+	public class Features
+	{
+		private final String key;
+		private final long seed;
+		private final int maxMissingFeatures;
+		private final double missingFeatureProb;
+		private final Map<String, Double> noiseFeatures;
+		private final List<Map<String, Integer>> trusteeFeatures;
+		private final List<Map<String, Integer>> trustorFeatures;
+
+		private Features(String key, long seed, int noiseFeatureCount, int maxMissingFeatures,
+				double missingFeatureProb)
+		{
+			this.key = key;
+			this.seed = seed;
+			this.maxMissingFeatures = maxMissingFeatures;
+			this.missingFeatureProb = missingFeatureProb;
+
+			noiseFeatures = new HashMap<String, Double>();
+			Random noiseRandom = new Random(seed);
+			for (int i = 0; i < noiseFeatureCount; i++)
+				// Generate a new noise feature label and probability
+				noiseFeatures.put("nf" + i, noiseRandom.nextDouble());
+
+			int trustees = 0, trustors = 0;
+			for (Profile p : profiles) {
+				trustees += p.getTrusteeCount();
+				trustors += p.getTrustorCount();
+			}
+			trusteeFeatures = new ArrayList<Map<String, Integer>>(Collections.<Map<String, Integer>> nCopies(
+					trustees, null));
+			trustorFeatures = new ArrayList<Map<String, Integer>>(Collections.<Map<String, Integer>> nCopies(
+					trustors, null));
+		}
+
+		/**
+		 * @return the noise feature probabilities (not to be changed)
+		 */
+		public Map<String, Double> getNoiseFeatures()
+		{
+			return noiseFeatures;
+		}
+
+		/**
+		 * Get the feature vector of a trustee, generated from the seed and its
+		 * index (the order they are listed in by profile)
+		 *
+		 * @param index
+		 * @return a read-only feature vector
+		 */
+		public synchronized Map<String, Integer> getTrusteeFeatures(int index)
+		{
+			Map<String, Integer> fv = trusteeFeatures.get(index);
+			if (fv == null) {
+				fv = generate(profileOf(index, false), VirtualPopulation.seedFor(seed, index));
+				trusteeFeatures.set(index, fv);
+			}
+			return fv;
+		}
+
+		/**
+		 * Get the feature vector of a trustor, generated from the seed and its
+		 * index
+		 *
+		 * @param index
+		 * @return a read-only feature vector
+		 */
+		public synchronized Map<String, Integer> getTrustorFeatures(int index)
+		{
+			Map<String, Integer> fv = trustorFeatures.get(index);
+			if (fv == null) {
+				fv = generate(profileOf(index, true), VirtualPopulation.seedFor(~seed, index));
+				trustorFeatures.set(index, fv);
+			}
+			return fv;
+		}
+
+		private Map<String, Integer> generate(Profile p, long agentSeed)
+		{
+			return Collections.unmodifiableMap(createFeatureVector(p, noiseFeatures, maxMissingFeatures,
+					missingFeatureProb, new Random(agentSeed)));
+		}
+	}
+
+	/**
+	 * Get the feature vectors for a seed and feature parameters. The last ones
+	 * asked for are kept, so conditions run with the same seed share them.
+	 *
+	 * @param seed
+	 *            population seed
+	 * @param noiseFeatureCount
+	 * @param maxMissingFeatures
+	 * @param missingFeatureProb
+	 */
+	public synchronized Features getFeatures(long seed, int noiseFeatureCount, int maxMissingFeatures,
+			double missingFeatureProb)
+	{
+		String key = seed + "/" + noiseFeatureCount + "/" + maxMissingFeatures + "/" + missingFeatureProb;
+		if (features == null || !features.key.equals(key))
+			features = new Features(key, seed, noiseFeatureCount, maxMissingFeatures, missingFeatureProb);
+		return features;
+	}
+
+	private Profile profileOf(int index, boolean trustor)
+	{
+		for (Profile p : profiles) {
+			int count = trustor ? p.getTrustorCount() : p.getTrusteeCount();
+			if (index < count)
+				return p;
+			index -= count;
+		}
+		throw new IndexOutOfBoundsException();
+	}
+
+	/**
+	 * Returns a set of features for a given profile, incorporating the both the
+	 * feature probabilities of the profile and those of the experiment as a
+	 * whole.
+	 *
+	 * Note - noise features are all labelled 'nf#'; don't use this prefix for
+	 * user-specified profile features!
+	 *
+	 * @param profile
+	 * @param noiseFeatures
+	 *            noise feature probabilities
+	 * @param maxMissingFeatures
+	 * @param missingFeatureProb
+	 * @param random
+	 *            source of the feature draws
+	 * @return a complete feature vector for an agent of this profile.
+	 */
+	public static Map<String, Integer> createFeatureVector(Profile profile, Map<String, Double> noiseFeatures,
+			int maxMissingFeatures, double missingFeatureProb, Random random)
+	{
+		Map<String, Integer> featureVector = new HashMap<String, Integer>();
+
+		// Add the noise features to those to be assigned (without changing the
+		// profile, which may be shared)
+		Map<String, Double> features = new HashMap<String, Double>(profile.getFeatures());
+		features.putAll(noiseFeatures);
+
+		// Assign diagnostic features
+		for (Entry<String, Double> f : features.entrySet()) {
+			int present = 0;
+			// For each feature specified by the profile, roll the dice...
+			// If it's greater than the probability value given in the profile,
+			// assign
+			if (random.nextDouble() <= f.getValue())
+				present = 1;
+			featureVector.put(f.getKey(), present);
+		}
+
+		// for feature hiding purposes - we are creating this array so that we
+		// can 'efficiently' chose a random feature to hide, even though a map
+		// is not random access
+		String[] featureKeys = features.keySet().toArray(new String[0]);
+
+		// remove features according to experimental parameters
+		for (int k = 0; k < maxMissingFeatures; k++)
+			// if probabilistically determined
+			if (random.nextDouble() < missingFeatureProb)
+				featureVector.put(featureKeys[random.nextInt(featureKeys.length)], null);
+
+		return featureVector;
+	}
+
+}
@@ -0,0 +1,152 @@
+package uk.ac.abdn.csd.stereos.util;
+
+import java.util.Random;
+
+import org.apache.commons.math.random.RandomData;
+import org.apache.commons.math.random.RandomDataImpl;
+
+/**
+ * Named random number streams, all derived from one run seed. Giving every
+ * condition in a run the same streams (common random numbers) means that they
+ * see the same population, teams, interaction draws and trustee performances,
+ * so the differences between them are down to the condition rather than luck.
+ *
+ * Each stream is used for one thing only, so that a condition drawing more
+ * from one stream (e.g. a trustee being delegated to more often) doesn't
+ * shift the others. Streams can be split, so that each agent gets a set of
+ * its own (for its trust model etc.) that other agents can't disturb.
+ *
+ * Seeds are derived with splitmix64 steps, so nearby seeds and indices still
+ * give unrelated streams.
+ *
+ * @author Chris Burnett
+ *
+ */
+public class RandomStreams
+{
+
+	/**
+	 * Noise features and feature vectors
+	 */
+	public static final String POPULATION = "population";
+	/**
+	 * Team formation and churn
+	 */
+	public static final String TEAMS = "teams";
+	/**
+	 * Whether trustors interact, agent replacement and special conditions
+	 */
+	public static final String INTERACTION = "interaction";
+	/**
+	 * Trustee performance (one stream per trustee)
+	 */
+	public static final String PERFORMANCE = "performance";
+	/**
+	 * Which unbuilt trustee stands for the rest in a global market, with a
+	 * virtual population
+	 */
+	public static final String NEWCOMERS = "newcomers";
+
+	private final long seed;
+
+	public RandomStreams(long seed)
+	{
+		this.seed = seed;
+	}
+
+	/**
+	 * Seed of a named stream, derived from a run seed
+	 *
+	 * @param seed
+	 *            run seed
+	 * @param name
+	 * @return the stream's seed
+	 */
+	public static long seedOf(long seed, String name)
+	{
+		// String.hashCode is fixed by the language spec, so this is the same
+		// from one JVM to the next
+		return VirtualPopulation.seedFor(seed, name.hashCode());
+	}
+
+	public long seedOf(String name)
+	{
+		return seedOf(seed, name);
+	}
+
+	/**
+	 * Split off an independent set of streams, e.g. for one agent
+	 *
+	 * @param name
+	 *            name of the new set (such as an agent id)
+	 * @return streams derived from this set's seed and the name
+	 */
+	public RandomStreams split(String name)
+	{
+		return new RandomStreams(seedOf(name));
+	}
+
+	/**
+	 * @param name
+	 * @return a new generator for the named stream, starting from the
+	 *         beginning
+	 */
+	public Random get(String name)
+	{
+		return new Random(seedOf(name));
+	}
+
+	/**
+	 * @param name
+	 * @param index
+	 *            number of the entity the stream is for
+	 * @return a new generator for one entity's copy of the named stream
+	 */
+	public Random get(String name, int index)
+	{
+		return new Random(seedOf(name, index));
+	}
+
+	/**
+	 * @param name
+	 * @param index
+	 *            number of the entity the stream is for
+	 * @return the seed of one entity's copy of the named stream
+	 */
+	public long seedOf(String name, int index)
+	{
+		return VirtualPopulation.seedFor(seedOf(name), index);
+	}
+
+	/**
+	 * @param name
+	 * @param index
+	 *            number of the entity the stream is for
+	 * @return a new draw source (for distributions other than uniform) for
+	 *         one entity's copy of the named stream
+	 */
+	public RandomData data(String name, int index)
+	{
+		RandomDataImpl draws = new RandomDataImpl();
+		draws.reSeed(seedOf(name, index));
+		return draws;
+	}
+
+	/**
+	 * Get the performance stream of a trustee
+	 *
+	 * @param agentNumber
+	 *            number of the trustee (from its id)
+	 * @return a new performance draw source for the trustee
+	 */
+	public RandomData performance(int agentNumber)
+	{
+		return data(PERFORMANCE, agentNumber);
+	}
+
+	public long getSeed()
+	{
+		return seed;
+	}
+
+}
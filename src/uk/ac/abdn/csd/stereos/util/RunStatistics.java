@@ -0,0 +1,234 @@
+package uk.ac.abdn.csd.stereos.util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.math.MathException;
+import org.apache.commons.math.distribution.TDistributionImpl;
+
+import uk.ac.abdn.csd.stereos.Experiment;
+import uk.ac.abdn.csd.stereos.agents.Agent;
+
+/**
+ * Keeps summary metrics of each condition across runs, so that a batch can
+ * stop once the estimates have settled rather than always doing a fixed number
+ * of runs.
+ *
+ * After each run, every condition contributes one value of each metric (the
+ * trustors' average utility, their models' final error, and their average
+ * interaction outcome). A batch is precise enough once, for every condition
+ * and metric, the confidence interval half-width is within the target
+ * fraction of the mean. Metrics that can be close to zero (like utility) can
+ * be given an absolute target instead.
+ *
+ * @author Chris Burnett
+ *
+ */
+public class RunStatistics
+{
+
+	public static final String[] METRICS = { "utility", "rmse", "outcome" };
+
+	/**
+	 * Running mean and variance of one metric (Welford's method)
+	 */
+	private static class Summary
+	{
+		int n;
+		double mean;
+		double m2;
+
+		void add(double x)
+		{
+			n++;
+			double d = x - mean;
+			mean += d / n;
+			m2 += d * (x - mean);
+		}
+
+		double sd()
+		{
+			return n > 1 ? Math.sqrt(m2 / (n - 1)) : 0;
+		}
+	}
+
+	private final double level;
+	private final double target;
+	// absolute half-width targets, where given (NaN otherwise)
+	private final double[] absoluteTargets;
+	private final int minRuns;
+	// condition -> metric summaries
+	private final Map<Integer, Summary[]> summaries = new TreeMap<Integer, Summary[]>();
+	private int runs;
+
+	/**
+	 * @param level
+	 *            confidence level, e.g. 0.95
+	 * @param target
+	 *            largest acceptable half-width, as a fraction of the mean
+	 * @param minRuns
+	 *            runs to do before stopping is considered (at least 2)
+	 */
+	public RunStatistics(double level, double target, int minRuns)
+	{
+		this.level = level;
+		this.target = target;
+		this.minRuns = Math.max(2, minRuns);
+		this.absoluteTargets = new double[METRICS.length];
+		for (int m = 0; m < METRICS.length; m++)
+			absoluteTargets[m] = Double.NaN;
+	}
+
+	/**
+	 * Use an absolute half-width target for a metric, rather than a fraction
+	 * of its mean
+	 *
+	 * @param metric
+	 *            one of METRICS
+	 * @param halfWidth
+	 */
+	public void setAbsoluteTarget(String metric, double halfWidth)
+	{
+		for (int m = 0; m < METRICS.length; m++)
+			if (METRICS[m].equals(metric))
+				absoluteTargets[m] = halfWidth;
+	}
+
+	/**
+	 * Add the results of a run
+	 *
+	 * @param experiments
+	 *            the run's experiments, one per condition (null for any that
+	 *            failed)
+	 */
+	public void addRun(Experiment[] experiments)
+	{
+		for (Experiment e : experiments) {
+			if (e == null)
+				continue;
+			Summary[] s = summaries.get(e.getCondition());
+			if (s == null) {
+				s = new Summary[METRICS.length];
+				for (int m = 0; m < s.length; m++)
+					s[m] = new Summary();
+				summaries.put(e.getCondition(), s);
+			}
+			double[] values = measure(e);
+			for (int m = 0; m < values.length; m++)
+				s[m].add(values[m]);
+		}
+		runs++;
+	}
+
+	/**
+	 * Work out the summary metrics of a finished experiment
+	 */
+	private static double[] measure(Experiment e)
+	{
+		double utility = 0, rmse = 0, outcome = 0;
+		int rmseCount = 0, outcomeCount = 0;
+		List<Agent> trustors = e.getTrustors();
+		for (Agent t : trustors) {
+			// average utility per step, as TrustorUtilityReporter reports it
+			// (from the running totals, as the history may not be kept)
+			utility += t.getMeanUtility();
+
+			// error of the model after its last experience, as in
+			// GlobalRMSEReporter
+			int experiences = t.getTrustModel().getExperienceBase().size();
+			if (experiences > 1) {
+				rmse += t.getTrustModel().confidenceQuery(experiences - 1);
+				rmseCount++;
+			}
+
+			if (t.getResultCount() > 0) {
+				outcome += t.getLastAvgResult();
+				outcomeCount++;
+			}
+		}
+		return new double[] { trustors.isEmpty() ? 0 : utility / trustors.size(),
+				rmseCount > 0 ? rmse / rmseCount : 0, outcomeCount > 0 ? outcome / outcomeCount : 0 };
+	}
+
+	/**
+	 * @return the confidence interval half-width of a summary
+	 */
+	private double halfWidth(Summary s)
+	{
+		if (s.n < 2)
+			return Double.POSITIVE_INFINITY;
+		try {
+			double t = new TDistributionImpl(s.n - 1).inverseCumulativeProbability(1 - (1 - level) / 2);
+			return t * s.sd() / Math.sqrt(s.n);
+		} catch (MathException e) {
+			System.err.println("RunStatistics: Math Exception while computing confidence interval");
+			e.printStackTrace();
+			return Double.POSITIVE_INFINITY;
+		}
+	}
+
+	/**
+	 * @return true if a metric's estimate is within its target
+	 */
+	private boolean isSettled(Summary s, int m)
+	{
+		double h = halfWidth(s);
+		if (!Double.isNaN(absoluteTargets[m]))
+			return h <= absoluteTargets[m];
+		// a zero mean is only settled if there's no spread at all
+		return h == 0 || h <= target * Math.abs(s.mean);
+	}
+
+	/**
+	 * @return the number of condition and metric estimates not yet within
+	 *         their targets
+	 */
+	public int getUnsettledCount()
+	{
+		int count = 0;
+		for (Summary[] s : summaries.values())
+			for (int m = 0; m < s.length; m++)
+				if (!isSettled(s[m], m))
+					count++;
+		return count;
+	}
+
+	/**
+	 * @return true if enough runs have been done for every estimate to be
+	 *         within its target
+	 */
+	public boolean isPrecise()
+	{
+		return runs >= minRuns && getUnsettledCount() == 0;
+	}
+
+	public int getRuns()
+	{
+		return runs;
+	}
+
+	/**
+	 * Write the mean and confidence interval of each metric, per condition
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void writeSummary(File file) throws IOException
+	{
+		PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+		out.append("condition,metric,runs,mean,halfwidth\n");
+		for (Map.Entry<Integer, Summary[]> e : summaries.entrySet())
+			for (int m = 0; m < METRICS.length; m++) {
+				Summary s = e.getValue()[m];
+				out.append(e.getKey() + "," + METRICS[m] + "," + s.n + "," + s.mean + "," + halfWidth(s) + "\n");
+			}
+		out.close();
+	}
+
+}
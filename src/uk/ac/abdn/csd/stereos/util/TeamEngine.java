@@ -0,0 +1,607 @@
+package uk.ac.abdn.csd.stereos.util;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import uk.ac.abdn.csd.stereos.agents.Agent;
+
+/**
+ * Forms ad-hoc teams using flat arrays rather than lists of lists.
+ *
+ * Each team keeps its members in an array, trustees first and then the
+ * trustors who joined it. Teams are formed by shuffling an int permutation of
+ * the trustees (repeated once per allowed concurrent membership) and cutting it
+ * into consecutive runs, so re-forming is linear in the number of memberships.
+ * The trustee memberships left over are kept as a pool of free places.
+ *
+ * Teams hold agent indices rather than agents. Each formation gives the
+ * trustees the indices of their positions in the trustee list, and the
+ * trustors the ones after that, and their team memberships are kept in
+ * per-agent arrays at those indices. Trustees are only looked up (with get()
+ * on the trustee list) when something first reads them out of a team, so
+ * with a virtual population the ones that aren't in any team don't get
+ * built. Teams are handed out as read-only live views over the team arrays,
+ * so nothing is copied.
+ *
+ * Instead of re-forming everything at once, teams can also churn: each team
+ * then has its own lifetime, and a timing wheel holds the teams by the step
+ * they expire on. Only expiring teams are dissolved - their trustees go back
+ * to the pool and the team is refilled from it, while their trustors each
+ * join another team at random - so the rest of the teams stay as they are.
+ *
+ * @author Chris Burnett
+ *
+ */
+public class TeamEngine
+{
+
+	private final Random random;
+	private final int teamCount;
+	private final int teamSize;
+	private final int membership;
+
+	// team contents, as agent indices. team t is members[t][0 ... length[t]],
+	// of which the first trusteesIn[t] are trustees
+	private int[][] members;
+	private int[] length;
+	private int[] trusteesIn;
+	// shuffled permutation of trustee indices, reused between formations
+	private int[] perm;
+	// free trustee places, as agent indices (one entry per free membership)
+	private int[] free;
+	private int freeCount;
+
+	// agent indices, fixed until the next formation (replacements inherit
+	// the index of the agent they replace). agents[i] is null for trustees
+	// that haven't been looked up in the trustee list yet
+	private Map<Agent, Integer> index;
+	private Agent[] agents;
+	private int agentCount;
+	private List<Agent> trustees;
+	private int unresolved;
+	// for agent i, the teams it is in are memberTeams[i*membership ...] and
+	// there are memberCount[i] of them
+	private int[] memberTeams;
+	private int[] memberCount;
+	// whether the agent joined its teams as a trustor
+	private boolean[] memberIsTrustor;
+
+	// agents placed in at least one team, rebuilt when teams change
+	private List<Agent> assigned;
+	private boolean assignedChanged;
+	private List<List<Agent>> teamViews;
+
+	// churn: wheel[s] holds the teams expiring on steps equal to s modulo
+	// the wheel size
+	private int[][] wheel;
+	private int[] wheelCount;
+	private int lifeTime;
+	private int now;
+
+	/**
+	 * @param random
+	 *            random number source for shuffling and placing trustors
+	 * @param teamCount
+	 * @param teamSize
+	 *            number of trustees per team (the last team may be short)
+	 * @param membership
+	 *            number of teams an agent can be in at once
+	 */
+	public TeamEngine(Random random, int teamCount, int teamSize, int membership)
+	{
+		this.random = random;
+		this.teamCount = teamCount;
+		this.teamSize = teamSize;
+		this.membership = membership;
+		index = new HashMap<Agent, Integer>();
+		agents = new Agent[0];
+		memberTeams = new int[0];
+		memberCount = new int[0];
+		memberIsTrustor = new boolean[0];
+		perm = new int[0];
+		free = new int[0];
+		members = new int[teamCount][];
+		length = new int[teamCount];
+		trusteesIn = new int[teamCount];
+		teamViews = new ArrayList<List<Agent>>(teamCount);
+		for (int t = 0; t < teamCount; t++) {
+			members[t] = new int[teamSize];
+			teamViews.add(new Team(t));
+		}
+		assigned = new ArrayList<Agent>();
+	}
+
+	/**
+	 * Form new teams. Trustees are dealt out to the teams at random, then
+	 * each trustor joins the given number of randomly chosen teams.
+	 *
+	 * Trustees are dealt out by their positions in the list, and only looked
+	 * up when they are read out of a team - so the list mustn't change, other
+	 * than through replace(), until the next formation (see resolveAll()).
+	 *
+	 * @param trustees
+	 * @param trustors
+	 */
+	public void form(List<Agent> trustees, List<Agent> trustors)
+	{
+		int n = trustees.size();
+		int m = trustors.size();
+		// everyone starts out in no teams, with new indices
+		this.trustees = trustees;
+		index.clear();
+		agentCount = 0;
+		grow(n + m);
+		for (int i = 0; i < n; i++)
+			allocate(null, false);
+		unresolved = n;
+		int[] trustorIdx = new int[m];
+		for (int i = 0; i < m; i++)
+			trustorIdx[i] = allocate(trustors.get(i), true);
+		for (int t = 0; t < teamCount; t++) {
+			length[t] = 0;
+			trusteesIn[t] = 0;
+		}
+
+		// shuffled permutation of trustee memberships
+		int total = n * membership;
+		if (perm.length < total)
+			perm = new int[total];
+		for (int k = 0, p = 0; k < membership; k++)
+			for (int i = 0; i < n; i++)
+				perm[p++] = i;
+		for (int i = total - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int tmp = perm[i];
+			perm[i] = perm[j];
+			perm[j] = tmp;
+		}
+
+		// deal the trustees out, and keep what's left over as free places
+		// (a trustee's index is its position)
+		int p = 0;
+		for (int t = 0; t < teamCount; t++)
+			for (int j = 0; j < teamSize && p < total; j++)
+				add(t, perm[p++]);
+		// (room for all of them, as dissolved teams hand theirs back)
+		if (free.length < total)
+			free = new int[total];
+		freeCount = 0;
+		while (p < total)
+			free[freeCount++] = perm[p++];
+
+		// then the trustors
+		for (int i = 0; i < trustorIdx.length; i++)
+			for (int k = 0; k < membership; k++)
+				add(random.nextInt(teamCount), trustorIdx[i]);
+
+		assignedChanged = true;
+		// a fresh set of teams starts the churn over
+		if (wheel != null)
+			startChurn(lifeTime);
+	}
+
+	/**
+	 * Make room for the given number of agents in the per-agent arrays
+	 */
+	private void grow(int count)
+	{
+		if (memberCount.length < count) {
+			int size = Math.max(16, Math.max(count, memberCount.length * 2));
+			memberCount = copyOf(memberCount, size);
+			boolean[] t = new boolean[size];
+			System.arraycopy(memberIsTrustor, 0, t, 0, memberIsTrustor.length);
+			memberIsTrustor = t;
+			memberTeams = copyOf(memberTeams, size * membership);
+			agents = new Agent[size];
+		}
+	}
+
+	/**
+	 * Give an agent (or a trustee to be looked up later, if null) the next
+	 * index, in no teams
+	 */
+	private int allocate(Agent a, boolean isTrustor)
+	{
+		int next = agentCount++;
+		agents[next] = a;
+		if (a != null)
+			index.put(a, next);
+		memberIsTrustor[next] = isTrustor;
+		memberCount[next] = 0;
+		return next;
+	}
+
+	/**
+	 * The agent with the given index, looking it up in the trustee list if
+	 * that hasn't been done yet. Only called from the experiment's thread -
+	 * getAssignedAgents() looks up every member, so the team views handed to
+	 * competition workers never need to.
+	 */
+	private Agent agent(int i)
+	{
+		Agent a = agents[i];
+		if (a == null) {
+			a = trustees.get(i);
+			agents[i] = a;
+			index.put(a, i);
+			unresolved--;
+		}
+		return a;
+	}
+
+	/**
+	 * The index of an agent, or null if it isn't one of ours. Trustees that
+	 * were built without going through a team are found by their position.
+	 */
+	private Integer indexOf(Agent a)
+	{
+		Integer i = index.get(a);
+		if (i == null && unresolved > 0) {
+			int p = trustees.indexOf(a);
+			if (p >= 0 && p < agentCount && agents[p] == null) {
+				agent(p);
+				i = p;
+			}
+		}
+		return i;
+	}
+
+	/**
+	 * Look up every trustee that hasn't been yet. This has to be done before
+	 * the trustee list changes shape (e.g. an agent is taken out of it), as
+	 * their positions won't match their indices any more.
+	 */
+	public void resolveAll()
+	{
+		for (int i = 0; unresolved > 0 && i < agentCount; i++)
+			agent(i);
+	}
+
+	private static int[] copyOf(int[] a, int size)
+	{
+		int[] b = new int[size];
+		System.arraycopy(a, 0, b, 0, a.length);
+		return b;
+	}
+
+	/**
+	 * Put agent a at the end of team t. Trustees must be added to a team
+	 * before any trustors are.
+	 */
+	private void add(int t, int a)
+	{
+		if (length[t] == members[t].length) {
+			int[] grown = new int[Math.max(4, length[t] * 2)];
+			System.arraycopy(members[t], 0, grown, 0, length[t]);
+			members[t] = grown;
+		}
+		members[t][length[t]++] = a;
+		if (!memberIsTrustor[a])
+			trusteesIn[t]++;
+		memberTeams[a * membership + memberCount[a]++] = t;
+	}
+
+	/**
+	 * Take one of agent a's memberships of team t off its list (the team
+	 * itself is cleared by the caller)
+	 */
+	private void leave(int a, int t)
+	{
+		int row = a * membership;
+		int last = row + memberCount[a] - 1;
+		for (int k = last; k >= row; k--)
+			if (memberTeams[k] == t) {
+				memberTeams[k] = memberTeams[last];
+				memberCount[a]--;
+				return;
+			}
+	}
+
+	/**
+	 * Start churning teams individually, rather than re-forming them all at
+	 * once. Each team is given a lifetime drawn uniformly from 1 to
+	 * 2*lifeTime+1 steps, so on average teams last as long as they would
+	 * between global re-formations, but expire at different times.
+	 *
+	 * @param lifeTime
+	 *            the team lifetime of the experiment
+	 */
+	public void startChurn(int lifeTime)
+	{
+		this.lifeTime = lifeTime;
+		now = 0;
+		wheel = new int[2 * lifeTime + 2][];
+		wheelCount = new int[wheel.length];
+		for (int s = 0; s < wheel.length; s++)
+			wheel[s] = new int[4];
+		for (int t = 0; t < teamCount; t++)
+			schedule(t);
+	}
+
+	/**
+	 * Put team t in the wheel at the end of a new lifetime
+	 */
+	private void schedule(int t)
+	{
+		int s = (now + 1 + random.nextInt(2 * lifeTime + 1)) % wheel.length;
+		if (wheelCount[s] == wheel[s].length) {
+			int[] grown = new int[wheel[s].length * 2];
+			System.arraycopy(wheel[s], 0, grown, 0, wheelCount[s]);
+			wheel[s] = grown;
+		}
+		wheel[s][wheelCount[s]++] = t;
+	}
+
+	/**
+	 * Advance the churn by one step, dissolving and refilling the teams whose
+	 * lifetime has run out.
+	 *
+	 * @return the number of teams dissolved
+	 */
+	public int tick()
+	{
+		now++;
+		int s = now % wheel.length;
+		int expiring = wheelCount[s];
+		int[] teams = new int[expiring];
+		System.arraycopy(wheel[s], 0, teams, 0, expiring);
+		wheelCount[s] = 0;
+		for (int t : teams) {
+			dissolve(t);
+			schedule(t);
+		}
+		return expiring;
+	}
+
+	/**
+	 * Break up team t. Its trustees give up their places, and new trustees
+	 * are drawn from the free places to fill it. Its trustors each pick a new
+	 * team at random (which may be this one again).
+	 */
+	private void dissolve(int t)
+	{
+		int count = length[t];
+		int[] displaced = new int[count - trusteesIn[t]];
+		int d = 0;
+		for (int j = 0; j < count; j++) {
+			int a = members[t][j];
+			leave(a, t);
+			if (memberIsTrustor[a])
+				displaced[d++] = a;
+			else
+				free[freeCount++] = a;
+		}
+		length[t] = 0;
+		trusteesIn[t] = 0;
+
+		// refill with trustees drawn from the free places
+		for (int j = 0; j < teamSize && freeCount > 0; j++) {
+			int f = random.nextInt(freeCount);
+			int a = free[f];
+			free[f] = free[--freeCount];
+			add(t, a);
+		}
+		for (int a : displaced)
+			add(random.nextInt(teamCount), a);
+		assignedChanged = true;
+	}
+
+	/**
+	 * Put a new agent into the place of an old one, in every team the old one
+	 * was in.
+	 *
+	 * @param oldAgent
+	 * @param newAgent
+	 */
+	public void replace(Agent oldAgent, Agent newAgent)
+	{
+		Integer i = indexOf(oldAgent);
+		if (i == null)
+			return;
+		index.remove(oldAgent);
+		index.put(newAgent, i);
+		agents[i] = newAgent;
+		// (the teams hold the index, so only the assigned list needs changing)
+		if (memberCount[i] > 0 && !assignedChanged)
+			assigned.set(assigned.indexOf(oldAgent), newAgent);
+	}
+
+	/**
+	 * Is this agent in any team at the moment?
+	 */
+	public boolean isAssigned(Agent a)
+	{
+		Integer i = indexOf(a);
+		return i != null && memberCount[i] > 0;
+	}
+
+	/**
+	 * The team an agent belongs to. For trustees, this is the last team they
+	 * were placed in; for trustors, it is all the teams they joined, one after
+	 * the other.
+	 *
+	 * @param a
+	 * @return a view of the team, or null if the agent isn't in one
+	 */
+	public List<Agent> getTeamOf(Agent a)
+	{
+		Integer i = indexOf(a);
+		if (i == null || memberCount[i] == 0)
+			return null;
+		int count = memberCount[i];
+		if (!memberIsTrustor[i] || count == 1)
+			return teamViews.get(memberTeams[i * membership + count - 1]);
+		int[] teams = new int[count];
+		System.arraycopy(memberTeams, i * membership, teams, 0, count);
+		return new Joined(teams);
+	}
+
+	/**
+	 * The trustees of the team (or teams) an agent belongs to, as returned by
+	 * getTeamOf, without copying them out of the teams.
+	 *
+	 * @param a
+	 * @return a view of the trustees, empty if the agent isn't in a team
+	 */
+	public CandidateView getTrusteesOf(Agent a)
+	{
+		Integer i = indexOf(a);
+		if (i == null || memberCount[i] == 0)
+			return CandidateView.empty();
+		int count = memberCount[i];
+		int first = (!memberIsTrustor[i] || count == 1) ? count - 1 : 0;
+		int n = count - first;
+		List<List<Agent>> bases = new ArrayList<List<Agent>>(n);
+		int[] from = new int[n];
+		int[] to = new int[n];
+		for (int k = 0; k < n; k++) {
+			int t = memberTeams[i * membership + first + k];
+			bases.add(teamViews.get(t));
+			to[k] = trusteesIn[t];
+		}
+		return new CandidateView(bases, from, to);
+	}
+
+	/**
+	 * The trustees of one team
+	 *
+	 * @param t
+	 *            team number
+	 * @return a view of the trustees
+	 */
+	public CandidateView getTrustees(int t)
+	{
+		List<List<Agent>> bases = new ArrayList<List<Agent>>(1);
+		bases.add(teamViews.get(t));
+		return new CandidateView(bases, new int[] { 0 }, new int[] { trusteesIn[t] });
+	}
+
+	/**
+	 * The number of the team an agent belongs to - for agents in several
+	 * teams, the last one they were placed in.
+	 *
+	 * @param a
+	 * @return the team number, or -1 if the agent isn't in a team
+	 */
+	public int getTeamNumberOf(Agent a)
+	{
+		Integer i = indexOf(a);
+		if (i == null || memberCount[i] == 0)
+			return -1;
+		return memberTeams[i * membership + memberCount[i] - 1];
+	}
+
+	public int getTeamCount()
+	{
+		return teamCount;
+	}
+
+	/**
+	 * @return live views of the teams
+	 */
+	public List<List<Agent>> getTeams()
+	{
+		return teamViews;
+	}
+
+	/**
+	 * @return the agents in at least one team, in team order
+	 */
+	public List<Agent> getAssignedAgents()
+	{
+		if (assignedChanged) {
+			assigned = new ArrayList<Agent>();
+			boolean[] seen = new boolean[agentCount];
+			for (int t = 0; t < teamCount; t++)
+				for (int j = 0; j < length[t]; j++) {
+					int a = members[t][j];
+					if (!seen[a]) {
+						seen[a] = true;
+						assigned.add(agent(a));
+					}
+				}
+			assignedChanged = false;
+		}
+		return assigned;
+	}
+
+	/**
+	 * Build a map of agents to their teams, as used for recording state.
+	 *
+	 * @return
+	 */
+	public Map<Agent, List<Agent>> getAssignments()
+	{
+		Map<Agent, List<Agent>> assignments = new HashMap<Agent, List<Agent>>();
+		for (Agent a : getAssignedAgents())
+			assignments.put(a, getTeamOf(a));
+		return assignments;
+	}
+
+	/**
+	 * A read-only view of one team
+	 */
+	private class Team extends AbstractList<Agent>
+	{
+		private final int t;
+
+		Team(int t)
+		{
+			this.t = t;
+		}
+
+		@Override
+		public Agent get(int i)
+		{
+			if (i < 0 || i >= length[t])
+				throw new IndexOutOfBoundsException();
+			return agent(members[t][i]);
+		}
+
+		@Override
+		public int size()
+		{
+			return length[t];
+		}
+	}
+
+	/**
+	 * A read-only view of several teams one after the other
+	 */
+	private class Joined extends AbstractList<Agent>
+	{
+		private final int[] teams;
+
+		Joined(int[] teams)
+		{
+			this.teams = teams;
+		}
+
+		@Override
+		public Agent get(int i)
+		{
+			if (i < 0)
+				throw new IndexOutOfBoundsException();
+			for (int t : teams) {
+				if (i < length[t])
+					return agent(members[t][i]);
+				i -= length[t];
+			}
+			throw new IndexOutOfBoundsException();
+		}
+
+		@Override
+		public int size()
+		{
+			int s = 0;
+			for (int t : teams)
+				s += length[t];
+			return s;
+		}
+	}
+
+}
@@ -0,0 +1,318 @@
+package uk.ac.abdn.csd.stereos.util;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import uk.ac.abdn.csd.stereos.agents.Agent;
+
+/**
+ * A list of trustees that only exist once something looks at them. Each
+ * position holds a virtual agent index, and the agent itself is built from
+ * (seed, index) the first time it is accessed, so it comes out the same
+ * whenever that happens - features, profile and performance draws all depend
+ * only on the seed and its index, not on which agents were built before it.
+ *
+ * Agents can still be added and removed as in an ArrayList. Removing an agent
+ * only has to look through the agents that have been built, as the rest can't
+ * be the one being removed. Anything that goes through the whole list builds
+ * every agent - recording the history does, as does the global opinions report.
+ * For global conditions, the agents that have been delegated to can be had
+ * without building the rest, and one that hasn't picked at random (see
+ * Experiment.globalMarket).
+ *
+ * Agents may be built by several competition workers at once, so the slots
+ * are an AtomicReferenceArray - a worker that finds an agent already there
+ * sees it fully built. Adding and removing agents is not thread safe, as with
+ * an ArrayList.
+ *
+ * @author Chris Burnett
+ *
+ */
+public class VirtualPopulation extends AbstractList<Agent> implements RandomAccess
+{
+
+	/**
+	 * Builds the agent with the given index
+	 */
+	public interface Factory
+	{
+		/**
+		 * @param index
+		 *            virtual index of the agent
+		 * @param seed
+		 *            seed for everything random about the agent
+		 */
+		public Agent create(int index, long seed);
+
+		/**
+		 * @param index
+		 *            virtual index of the agent
+		 * @return the asking price the agent starts with, without building it
+		 */
+		public double getDefaultAskingPrice(int index);
+	}
+
+	private final Factory factory;
+	private final long seed;
+
+	// agent at each position, or null if not built yet
+	private AtomicReferenceArray<Agent> slots;
+	// virtual index of each position
+	private int[] indices;
+	private int size;
+	private int materialised;
+	// positions that have been built, in the order they were
+	private int[] built;
+	// total starting asking price of the agents not built yet
+	private double unbuiltAskingPrice;
+
+	/**
+	 * @param factory
+	 * @param seed
+	 *            population seed
+	 * @param size
+	 *            number of virtual agents, with indices 0 to size-1
+	 */
+	public VirtualPopulation(Factory factory, long seed, int size)
+	{
+		this.factory = factory;
+		this.seed = seed;
+		this.size = size;
+		this.slots = new AtomicReferenceArray<Agent>(Math.max(size, 1));
+		this.indices = new int[slots.length()];
+		for (int i = 0; i < size; i++) {
+			indices[i] = i;
+			unbuiltAskingPrice += factory.getDefaultAskingPrice(i);
+		}
+		this.built = new int[16];
+	}
+
+	/**
+	 * Seed for the agent with the given index (a splitmix64 step, so that
+	 * neighbouring indices get unrelated seeds)
+	 */
+	public static long seedFor(long seed, int index)
+	{
+		long z = seed + (index + 1) * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	@Override
+	public Agent get(int i)
+	{
+		if (i < 0 || i >= size)
+			throw new IndexOutOfBoundsException();
+		Agent a = slots.get(i);
+		return a != null ? a : materialise(i);
+	}
+
+	/**
+	 * Build the agent at a position. Synchronized, as competition workers may
+	 * get here at the same time.
+	 */
+	private synchronized Agent materialise(int i)
+	{
+		Agent a = slots.get(i);
+		if (a == null) {
+			a = factory.create(indices[i], seedFor(seed, indices[i]));
+			slots.set(i, a);
+			addBuilt(i);
+			unbuiltAskingPrice -= factory.getDefaultAskingPrice(indices[i]);
+		}
+		return a;
+	}
+
+	private void addBuilt(int i)
+	{
+		if (materialised == built.length) {
+			int[] grown = new int[built.length * 2];
+			System.arraycopy(built, 0, grown, 0, materialised);
+			built = grown;
+		}
+		built[materialised++] = i;
+	}
+
+	/**
+	 * Start the list of built positions again, after agents have moved
+	 */
+	private void rebuildBuilt()
+	{
+		materialised = 0;
+		for (int i = 0; i < size; i++)
+			if (slots.get(i) != null)
+				addBuilt(i);
+	}
+
+	/**
+	 * @return a copy of the agents built so far that have been delegated to,
+	 *         in the order they were built (agents added later come at the
+	 *         end)
+	 */
+	public synchronized List<Agent> getTried()
+	{
+		List<Agent> agents = new ArrayList<Agent>(materialised);
+		for (int k = 0; k < materialised; k++) {
+			Agent a = slots.get(built[k]);
+			if (!a.isTrusteeNewbie())
+				agents.add(a);
+		}
+		return agents;
+	}
+
+	/**
+	 * Pick an agent no-one has delegated to yet, uniformly at random, building
+	 * it if it hasn't been
+	 *
+	 * @param random
+	 * @return the agent, or null if every agent has been delegated to
+	 */
+	public synchronized Agent pickUntried(Random random)
+	{
+		if (getUntriedCount() == 0)
+			return null;
+		// usually most are untried, so keep trying
+		while (true) {
+			int i = random.nextInt(size);
+			Agent a = slots.get(i);
+			if (a == null)
+				return materialise(i);
+			if (a.isTrusteeNewbie())
+				return a;
+		}
+	}
+
+	/**
+	 * @return the number of agents no-one has delegated to yet, built or not
+	 */
+	public synchronized int getUntriedCount()
+	{
+		int untried = size - materialised;
+		for (int k = 0; k < materialised; k++)
+			if (slots.get(built[k]).isTrusteeNewbie())
+				untried++;
+		return untried;
+	}
+
+	/**
+	 * @return the total asking price of the agents no-one has delegated to
+	 *         yet (the ones not built yet asking their starting prices)
+	 */
+	public synchronized double getUntriedAskingPrice()
+	{
+		double total = unbuiltAskingPrice;
+		for (int k = 0; k < materialised; k++) {
+			Agent a = slots.get(built[k]);
+			if (a.isTrusteeNewbie())
+				total += a.getAskingPrice();
+		}
+		return total;
+	}
+
+	@Override
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * @return the number of agents that have been built
+	 */
+	public int getMaterialisedCount()
+	{
+		return materialised;
+	}
+
+	@Override
+	public Agent set(int i, Agent a)
+	{
+		Agent old = get(i);
+		slots.set(i, a);
+		return old;
+	}
+
+	@Override
+	public void add(int i, Agent a)
+	{
+		if (i < 0 || i > size)
+			throw new IndexOutOfBoundsException();
+		if (size == slots.length()) {
+			AtomicReferenceArray<Agent> s = new AtomicReferenceArray<Agent>(slots.length() * 2);
+			int[] x = new int[s.length()];
+			for (int j = 0; j < size; j++)
+				s.set(j, slots.get(j));
+			System.arraycopy(indices, 0, x, 0, size);
+			slots = s;
+			indices = x;
+		}
+		for (int j = size; j > i; j--)
+			slots.set(j, slots.get(j - 1));
+		System.arraycopy(indices, i, indices, i + 1, size - i);
+		slots.set(i, a);
+		// added agents are already built, so never need an index
+		indices[i] = -1;
+		size++;
+		if (i == size - 1)
+			addBuilt(i);
+		else
+			rebuildBuilt();
+		modCount++;
+	}
+
+	@Override
+	public Agent remove(int i)
+	{
+		Agent old = get(i);
+		for (int j = i; j < size - 1; j++)
+			slots.set(j, slots.get(j + 1));
+		System.arraycopy(indices, i + 1, indices, i, size - i - 1);
+		size--;
+		slots.set(size, null);
+		rebuildBuilt();
+		modCount++;
+		return old;
+	}
+
+	@Override
+	public int indexOf(Object o)
+	{
+		// agents not built yet can't be equal to anything we're given
+		if (o != null)
+			for (int i = 0; i < size; i++)
+				if (o.equals(slots.get(i)))
+					return i;
+		return -1;
+	}
+
+	@Override
+	public int lastIndexOf(Object o)
+	{
+		if (o != null)
+			for (int i = size - 1; i >= 0; i--)
+				if (o.equals(slots.get(i)))
+					return i;
+		return -1;
+	}
+
+	@Override
+	public boolean contains(Object o)
+	{
+		return indexOf(o) >= 0;
+	}
+
+	@Override
+	public boolean remove(Object o)
+	{
+		int i = indexOf(o);
+		if (i < 0)
+			return false;
+		remove(i);
+		return true;
+	}
+
+}
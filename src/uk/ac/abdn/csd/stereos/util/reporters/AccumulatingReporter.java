@@ -0,0 +1,56 @@
+package uk.ac.abdn.csd.stereos.util.reporters;
+
+import java.io.IOException;
+
+import uk.ac.abdn.csd.stereos.Experiment;
+import uk.ac.abdn.csd.stereos.agents.Agent;
+
+/**
+ * A reporter that gathers what it needs from a scan of the experiments'
+ * trustors, which a ReportPipeline can share between several reporters, and
+ * then writes its file from that alone.
+ *
+ * @author Chris Burnett
+ *
+ */
+public abstract class AccumulatingReporter implements Reporter
+{
+
+	/**
+	 * Called before the scan
+	 *
+	 * @param e
+	 *            the experiments that will be scanned
+	 */
+	protected abstract void begin(Experiment[] e);
+
+	/**
+	 * Called for each trustor of each experiment, in order. Other reporters
+	 * see the same trustor straight after, so anything done to it here is
+	 * done before they look at it.
+	 *
+	 * @param experiment
+	 *            index of the experiment
+	 * @param index
+	 *            index of the trustor in the experiment's trustors
+	 * @param trustor
+	 */
+	protected abstract void addTrustor(int experiment, int index, Agent trustor);
+
+	/**
+	 * Write the report from what was gathered. May be called alongside
+	 * other reporters' writes, so should only use its own results.
+	 *
+	 * @param e
+	 * @throws IOException
+	 */
+	protected abstract void write(Experiment[] e) throws IOException;
+
+	public void writeReport(Experiment[] e) throws IOException
+	{
+		ReportPipeline pipeline = new ReportPipeline(1);
+		pipeline.add(this);
+		pipeline.run(e);
+	}
+
+}
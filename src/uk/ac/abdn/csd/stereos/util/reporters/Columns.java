@@ -0,0 +1,83 @@
+package uk.ac.abdn.csd.stereos.util.reporters;
+
+import java.io.PrintWriter;
+
+/**
+ * Helpers for the reporters' result columns, which are kept as arrays of
+ * doubles and filled in a single pass rather than built up and eaten from the
+ * front of lists.
+ *
+ * @author Chris Burnett
+ *
+ */
+final class Columns
+{
+
+	private Columns()
+	{
+	}
+
+	/**
+	 * Write the columns side by side, one line per row, each starting with
+	 * the row number. Stops at the end of the shortest column.
+	 *
+	 * @param out
+	 * @param columns
+	 * @param first
+	 *            number of the first row
+	 */
+	static void write(PrintWriter out, double[][] columns, int first)
+	{
+		int rows = Integer.MAX_VALUE;
+		for (double[] column : columns)
+			rows = Math.min(rows, column.length);
+		for (int i = 0; i < rows; i++) {
+			out.append((first + i) + ",");
+			for (double[] column : columns)
+				out.append(column[i] + ",");
+			out.append("\n");
+		}
+	}
+
+	/**
+	 * Average the trustors' series point by point. Point i of a trustor's
+	 * series counts for as long as the trustor has a point after it, and row
+	 * i-1 of the result is the average of those counting at i, in trustor
+	 * order - so the column runs until the longest series has run out.
+	 * Point 0 of each series is never used.
+	 *
+	 * @param series
+	 *            a series for each trustor
+	 * @return the column
+	 */
+	static double[] averageRemaining(double[][] series)
+	{
+		int longest = 0;
+		for (double[] s : series)
+			longest = Math.max(longest, s.length);
+		double[] column = new double[Math.max(0, longest - 1)];
+
+		// the trustors still going, in order
+		int[] remaining = new int[series.length];
+		int left = series.length;
+		for (int t = 0; t < left; t++)
+			remaining[t] = t;
+
+		for (int i = 1; i < longest; i++) {
+			double sum = 0;
+			int count = 0, kept = 0;
+			for (int r = 0; r < left; r++) {
+				double[] s = series[remaining[r]];
+				if (i < s.length) {
+					sum += s[i];
+					count++;
+					remaining[kept++] = remaining[r];
+				}
+			}
+			left = kept;
+			column[i - 1] = sum / count;
+		}
+		return column;
+	}
+
+}
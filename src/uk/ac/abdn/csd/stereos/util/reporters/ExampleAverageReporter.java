@@ -5,7 +5,6 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
@@ -16,7 +15,7 @@ import uk.ac.abdn.csd.stereos.agents.Experience;
 import uk.ac.abdn.csd.stereos.agents.Agent;
 import uk.ac.abdn.csd.stereos.agents.Profile;
 
-public class ExampleAverageReporter implements Reporter
+public class ExampleAverageReporter extends AccumulatingReporter
 {
 
 	/**
@@ -29,15 +28,49 @@ public class ExampleAverageReporter implements Reporter
 	// directory to write to
 	private File dir;
 
+	// the example trustor of each experiment, and its running averages
+	private int[] examples;
+	private double[][] dataColumns;
+
 	public ExampleAverageReporter(File expsDir)
 	{
 		dir = expsDir;
 		random = new Random();
 	}
 
-	public void writeReport(Experiment[] e) throws IOException
+	@Override
+	protected void begin(Experiment[] e)
+	{
+		examples = new int[e.length];
+		dataColumns = new double[e.length][];
+		// pick a random agent from each
+		for (int j = 0; j < e.length; j++)
+			examples[j] = random.nextInt(e[j].getTrustors().size());
+	}
+
+	@Override
+	protected void addTrustor(int experiment, int index, Agent trustor)
+	{
+		if (index != examples[experiment])
+			return;
+		// get and sort its EB
+		List<Experience> eb = trustor.getTrustModel().getExperienceBase();
+		Collections.sort(eb);
+
+		double[] thisColumn = new double[eb.size()];
+		double sum = 0;
+		for (int i = 0; i < thisColumn.length; i++) {
+			// use the subjective evaluation component as metric
+			sum += eb.get(i).getEvaluation();
+			// running average
+			thisColumn[i] = sum / (i + 1);
+		}
+		dataColumns[experiment] = thisColumn;
+	}
+
+	@Override
+	protected void write(Experiment[] e) throws IOException
 	{
-		System.out.print("Writing example agent average results...");
 		// write the results to a file
 		String profile = e[0].getProfileName();
 		PrintWriter out = new PrintWriter(
@@ -47,54 +80,10 @@ public class ExampleAverageReporter implements Reporter
 
 		// print the header line
 		out.append("time,");
-
-		// create out colums for data to go in, one for each experiment
-		List<List<Double>> dataColumns = new ArrayList<List<Double>>(e.length);
-
-		// for each experiment, create a column
-		for (Experiment exp : e) {
-			List<Agent> agents = exp.getTrustors();
-			// pick a random agent
-			Agent exampleAgent = agents.get(random.nextInt(agents.size()));
-			// get and sort its EB
-			List<Experience> eb = exampleAgent.getTrustModel().getExperienceBase();
-			Collections.sort(eb);
-
+		for (Experiment exp : e)
 			out.append("condition" + exp.getCondition() + ",");
-			// create the column
-			List<Double> thisColumn = new ArrayList<Double>();
-			double i = 1;
-			// double poss = 0;
-			// double negs = 0;
-			double sum = 0;
-			for (Experience experience : eb) {
-				// use the subjective evaluation component as metric
-				sum += experience.getEvaluation();
-				// calculate average
-				double avg = sum / i++;
-				// double ratio = poss/total;
-
-				// add to the data column
-				thisColumn.add(avg);
-			}
-
-			// attach the column to the total list
-			dataColumns.add(thisColumn);
-		}
 		out.append("\n");
-		int i = 0;
-		while (dataRemaining(dataColumns)) {
-			// write the interaction step
-			out.append(i + ",");
-			// put the columns together
-			for (List<Double> dataColumn : dataColumns) {
-				out.append(dataColumn.get(0) + ",");
-				// munch off this item
-				dataColumn.remove(0);
-			}
-			i++;
-			out.append("\n");
-		}
+		Columns.write(out, dataColumns, 0);
 		out.close();
 	}
 
@@ -123,27 +112,14 @@ public class ExampleAverageReporter implements Reporter
 			for (Entry<String, Double> feature : profile.getFeatures().entrySet()) {
 				output.append(feature.getKey() + ":" + feature.getValue() + " ");
 			}
+			// every profile has the noise features too
+			for (Entry<String, Double> feature : e.getNoiseFeatures().entrySet()) {
+				output.append(feature.getKey() + ":" + feature.getValue() + " ");
+			}
 			output.append("\n");
 		}
-		System.out.print("...completed.\n");
 		output.append("\n");
 		return output.toString();
 	}
 
-	/**
-	 * Return false if any of the data columns are empty
-	 * 
-	 * @param data
-	 * @return
-	 */
-	private boolean dataRemaining(List<List<Double>> data)
-	{
-		boolean dataRemaining = true;
-		for (List<Double> column : data) {
-			if (column.isEmpty())
-				dataRemaining = false;
-		}
-		return dataRemaining;
-	}
-
 }
@@ -5,12 +5,11 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Random;
 
 import uk.ac.abdn.csd.stereos.Experiment;
 import uk.ac.abdn.csd.stereos.agents.Agent;
+import uk.ac.abdn.csd.stereos.trust.TrustModel;
 
 /**
  * This reporter class reports the average RMSE error of the agents'
@@ -20,7 +19,7 @@ import uk.ac.abdn.csd.stereos.agents.Agent;
  * 
  */
 
-public class ExampleRMSEReporter implements Reporter
+public class ExampleRMSEReporter extends AccumulatingReporter
 {
 
 	/**
@@ -31,14 +30,39 @@ public class ExampleRMSEReporter implements Reporter
 	// directory to write to
 	private File dir;
 
+	// the example trustor of each experiment, and its errors
+	private int[] examples;
+	private double[][] dataColumns;
+
 	public ExampleRMSEReporter(File expsDir)
 	{
 		dir = expsDir;
 	}
 
-	public void writeReport(Experiment[] e) throws IOException
+	@Override
+	protected void begin(Experiment[] e)
+	{
+		examples = new int[e.length];
+		dataColumns = new double[e.length][];
+		for (int j = 0; j < e.length; j++)
+			examples[j] = new Random().nextInt(e[j].getTrustors().size());
+	}
+
+	@Override
+	protected void addTrustor(int experiment, int index, Agent trustor)
+	{
+		if (index != examples[experiment])
+			return;
+		TrustModel tm = trustor.getTrustModel();
+		double[] thisColumn = new double[tm.getExperienceBase().size()];
+		for (int i = 0; i < thisColumn.length; i++)
+			thisColumn[i] = tm.confidenceQuery(i);
+		dataColumns[experiment] = thisColumn;
+	}
+
+	@Override
+	protected void write(Experiment[] e) throws IOException
 	{
-		System.out.print("Writing example agent error results...");
 		// write the results to a file
 		String profile = e[0].getProfileName();
 		PrintWriter out = new PrintWriter(
@@ -48,53 +72,11 @@ public class ExampleRMSEReporter implements Reporter
 
 		// print the header line
 		out.append("time,");
-
-		// create out colums for data to go in, one for each experiment
-		List<List<Double>> dataColumns = new ArrayList<List<Double>>(e.length);
-
-		// for each experiment, create a column
-		// WITHIN THIS LOOP GOES THE CODE TO GENERATE THE RESULTS FOR EACH
-		// EXPERIMENT
-		// counter to ensure columns match up
-		int k = 0;
-		for (int j = 0; j < e.length; j++) {
-			// create the header and datacolumn
-			out.append("condition" + e[j].getCondition() + ",");
-			// create the column
-			List<Double> thisColumn = new ArrayList<Double>();
-
-			List<Agent> trustors = e[j].getTrustors();
-			// For each agent in the experiment,
-			// if the agent has an RMSE, add it, count it
-
-			Agent example = trustors.get(new Random().nextInt(trustors.size()));
-
-			for (int i = 0; i < example.getTrustModel().getExperienceBase().size(); i++) {
-				thisColumn.add(example.getTrustModel().confidenceQuery(i));
-			}
-			// now this experiment is complete, add the datacolumn to the parent
-			// set
-			dataColumns.add(k++, thisColumn);
-
-		}
-
+		for (Experiment exp : e)
+			out.append("condition" + exp.getCondition() + ",");
 		out.append("\n");
-		int i = 0;
-
-		while (dataRemaining(dataColumns)) {
-			// write the interaction step
-			out.append(i + ",");
-			// put the columns together
-			for (List<Double> dataColumn : dataColumns) {
-				out.append(dataColumn.remove(0) + ",");
-				// munch off this item
-				// dataColumn.remove(0);
-			}
-			i++;
-			out.append("\n");
-		}
+		Columns.write(out, dataColumns, 0);
 		out.close();
-		System.out.print("...completed.\n");
 	}
 
 	// private String getDescriptionString(Experiment e) {
@@ -129,20 +111,4 @@ public class ExampleRMSEReporter implements Reporter
 	// return output.toString();
 	// }
 
-	/**
-	 * Return false if any of the data columns are empty
-	 * 
-	 * @param data
-	 * @return
-	 */
-	private boolean dataRemaining(List<List<Double>> data)
-	{
-		boolean dataRemaining = true;
-		for (List<Double> column : data) {
-			if (column.isEmpty())
-				dataRemaining = false;
-		}
-		return dataRemaining;
-	}
-
 }
@@ -5,9 +5,8 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 import uk.ac.abdn.csd.stereos.Experiment;
 import uk.ac.abdn.csd.stereos.agents.Agent;
@@ -20,7 +19,7 @@ import uk.ac.abdn.csd.stereos.trust.sl.Opinion;
  * @author Chris Burnett
  * 
  */
-public class GlobalOpinionsReporter implements Reporter
+public class GlobalOpinionsReporter extends AccumulatingReporter
 {
 
 	/**
@@ -31,88 +30,80 @@ public class GlobalOpinionsReporter implements Reporter
 	// directory to write to
 	private File dir;
 
+	// each experiment's opinion matrix (trustees by trustors), or null if it
+	// isn't reported
+	private Opinion[][][] matrices;
+	private List<List<Agent>> agents;
+
 	public GlobalOpinionsReporter(File expsDir)
 	{
 		dir = expsDir;
 	}
 
-	public void writeReport(Experiment[] e) throws IOException
+	@Override
+	protected void begin(Experiment[] e)
 	{
-		System.out.print("Writing final opinion spaces...");
-		String profile = e[0].getProfileName();
-
-		// loop through experiments writing a new file for each
-		for (Experiment exp : e) {
-			if (!(exp.getCondition() == Experiment.NT)) {
-				// a structure mapping agents to an integer matrix index
-				Map<Agent, Integer> agentIndices = new HashMap<Agent, Integer>();
-				Map<Agent, Integer> trustorIndices = new HashMap<Agent, Integer>();
-
-				List<Agent> trustors = exp.getTrustors();
-
-				List<Agent> agents = exp.getAgents();
-				int agentCount = exp.getAgentCount();
-				int trustorCount = exp.getTrustorCount();
-
-				String[] trusteeProfileMap = new String[agentCount];
-				String[] trustorProfileMap = new String[trustorCount];
-				int i = 0;
-				int j = 0;
-				// setup the agent index map. Agents can now be mapped to an
-				// integer array index.
-				for (Agent a : agents) {
-					agentIndices.put(a, i);
-					trusteeProfileMap[i] = a.getProfile().toString();
-					i++;
-				}
-				// same for trustor coordinates
-				for (Agent t : trustors) {
-					trustorIndices.put(t, j);
-					trustorProfileMap[j] = t.getProfile().toString();
-					j++;
-				}
-
-				// create a file for this condition's results
-				PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(new File(dir, profile + "-" + "c"
-						+ exp.getCondition() + "-" + id + ".csv"))));
-
-				// create a new matrix
-				Opinion[][] opinionMatrix = new Opinion[agents.size()][trustors.size()];
+		matrices = new Opinion[e.length][][];
+		agents = new ArrayList<List<Agent>>(e.length);
+		for (int j = 0; j < e.length; j++) {
+			agents.add(e[j].getAgents());
+			if (!(e[j].getCondition() == Experiment.NT))
+				matrices[j] = new Opinion[e[j].getAgents().size()][e[j].getTrustors().size()];
+		}
+	}
 
-				// for each trustor in the experiment
-				for (Agent a : trustors) {
-					// and for each possible partner...
-					for (Agent b : agents) {
-						// get the opinion, if there is one
-						Opinion op = a.getTrustModel().opinionQuery(b);
-						// put the opinion in the appropriate cell
-						if (op == null)
-							op = new Opinion(0.0, 0.0);
-						opinionMatrix[agentIndices.get(b)][trustorIndices.get(a)] = op;
-					}
-				}
-				// now, write the matrix to a text file.
-				// commas will separate cells, newlines lines
-				int k = 0;
+	@Override
+	protected void addTrustor(int experiment, int index, Agent trustor)
+	{
+		Opinion[][] opinionMatrix = matrices[experiment];
+		if (opinionMatrix == null)
+			return;
+		// for each possible partner...
+		int k = 0;
+		for (Agent b : agents.get(experiment)) {
+			// get the opinion, if there is one
+			Opinion op = trustor.getTrustModel().opinionQuery(b);
+			// put the opinion in the appropriate cell
+			if (op == null)
+				op = new Opinion(0.0, 0.0);
+			opinionMatrix[k++][index] = op;
+		}
+	}
 
-				for (Opinion[] row : opinionMatrix) {
-					// get the agent this row corresponds to and append its
-					// profile as well
-					// so we can see if profiles are behaving properly in the
-					// viewer
-					for (Opinion op : row)
-						out.append(op.toStringWithBaseRate() + ",");
-					out.append(trusteeProfileMap[k++]);
-					out.append("\n");
-				}
+	@Override
+	protected void write(Experiment[] e) throws IOException
+	{
+		String profile = e[0].getProfileName();
 
-				for (String s : trustorProfileMap)
-					out.append(s + ",");
+		// loop through experiments writing a new file for each
+		for (int j = 0; j < e.length; j++) {
+			Opinion[][] opinionMatrix = matrices[j];
+			if (opinionMatrix == null)
+				continue;
+			Experiment exp = e[j];
+
+			// create a file for this condition's results
+			PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(new File(dir, profile + "-" + "c"
+					+ exp.getCondition() + "-" + id + ".csv"))));
+
+			// now, write the matrix to a text file.
+			// commas will separate cells, newlines lines
+			int k = 0;
+			for (Opinion[] row : opinionMatrix) {
+				// append the profile of the agent this row corresponds to as
+				// well, so we can see if profiles are behaving properly in
+				// the viewer
+				for (Opinion op : row)
+					out.append(op.toStringWithBaseRate() + ",");
+				out.append(agents.get(j).get(k++).getProfile().toString());
 				out.append("\n");
-
-				out.close();
 			}
+
+			for (Agent t : exp.getTrustors())
+				out.append(t.getProfile().toString() + ",");
+			out.append("\n");
+
+			out.close();
 		}
-		System.out.print("...completed.\n");
 	}
 }
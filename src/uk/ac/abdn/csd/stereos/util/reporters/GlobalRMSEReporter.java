@@ -5,11 +5,10 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.ArrayList;
-import java.util.List;
 
 import uk.ac.abdn.csd.stereos.Experiment;
 import uk.ac.abdn.csd.stereos.agents.Agent;
+import uk.ac.abdn.csd.stereos.trust.TrustModel;
 
 /**
  * This reporter class reports the average RMSE error of the agents'
@@ -19,7 +18,7 @@ import uk.ac.abdn.csd.stereos.agents.Agent;
  * 
  */
 
-public class GlobalRMSEReporter implements Reporter
+public class GlobalRMSEReporter extends AccumulatingReporter
 {
 
 	/**
@@ -30,14 +29,35 @@ public class GlobalRMSEReporter implements Reporter
 	// directory to write to
 	private File dir;
 
+	// each trustor's error after each interaction, by experiment
+	private double[][][] errors;
+
 	public GlobalRMSEReporter(File expsDir)
 	{
 		dir = expsDir;
 	}
 
-	public void writeReport(Experiment[] e) throws IOException
+	@Override
+	protected void begin(Experiment[] e)
+	{
+		errors = new double[e.length][][];
+		for (int j = 0; j < e.length; j++)
+			errors[j] = new double[e[j].getTrustors().size()][];
+	}
+
+	@Override
+	protected void addTrustor(int experiment, int index, Agent trustor)
+	{
+		TrustModel tm = trustor.getTrustModel();
+		double[] series = new double[tm.getExperienceBase().size()];
+		for (int i = 1; i < series.length; i++)
+			series[i] = tm.confidenceQuery(i);
+		errors[experiment][index] = series;
+	}
+
+	@Override
+	protected void write(Experiment[] e) throws IOException
 	{
-		System.out.print("Writing global error results...");
 		// write the results to a file
 		String profile = e[0].getProfileName();
 		PrintWriter out = new PrintWriter(
@@ -49,81 +69,18 @@ public class GlobalRMSEReporter implements Reporter
 		out.append("time,");
 
 		// create out colums for data to go in, one for each experiment
-		List<List<Double>> dataColumns = new ArrayList<List<Double>>(e.length);
+		double[][] dataColumns = new double[e.length][];
 
-		// for each experiment, create a column
-		// WITHIN THIS LOOP GOES THE CODE TO GENERATE THE RESULTS FOR EACH
-		// EXPERIMENT
-		// counter to ensure columns match up
-		int k = 0;
 		for (int j = 0; j < e.length; j++) {
 			// create the header and datacolumn
 			out.append("condition" + e[j].getCondition() + ",");
-			// create the column
-			List<Double> thisColumn = new ArrayList<Double>();
-
-			List<Agent> trustors = e[j].getTrustors();
-			List<Agent> trustorsRemaining = new ArrayList<Agent>(trustors);
-			// For each agent in the experiment,
-			// if the agent has an RMSE, add it, count it
-
-			int icount = 1;
-			// while there are some agents with experiences left
-			while (!trustorsRemaining.isEmpty()) {
-				// total experience value and count for this iteration (for
-				// averaging)
-				double sum = 0;
-				double count = 0;
-				// for each *remaining* trustor
-				for (Agent t : trustors) {
-					// only tally trustors who have an active model
-					if (trustorsRemaining.contains(t)) {
-						// if this agent didn't record anything here,
-						// skip/remove it
-						if (t.getTrustModel().getExperienceBase().size() > icount) {
-							sum += t.getTrustModel().confidenceQuery(icount);
-							count++;
-						} else {
-							// else this agent is out of experiences and should
-							// be removed
-							trustorsRemaining.remove(t);
-						}
-					}
-				}
-				if (count > 0) {
-					// calculate the average for this iteration
-					double avg = sum / count;
-					// add it to the datacolumn
-					thisColumn.add(avg);
-					// increment the interaction count
-					icount++;
-				}
-				// if no more agents have experiences, then set the complete
-				// flag
-			}
-			// now this experiment is complete, add the datacolumn to the parent
-			// set
-			dataColumns.add(k++, thisColumn);
-
+			// averaged over the trustors who still have experiences
+			dataColumns[j] = Columns.averageRemaining(errors[j]);
 		}
 
 		out.append("\n");
-		int i = 0;
-
-		while (dataRemaining(dataColumns)) {
-			// write the interaction step
-			out.append(i + ",");
-			// put the columns together
-			for (List<Double> dataColumn : dataColumns) {
-				out.append(dataColumn.remove(0) + ",");
-				// munch off this item
-				// dataColumn.remove(0);
-			}
-			i++;
-			out.append("\n");
-		}
+		Columns.write(out, dataColumns, 0);
 		out.close();
-		System.out.print("...completed.\n");
 	}
 
 	// private String getDescriptionString(Experiment e) {
@@ -158,20 +115,4 @@ public class GlobalRMSEReporter implements Reporter
 	// return output.toString();
 	// }
 
-	/**
-	 * Return false if any of the data columns are empty
-	 * 
-	 * @param data
-	 * @return
-	 */
-	private boolean dataRemaining(List<List<Double>> data)
-	{
-		boolean dataRemaining = true;
-		for (List<Double> column : data) {
-			if (column.isEmpty())
-				dataRemaining = false;
-		}
-		return dataRemaining;
-	}
-
 }
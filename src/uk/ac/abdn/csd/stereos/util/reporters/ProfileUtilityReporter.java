@@ -66,52 +66,42 @@ public class ProfileUtilityReporter implements Reporter
 
 		List<Profile> profiles = e[j].getAgentProfiles();
 		// create out colums for data to go in, one for each experiment
-		List<List<Double>> profileAverages = new ArrayList<List<Double>>(profiles.size());
+		int steps = Math.max(0, e[j].getTimeSteps() - 1);
+		double[][] profileAverages = new double[profiles.size()][steps];
 
 		for (int k = 0; k < profiles.size(); k++) {
 			// initialise each column
 			out.append(profiles.get(k).getId() + ",");
-			profileAverages.add(new ArrayList<Double>());
 		}
 		out.append("\n");
 
+		// the agents of each profile, looked up once rather than every step
+		List<Agent> agents = e[j].getAgents();
+		List<List<List<Double>>> histories = new ArrayList<List<List<Double>>>(profiles.size());
+		for (Profile p : profiles) {
+			List<List<Double>> ph = new ArrayList<List<Double>>();
+			for (Agent a : agents)
+				if (a.getProfile().equals(p))
+					ph.add(a.getUtilityHistory());
+			histories.add(ph);
+		}
+
 		// for each time step...
-		for (int i = 0; i < e[j].getTimeSteps() - 1; i++) {
+		for (int i = 0; i < steps; i++) {
 			// come up with an average of each profile
 			for (int l = 0; l < profiles.size(); l++) {
-				// for each profile
 				double sum = 0, count = 0;
-				// for each agent of that profile
-				for (Agent a : e[j].getAgents()) {
-					// if the agent is of the current profile
-					if (a.getProfile().equals(profiles.get(l))) {
-						// get the utility of the agent at the current time step
-						sum += a.getUtilityHistory().get(i);
-						count++;
-					}
+				for (List<Double> h : histories.get(l)) {
+					// get the utility of the agent at the current time step
+					sum += h.get(i);
+					count++;
 				}
-				double avg = sum / count;
-				// record the result to the end of the column corresponding to
-				// this profile
-				profileAverages.get(l).add(avg);
+				profileAverages[l][i] = sum / count;
 			}
 		}
 
-		// writeout
-		// start at i=1
-		int i = 1;
-		// while none of the columns are empty
-		while (dataRemaining(profileAverages)) {
-			// write the interaction step
-			out.append(i + ",");
-			// put the columns together
-			for (List<Double> profileColumn : profileAverages) {
-				out.append(profileColumn.remove(0) + ",");
-				// munch off this item
-			}
-			i++;
-			out.append("\n");
-		}
+		// writeout, starting at 1
+		Columns.write(out, profileAverages, 1);
 		out.close();
 		System.out.print("...completed.\n");
 	}
@@ -148,20 +138,4 @@ public class ProfileUtilityReporter implements Reporter
 		return output.toString();
 	}
 
-	/**
-	 * Return false if any of the data columns are empty
-	 * 
-	 * @param data
-	 * @return
-	 */
-	private boolean dataRemaining(List<List<Double>> data)
-	{
-		boolean dataRemaining = true;
-		for (List<Double> column : data) {
-			if (column.isEmpty())
-				dataRemaining = false;
-		}
-		return dataRemaining;
-	}
-
 }
@@ -0,0 +1,147 @@
+package uk.ac.abdn.csd.stereos.util.reporters;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import uk.ac.abdn.csd.stereos.Experiment;
+import uk.ac.abdn.csd.stereos.agents.Agent;
+
+/**
+ * Writes a set of reports for a batch of experiments. The trustors of each
+ * experiment are scanned once, each one being passed to every accumulating
+ * reporter in the order they were added, and then all the files are written
+ * in parallel - so writing the reports takes about as long as the slowest
+ * one. Other reporters just write their reports in parallel with the rest.
+ *
+ * @author Chris Burnett
+ *
+ */
+public class ReportPipeline
+{
+
+	private final List<Reporter> reporters = new ArrayList<Reporter>();
+	private final int threads;
+
+	/**
+	 * @param threads
+	 *            number of files to write at once (1 to write them one after
+	 *            another on the calling thread)
+	 */
+	public ReportPipeline(int threads)
+	{
+		this.threads = Math.max(1, threads);
+	}
+
+	public void add(Reporter reporter)
+	{
+		reporters.add(reporter);
+	}
+
+	/**
+	 * Scan the experiments and write every report
+	 *
+	 * @param e
+	 * @throws IOException
+	 *             the first error writing any of the reports - the others are
+	 *             still written
+	 */
+	public void run(final Experiment[] e) throws IOException
+	{
+		List<AccumulatingReporter> accumulators = new ArrayList<AccumulatingReporter>();
+		for (Reporter r : reporters)
+			if (r instanceof AccumulatingReporter)
+				accumulators.add((AccumulatingReporter) r);
+
+		// the one scan
+		for (AccumulatingReporter a : accumulators)
+			a.begin(e);
+		for (int j = 0; j < e.length; j++) {
+			List<Agent> trustors = e[j].getTrustors();
+			for (int i = 0; i < trustors.size(); i++) {
+				Agent t = trustors.get(i);
+				for (AccumulatingReporter a : accumulators)
+					a.addTrustor(j, i, t);
+			}
+		}
+
+		// then the files
+		List<Callable<Object>> jobs = new ArrayList<Callable<Object>>();
+		for (final Reporter r : reporters)
+			jobs.add(new Callable<Object>() {
+				public Object call() throws IOException
+				{
+					if (r instanceof AccumulatingReporter)
+						((AccumulatingReporter) r).write(e);
+					else
+						r.writeReport(e);
+					return null;
+				}
+			});
+		write(jobs);
+	}
+
+	private void write(List<Callable<Object>> jobs) throws IOException
+	{
+		int poolSize = Math.min(threads, jobs.size());
+		if (poolSize <= 1) {
+			IOException first = null;
+			for (Callable<Object> job : jobs) {
+				try {
+					job.call();
+				} catch (IOException ex) {
+					if (first == null)
+						first = ex;
+				} catch (RuntimeException ex) {
+					throw ex;
+				} catch (Exception ex) {
+					// call() only throws IOExceptions
+				}
+			}
+			if (first != null)
+				throw first;
+			return;
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(poolSize, new ThreadFactory() {
+			public Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, "reports");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		try {
+			IOException first = null;
+			for (Future<Object> f : pool.invokeAll(jobs)) {
+				try {
+					f.get();
+				} catch (ExecutionException ex) {
+					Throwable cause = ex.getCause();
+					if (cause instanceof RuntimeException)
+						throw (RuntimeException) cause;
+					if (cause instanceof Error)
+						throw (Error) cause;
+					if (first == null)
+						first = (IOException) cause;
+				}
+			}
+			if (first != null)
+				throw first;
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			IOException io = new IOException("Interrupted while writing reports");
+			io.initCause(ex);
+			throw io;
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+}
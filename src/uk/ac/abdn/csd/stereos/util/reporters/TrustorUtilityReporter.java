@@ -5,7 +5,6 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map.Entry;
 
@@ -13,7 +12,7 @@ import uk.ac.abdn.csd.stereos.Experiment;
 import uk.ac.abdn.csd.stereos.agents.Agent;
 import uk.ac.abdn.csd.stereos.agents.Profile;
 
-public class TrustorUtilityReporter implements Reporter
+public class TrustorUtilityReporter extends AccumulatingReporter
 {
 
 	/**
@@ -24,14 +23,42 @@ public class TrustorUtilityReporter implements Reporter
 	// directory to write to
 	private File dir;
 
+	// for each experiment, the total of the trustors' average utility at
+	// each step, and how many trustors there are
+	private double[][] sums;
+	private int[] counts;
+
 	public TrustorUtilityReporter(File expsDir)
 	{
 		dir = expsDir;
 	}
 
-	public void writeReport(Experiment[] e) throws IOException
+	@Override
+	protected void begin(Experiment[] e)
+	{
+		sums = new double[e.length][];
+		counts = new int[e.length];
+		for (int j = 0; j < e.length; j++)
+			sums[j] = new double[Math.max(0, e[j].getTimeSteps() - 1)];
+	}
+
+	@Override
+	protected void addTrustor(int experiment, int index, Agent trustor)
+	{
+		double[] column = sums[experiment];
+		List<Double> history = trustor.getUtilityHistory();
+		// running total of utility changes
+		double tsum = 0;
+		for (int i = 1; i <= column.length; i++) {
+			tsum += history.get(i - 1);
+			column[i - 1] += tsum / i;
+		}
+		counts[experiment]++;
+	}
+
+	@Override
+	protected void write(Experiment[] e) throws IOException
 	{
-		System.out.print("Writing trustor average utility results...");
 		// write the results to a file
 		String profile = e[0].getProfileName();
 		PrintWriter out = new PrintWriter(
@@ -43,69 +70,21 @@ public class TrustorUtilityReporter implements Reporter
 		out.append("time,");
 
 		// create out colums for data to go in, one for each experiment
-		List<List<Double>> dataColumns = new ArrayList<List<Double>>(e.length);
+		double[][] dataColumns = new double[e.length][];
 
-		// for each experiment, create a column
-		// WITHIN THIS LOOP GOES THE CODE TO GENERATE THE RESULTS FOR EACH
-		// EXPERIMENT
-		// counter to ensure columns match up
-		int k = 0;
 		for (int j = 0; j < e.length; j++) {
 			// create the header and datacolumn
 			out.append("condition" + e[j].getCondition() + ",");
-			// create the column
-			List<Double> thisColumn = new ArrayList<Double>();
-
-			List<Agent> trustors = e[j].getTrustors();
-
-			for (int i = 1; i < e[j].getTimeSteps(); i++) {
-				// total experience value and count for this iteration (for
-				// averaging)
-				double sum = 0;
-				double count = 0;
-				// for each trustor
-				for (Agent t : trustors) {
-					// utility change (average)
-					double tsum = 0;
-					int tcount;
-					for (tcount = 0; tcount < i; tcount++)
-						tsum += t.getUtilityHistory().get(tcount);
-					double tavg = tsum / tcount;
-
-					sum += tavg;
-					count++;
-				}
-				// calculate the average for this iteration
-				// double avg = sum/count;
-				// add it to the datacolumn
-				thisColumn.add(sum/count);
-
-				// if no more agents have experiences, then set the complete
-				// flag
-				// if(agentsRemaining.isEmpty()) complete = true;
-			}
-			// now this experiment is complete, add the datacolumn to the parent
-			// set
-			dataColumns.add(k++, thisColumn);
+			// average of the trustors' averages
+			double[] thisColumn = new double[sums[j].length];
+			for (int i = 0; i < thisColumn.length; i++)
+				thisColumn[i] = sums[j][i] / counts[j];
+			dataColumns[j] = thisColumn;
 		}
 
 		out.append("\n");
-		int i = 0;
-
-		while (dataRemaining(dataColumns)) {
-			// write the interaction step
-			out.append(i + ",");
-			// put the columns together
-			for (List<Double> dataColumn : dataColumns) {
-				out.append(dataColumn.remove(0) + ",");
-				// munch off this item
-				// dataColumn.remove(0);
-			}
-			i++;
-			out.append("\n");
-		}
+		Columns.write(out, dataColumns, 0);
 		out.close();
-		System.out.print("...completed.\n");
 	}
 
 	@SuppressWarnings("unused")
@@ -134,26 +113,14 @@ public class TrustorUtilityReporter implements Reporter
 			for (Entry<String, Double> feature : profile.getFeatures().entrySet()) {
 				output.append(feature.getKey() + ":" + feature.getValue() + " ");
 			}
+			// every profile has the noise features too
+			for (Entry<String, Double> feature : e.getNoiseFeatures().entrySet()) {
+				output.append(feature.getKey() + ":" + feature.getValue() + " ");
+			}
 			output.append("\n");
 		}
 		output.append("\n");
 		return output.toString();
 	}
 
-	/**
-	 * Return false if any of the data columns are empty
-	 * 
-	 * @param data
-	 * @return
-	 */
-	private boolean dataRemaining(List<List<Double>> data)
-	{
-		boolean dataRemaining = true;
-		for (List<Double> column : data) {
-			if (column.isEmpty())
-				dataRemaining = false;
-		}
-		return dataRemaining;
-	}
-
 }
@@ -0,0 +1,175 @@
+package uk.ac.abdn.csd.stereos.util.viewer;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+
+import uk.ac.abdn.csd.stereos.agents.Agent;
+import uk.ac.abdn.csd.stereos.trust.sl.Opinion;
+
+/**
+ * The recorded states of an experiment, for playback. Rather than a full copy
+ * of the society every step, this keeps every trustor's opinions every
+ * keyframeInterval steps, and in between only the opinions that changed. The
+ * agent lists, teams and assignments are shared with the step before unless
+ * they changed.
+ *
+ * States are put back together when they are asked for, starting from the
+ * last keyframe (or the last state asked for, if that is nearer) - the viewer
+ * steps through them in order, so this is usually just one step's changes.
+ *
+ * @author Chris Burnett
+ *
+ */
+public class History extends AbstractList<State> implements HistoryRecorder, RandomAccess
+{
+
+	/**
+	 * Steps between full copies of the opinions, unless told otherwise
+	 */
+	public static final int DEFAULT_KEYFRAME_INTERVAL = 20;
+
+	/**
+	 * One recorded step
+	 */
+	private static class Frame
+	{
+		List<Agent> agents;
+		List<Agent> trustors;
+		List<List<Agent>> teams;
+		Map<Agent, List<Agent>> assignments;
+		Map<Agent, Agent> interactors;
+		// every trustor's opinions in a keyframe, otherwise only the ones that
+		// changed, with null for any that have gone
+		Map<Agent, Map<Agent, Opinion>> opinions;
+	}
+
+	private final int keyframeInterval;
+	private final List<Frame> frames = new ArrayList<Frame>();
+
+	// what was recorded last, to compare the next step with
+	private final StateDiff diff = new StateDiff();
+
+	// the last two states put back together - the viewer asks for the
+	// current one and the one before
+	private int lastIndex = -1, previousIndex = -1;
+	private State last, previous;
+
+	public History()
+	{
+		this(DEFAULT_KEYFRAME_INTERVAL);
+	}
+
+	/**
+	 * @param keyframeInterval
+	 *            steps between full copies of the opinions
+	 */
+	public History(int keyframeInterval)
+	{
+		this.keyframeInterval = Math.max(1, keyframeInterval);
+	}
+
+	public void record(List<Agent> agents, List<Agent> trustors, List<List<Agent>> teams,
+			Map<Agent, List<Agent>> assignments, Map<Agent, Agent> interactors)
+	{
+		Map<Agent, Map<Agent, Opinion>> changes = diff.update(agents, trustors, teams, assignments);
+
+		Frame f = new Frame();
+		f.agents = diff.agents;
+		f.trustors = diff.trustors;
+		f.teams = diff.teams;
+		f.assignments = diff.assignments;
+		if (interactors.isEmpty())
+			f.interactors = Collections.emptyMap();
+		else
+			f.interactors = new HashMap<Agent, Agent>(interactors);
+
+		if (frames.size() % keyframeInterval == 0) {
+			f.opinions = new HashMap<Agent, Map<Agent, Opinion>>();
+			for (Agent t : trustors)
+				f.opinions.put(t, new HashMap<Agent, Opinion>(diff.opinions.get(t)));
+		} else {
+			f.opinions = changes;
+		}
+		frames.add(f);
+	}
+
+	public void finish()
+	{
+		// everything is in memory already
+	}
+
+	/**
+	 * Put a recorded state back together
+	 */
+	@Override
+	public synchronized State get(int index)
+	{
+		Frame f = frames.get(index);
+		if (index == lastIndex)
+			return last;
+		if (index == previousIndex)
+			return previous;
+
+		// start from the keyframe, or a state since then if we have one
+		int start = index - index % keyframeInterval;
+		State from = null;
+		if (lastIndex >= start && lastIndex < index)
+			from = last;
+		if (previousIndex >= start && previousIndex < index && (from == null || previousIndex > lastIndex))
+			from = previous;
+
+		Map<Agent, Map<Agent, Opinion>> ops;
+		if (from == null) {
+			ops = new HashMap<Agent, Map<Agent, Opinion>>(frames.get(start).opinions);
+		} else {
+			ops = new HashMap<Agent, Map<Agent, Opinion>>(from.getOpinions());
+			start = from.timeStep;
+		}
+
+		// only copy a trustor's opinions the first time they change
+		Set<Agent> copied = new HashSet<Agent>();
+		for (int i = start + 1; i <= index; i++) {
+			for (Map.Entry<Agent, Map<Agent, Opinion>> c : frames.get(i).opinions.entrySet()) {
+				Agent t = c.getKey();
+				Map<Agent, Opinion> tops = ops.get(t);
+				if (copied.add(t))
+					tops = tops == null ? new HashMap<Agent, Opinion>() : new HashMap<Agent, Opinion>(tops);
+				for (Map.Entry<Agent, Opinion> o : c.getValue().entrySet()) {
+					if (o.getValue() == null)
+						tops.remove(o.getKey());
+					else
+						tops.put(o.getKey(), o.getValue());
+				}
+				ops.put(t, tops);
+			}
+		}
+
+		// just the trustors in the society at the time
+		Map<Agent, Map<Agent, Opinion>> opinions = new HashMap<Agent, Map<Agent, Opinion>>();
+		for (Agent t : f.trustors) {
+			Map<Agent, Opinion> tops = ops.get(t);
+			opinions.put(t, tops != null ? tops : new HashMap<Agent, Opinion>());
+		}
+
+		State s = new State(index, f.agents, f.trustors, f.teams, f.assignments, opinions, f.interactors);
+		previousIndex = lastIndex;
+		previous = last;
+		lastIndex = index;
+		last = s;
+		return s;
+	}
+
+	@Override
+	public int size()
+	{
+		return frames.size();
+	}
+
+}
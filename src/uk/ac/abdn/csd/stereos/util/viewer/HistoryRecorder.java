@@ -0,0 +1,37 @@
+package uk.ac.abdn.csd.stereos.util.viewer;
+
+import java.util.List;
+import java.util.Map;
+
+import uk.ac.abdn.csd.stereos.agents.Agent;
+
+/**
+ * A history an experiment records its states into, step by step, which can
+ * then be played back as a list of states.
+ *
+ * @author Chris Burnett
+ *
+ */
+public interface HistoryRecorder extends List<State>
+{
+
+	/**
+	 * Record the state of the society at the end of a step. Takes the same
+	 * arguments as the State constructor.
+	 *
+	 * @param agents
+	 * @param trustors
+	 * @param teams
+	 * @param assignments
+	 * @param interactors
+	 *            who each trustor interacted with this step
+	 */
+	public void record(List<Agent> agents, List<Agent> trustors, List<List<Agent>> teams,
+			Map<Agent, List<Agent>> assignments, Map<Agent, Agent> interactors);
+
+	/**
+	 * Called at the end of the run - nothing more will be recorded
+	 */
+	public void finish();
+
+}
@@ -0,0 +1,555 @@
+package uk.ac.abdn.csd.stereos.util.viewer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+
+import uk.ac.abdn.csd.stereos.agents.Agent;
+import uk.ac.abdn.csd.stereos.agents.Profile;
+import uk.ac.abdn.csd.stereos.decision.trustee.TrusteeDefaultDM;
+import uk.ac.abdn.csd.stereos.decision.trustor.TrustorMostTrustedDM;
+import uk.ac.abdn.csd.stereos.trust.NoTrust;
+import uk.ac.abdn.csd.stereos.trust.sl.Opinion;
+
+/**
+ * A history kept in a file rather than in memory, so recording doesn't limit
+ * how long a run can be, and a run can be played back (or analysed) later
+ * without running it again. The file is a short header followed by
+ * fixed-size records, written and read through memory mappings:
+ *
+ * step (int), trustor (int), trustee (int), b, d, u, a (doubles), kind (byte)
+ *
+ * Agents are numbered in the order they first appear. Every step starts with
+ * a STEP or KEYFRAME record. A keyframe (every keyframeInterval steps)
+ * introduces every agent and lists the teams and every opinion; other steps
+ * only have what changed. Records are in step order, so the start of any step
+ * can be found by binary search, and a state put back together from the
+ * keyframe before it.
+ *
+ * Played back states contain stand-in agents, with the ids, roles and
+ * profiles (mean and variance only) of the originals.
+ *
+ * @author Chris Burnett
+ *
+ */
+public class MappedHistory extends AbstractList<State> implements HistoryRecorder, RandomAccess
+{
+
+	/**
+	 * Record kinds. For each, what the trustor, trustee and b, d, u, a fields
+	 * hold:
+	 */
+	// start of a step that can be played back from
+	public static final byte KEYFRAME = 0;
+	// start of any other step
+	public static final byte STEP = 1;
+	// an agent: role, agent, profile mean, variance, id number, profile
+	public static final byte AGENT = 2;
+	// an agent joining the agents (0) or trustors (1) list: list, agent
+	public static final byte JOIN = 3;
+	// or leaving it
+	public static final byte LEAVE = 4;
+	// the teams are replaced with this many empty ones: count
+	public static final byte TEAMS = 5;
+	// a team member: team, agent
+	public static final byte MEMBER = 6;
+	// an opinion: trustor, trustee, b, d, u, a
+	public static final byte OPINION = 7;
+	// an opinion that has gone: trustor, trustee
+	public static final byte FORGET = 8;
+	// an interaction this step: trustor, trustee, and the trustor's opinion
+	// (NaN if it has none)
+	public static final byte INTERACTION = 9;
+
+	private static final int MAGIC = 0x53544831;
+	private static final int HEADER_SIZE = 32;
+	private static final int RECORD_SIZE = 48;
+	// records mapped at a time
+	private static final int REGION_RECORDS = 1 << 16;
+	private static final long REGION_SIZE = (long) REGION_RECORDS * RECORD_SIZE;
+
+	// field offsets within a record
+	private static final int STEP_AT = 0, TRUSTOR_AT = 4, TRUSTEE_AT = 8, B_AT = 12, D_AT = 20, U_AT = 28,
+			A_AT = 36, KIND_AT = 44;
+
+	private static final int AGENTS = 0, TRUSTORS = 1;
+
+	private final File file;
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	private final MappedByteBuffer header;
+	private final List<MappedByteBuffer> regions = new ArrayList<MappedByteBuffer>();
+
+	private final int keyframeInterval;
+	private int steps;
+	private long records;
+
+	// recording - null once finished
+	private StateDiff diff;
+	private final Map<Agent, Integer> numbers = new IdentityHashMap<Agent, Integer>();
+	private final Map<Agent, Boolean> introduced = new IdentityHashMap<Agent, Boolean>();
+	private final Map<Profile, Integer> profiles = new IdentityHashMap<Profile, Integer>();
+	private int nextNumber;
+
+	// playback
+	private final Map<Integer, Agent> standIns = new HashMap<Integer, Agent>();
+	private final Map<Integer, Profile> profileStandIns = new HashMap<Integer, Profile>();
+	private int lastIndex = -1, previousIndex = -1;
+	private State last, previous;
+
+	/**
+	 * Start recording a new history
+	 *
+	 * @param file
+	 *            the log (replaced if it exists)
+	 * @param keyframeInterval
+	 *            steps between keyframes
+	 * @throws IOException
+	 */
+	public static MappedHistory create(File file, int keyframeInterval) throws IOException
+	{
+		return new MappedHistory(file, Math.max(1, keyframeInterval));
+	}
+
+	/**
+	 * Open a recorded history to play it back
+	 *
+	 * @param file
+	 *            the log
+	 * @throws IOException
+	 *             if it can't be read, or isn't a history log
+	 */
+	public static MappedHistory open(File file) throws IOException
+	{
+		return new MappedHistory(file);
+	}
+
+	private MappedHistory(File file, int keyframeInterval) throws IOException
+	{
+		this.file = file;
+		this.keyframeInterval = keyframeInterval;
+		raf = new RandomAccessFile(file, "rw");
+		raf.setLength(0);
+		channel = raf.getChannel();
+		header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+		header.putInt(0, MAGIC);
+		header.putInt(4, RECORD_SIZE);
+		header.putInt(8, keyframeInterval);
+		diff = new StateDiff();
+		writeCounts();
+	}
+
+	private MappedHistory(File file) throws IOException
+	{
+		this.file = file;
+		raf = new RandomAccessFile(file, "r");
+		channel = raf.getChannel();
+		if (channel.size() < HEADER_SIZE)
+			throw new IOException("Not a history log: " + file);
+		header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+		if (header.getInt(0) != MAGIC || header.getInt(4) != RECORD_SIZE)
+			throw new IOException("Not a history log: " + file);
+		keyframeInterval = header.getInt(8);
+		steps = header.getInt(12);
+		records = header.getLong(16);
+		// map the lot - the mappings outlive the file
+		long end = HEADER_SIZE + records * RECORD_SIZE;
+		for (long at = HEADER_SIZE; at < end; at += REGION_SIZE)
+			regions.add(channel.map(FileChannel.MapMode.READ_ONLY, at, Math.min(REGION_SIZE, end - at)));
+		raf.close();
+		raf = null;
+		channel = null;
+	}
+
+	public synchronized void record(List<Agent> agents, List<Agent> trustors, List<List<Agent>> teams,
+			Map<Agent, List<Agent>> assignments, Map<Agent, Agent> interactors)
+	{
+		if (diff == null)
+			return;
+		try {
+			List<Agent> agentsBefore = diff.agents;
+			List<Agent> trustorsBefore = diff.trustors;
+			List<List<Agent>> teamsBefore = diff.teams;
+			Map<Agent, Map<Agent, Opinion>> changes = diff.update(agents, trustors, teams, assignments);
+
+			int step = steps;
+			boolean keyframe = step % keyframeInterval == 0;
+			if (keyframe) {
+				// everything is introduced again, so playback can start here,
+				// and agents that have gone altogether can lose their numbers
+				introduced.clear();
+				Map<Agent, Boolean> present = identitySet(diff.agents);
+				present.putAll(identitySet(diff.trustors));
+				for (List<Agent> team : diff.teams)
+					present.putAll(identitySet(team));
+				numbers.keySet().retainAll(present.keySet());
+				write(step, KEYFRAME, -1, -1, 0, 0, 0, 0);
+				for (Agent a : diff.agents)
+					write(step, JOIN, AGENTS, number(step, a), 0, 0, 0, 0);
+				for (Agent t : diff.trustors)
+					write(step, JOIN, TRUSTORS, number(step, t), 0, 0, 0, 0);
+			} else {
+				write(step, STEP, -1, -1, 0, 0, 0, 0);
+				if (diff.agents != agentsBefore)
+					writeMoves(step, AGENTS, agentsBefore, diff.agents);
+				if (diff.trustors != trustorsBefore)
+					writeMoves(step, TRUSTORS, trustorsBefore, diff.trustors);
+			}
+
+			if (keyframe || diff.teams != teamsBefore) {
+				write(step, TEAMS, diff.teams.size(), -1, 0, 0, 0, 0);
+				for (int i = 0; i < diff.teams.size(); i++)
+					for (Agent a : diff.teams.get(i))
+						write(step, MEMBER, i, number(step, a), 0, 0, 0, 0);
+			}
+
+			Map<Agent, Map<Agent, Opinion>> opinions = keyframe ? diff.opinions : changes;
+			for (Map.Entry<Agent, Map<Agent, Opinion>> e : opinions.entrySet()) {
+				int t = number(step, e.getKey());
+				for (Map.Entry<Agent, Opinion> o : e.getValue().entrySet()) {
+					Opinion op = o.getValue();
+					if (op == null)
+						write(step, FORGET, t, number(step, o.getKey()), 0, 0, 0, 0);
+					else
+						write(step, OPINION, t, number(step, o.getKey()), op.getBelief(), op.getDisbelief(),
+								op.getUncertainty(), op.getBaseRate());
+				}
+			}
+
+			for (Map.Entry<Agent, Agent> e : interactors.entrySet()) {
+				Map<Agent, Opinion> tops = diff.opinions.get(e.getKey());
+				Opinion op = tops == null ? null : tops.get(e.getValue());
+				if (op == null)
+					write(step, INTERACTION, number(step, e.getKey()), number(step, e.getValue()), Double.NaN,
+							Double.NaN, Double.NaN, Double.NaN);
+				else
+					write(step, INTERACTION, number(step, e.getKey()), number(step, e.getValue()), op.getBelief(),
+							op.getDisbelief(), op.getUncertainty(), op.getBaseRate());
+			}
+
+			steps++;
+			writeCounts();
+		} catch (IOException e) {
+			System.err.println("MappedHistory: Could not write to " + file + ", recording stopped");
+			e.printStackTrace();
+			diff = null;
+		}
+	}
+
+	/**
+	 * Write the joins and leaves between two versions of a list
+	 */
+	private void writeMoves(int step, int list, List<Agent> before, List<Agent> after) throws IOException
+	{
+		Map<Agent, Boolean> was = identitySet(before);
+		Map<Agent, Boolean> is = identitySet(after);
+		for (Agent a : before)
+			if (!is.containsKey(a))
+				write(step, LEAVE, list, number(step, a), 0, 0, 0, 0);
+		for (Agent a : after)
+			if (!was.containsKey(a))
+				write(step, JOIN, list, number(step, a), 0, 0, 0, 0);
+	}
+
+	private static Map<Agent, Boolean> identitySet(List<Agent> agents)
+	{
+		Map<Agent, Boolean> set = new IdentityHashMap<Agent, Boolean>();
+		for (Agent a : agents)
+			set.put(a, Boolean.TRUE);
+		return set;
+	}
+
+	/**
+	 * @return the agent's number, introducing it first if it hasn't been since
+	 *         the last keyframe
+	 */
+	private int number(int step, Agent a) throws IOException
+	{
+		Integer n = numbers.get(a);
+		if (n == null) {
+			n = nextNumber++;
+			numbers.put(a, n);
+		}
+		if (introduced.put(a, Boolean.TRUE) == null) {
+			Profile p = a.getProfile();
+			Integer pn = profiles.get(p);
+			if (pn == null) {
+				pn = profiles.size();
+				profiles.put(p, pn);
+			}
+			write(step, AGENT, a.getRole(), n, p.getDefaultMeanPerformance(), p.getDefaultVariance(),
+					a.getNumber(), pn);
+		}
+		return n;
+	}
+
+	private void write(int step, byte kind, int trustor, int trustee, double b, double d, double u, double a)
+			throws IOException
+	{
+		int r = (int) (records / REGION_RECORDS);
+		if (r == regions.size())
+			regions.add(channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + r * REGION_SIZE, REGION_SIZE));
+		MappedByteBuffer region = regions.get(r);
+		int at = (int) (records % REGION_RECORDS) * RECORD_SIZE;
+		region.putInt(at + STEP_AT, step);
+		region.putInt(at + TRUSTOR_AT, trustor);
+		region.putInt(at + TRUSTEE_AT, trustee);
+		region.putDouble(at + B_AT, b);
+		region.putDouble(at + D_AT, d);
+		region.putDouble(at + U_AT, u);
+		region.putDouble(at + A_AT, a);
+		region.put(at + KIND_AT, kind);
+		records++;
+	}
+
+	private void writeCounts()
+	{
+		// kept up to date, so a log is readable even if the run dies
+		header.putInt(12, steps);
+		header.putLong(16, records);
+	}
+
+	/**
+	 * Flush the log and trim it to the records written. It can still be played
+	 * back.
+	 */
+	public synchronized void finish()
+	{
+		if (diff == null)
+			return;
+		diff = null;
+		numbers.clear();
+		introduced.clear();
+		try {
+			header.force();
+			for (MappedByteBuffer region : regions)
+				region.force();
+			try {
+				channel.truncate(HEADER_SIZE + records * RECORD_SIZE);
+			} catch (IOException e) {
+				// some platforms won't truncate a mapped file - the header
+				// still says where the records end
+			}
+			raf.close();
+		} catch (IOException e) {
+			System.err.println("MappedHistory: Could not finish " + file);
+			e.printStackTrace();
+		}
+		raf = null;
+		channel = null;
+	}
+
+	/**
+	 * @return the log file
+	 */
+	public File getFile()
+	{
+		return file;
+	}
+
+	@Override
+	public synchronized int size()
+	{
+		return steps;
+	}
+
+	/**
+	 * Put a recorded state back together
+	 */
+	@Override
+	public synchronized State get(int index)
+	{
+		if (index < 0 || index >= steps)
+			throw new IndexOutOfBoundsException("Step " + index + " of " + steps);
+		if (index == lastIndex)
+			return last;
+		if (index == previousIndex)
+			return previous;
+
+		// start from the keyframe, or a state since then if we have one
+		int start = index - index % keyframeInterval;
+		State from = null;
+		if (lastIndex >= start && lastIndex < index)
+			from = last;
+		if (previousIndex >= start && previousIndex < index && (from == null || previousIndex > lastIndex))
+			from = previous;
+
+		Playback p = new Playback(from);
+		p.replay(find(from == null ? start : from.timeStep + 1), index);
+		State s = p.toState(index);
+		previousIndex = lastIndex;
+		previous = last;
+		lastIndex = index;
+		last = s;
+		return s;
+	}
+
+	/**
+	 * @return the first record of the given step
+	 */
+	private long find(int step)
+	{
+		long lo = 0, hi = records;
+		while (lo < hi) {
+			long mid = (lo + hi) >>> 1;
+			if (stepAt(mid) < step)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	private MappedByteBuffer region(long i)
+	{
+		return regions.get((int) (i / REGION_RECORDS));
+	}
+
+	private static int offset(long i)
+	{
+		return (int) (i % REGION_RECORDS) * RECORD_SIZE;
+	}
+
+	private int stepAt(long i)
+	{
+		return region(i).getInt(offset(i) + STEP_AT);
+	}
+
+	private Profile profile(int n, double mean, double variance)
+	{
+		Profile p = profileStandIns.get(n);
+		if (p == null) {
+			p = new Profile("p" + n, mean, variance, 0, 0, new HashMap<String, Double>());
+			profileStandIns.put(n, p);
+		}
+		return p;
+	}
+
+	private Agent standIn(int n, int role, int idNumber, Profile p)
+	{
+		Agent a = standIns.get(n);
+		if (a == null) {
+			String prefix = role == Agent.TRUSTOR ? "t" : "a";
+			a = new Agent(idNumber >= 0 ? prefix + idNumber : prefix + "?" + n, new NoTrust(),
+					new TrustorMostTrustedDM(), new TrusteeDefaultDM(), p, new HashMap<String, Integer>(), null);
+			a.setRole(role);
+			standIns.put(n, a);
+		}
+		return a;
+	}
+
+	/**
+	 * The society as it is played back
+	 */
+	private class Playback
+	{
+		private final Set<Agent> agents = new LinkedHashSet<Agent>();
+		private final Set<Agent> trustors = new LinkedHashSet<Agent>();
+		private List<List<Agent>> teams = Collections.emptyList();
+		private final Map<Agent, Map<Agent, Opinion>> opinions = new HashMap<Agent, Map<Agent, Opinion>>();
+		// opinions shared with the state played back from, until they change
+		private final Set<Agent> copied = new HashSet<Agent>();
+		private final Map<Agent, Agent> interactors = new HashMap<Agent, Agent>();
+
+		Playback(State from)
+		{
+			if (from != null) {
+				agents.addAll(from.getAgents());
+				trustors.addAll(from.getTrustors());
+				teams = from.getTeams();
+				opinions.putAll(from.getOpinions());
+			}
+		}
+
+		/**
+		 * Apply the records from i to the end of the given step
+		 */
+		void replay(long i, int last)
+		{
+			for (; i < records; i++) {
+				MappedByteBuffer region = region(i);
+				int at = offset(i);
+				int step = region.getInt(at + STEP_AT);
+				if (step > last)
+					break;
+				int x = region.getInt(at + TRUSTOR_AT);
+				int y = region.getInt(at + TRUSTEE_AT);
+				switch (region.get(at + KIND_AT)) {
+				case AGENT:
+					standIn(y, x, (int) region.getDouble(at + U_AT), profile((int) region.getDouble(at + A_AT),
+							region.getDouble(at + B_AT), region.getDouble(at + D_AT)));
+					break;
+				case JOIN:
+					(x == TRUSTORS ? trustors : agents).add(standIns.get(y));
+					break;
+				case LEAVE:
+					(x == TRUSTORS ? trustors : agents).remove(standIns.get(y));
+					break;
+				case TEAMS:
+					teams = new ArrayList<List<Agent>>(x);
+					for (int t = 0; t < x; t++)
+						teams.add(new ArrayList<Agent>());
+					break;
+				case MEMBER:
+					teams.get(x).add(standIns.get(y));
+					break;
+				case OPINION:
+					opinionsOf(standIns.get(x)).put(
+							standIns.get(y),
+							new Opinion(region.getDouble(at + B_AT), region.getDouble(at + D_AT), region.getDouble(at
+									+ U_AT), region.getDouble(at + A_AT)));
+					break;
+				case FORGET:
+					opinionsOf(standIns.get(x)).remove(standIns.get(y));
+					break;
+				case INTERACTION:
+					if (step == last)
+						interactors.put(standIns.get(x), standIns.get(y));
+					break;
+				}
+			}
+		}
+
+		private Map<Agent, Opinion> opinionsOf(Agent t)
+		{
+			Map<Agent, Opinion> tops = opinions.get(t);
+			if (copied.add(t)) {
+				tops = tops == null ? new HashMap<Agent, Opinion>() : new HashMap<Agent, Opinion>(tops);
+				opinions.put(t, tops);
+			}
+			return tops;
+		}
+
+		State toState(int index)
+		{
+			Map<List<Agent>, Boolean> seen = new IdentityHashMap<List<Agent>, Boolean>();
+			Map<Agent, List<Agent>> assignments = new HashMap<Agent, List<Agent>>();
+			for (List<Agent> team : teams)
+				if (seen.put(team, Boolean.TRUE) == null)
+					for (Agent a : team)
+						assignments.put(a, team);
+			// just the trustors in the society at the time
+			Map<Agent, Map<Agent, Opinion>> ops = new HashMap<Agent, Map<Agent, Opinion>>();
+			for (Agent t : trustors) {
+				Map<Agent, Opinion> tops = opinions.get(t);
+				ops.put(t, tops != null ? tops : new HashMap<Agent, Opinion>());
+			}
+			return new State(index, new ArrayList<Agent>(agents), new ArrayList<Agent>(trustors), teams,
+					assignments, ops, interactors);
+		}
+	}
+
+}
@@ -2,6 +2,7 @@ package uk.ac.abdn.csd.stereos.util.viewer;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -63,8 +64,19 @@ public class State
 		// the file anyway...
 		this.agents = new ArrayList<Agent>(agents);
 		this.trustors = new ArrayList<Agent>(trustors);
-		this.teams = new ArrayList<List<Agent>>(teams);
-		this.assignments = new HashMap<Agent, List<Agent>>(assignments);
+		// teams are live views, so copy their contents as they are now
+		this.teams = new ArrayList<List<Agent>>(teams.size());
+		Map<List<Agent>, List<Agent>> copies = new IdentityHashMap<List<Agent>, List<Agent>>();
+		for (List<Agent> team : teams) {
+			List<Agent> copy = new ArrayList<Agent>(team);
+			this.teams.add(copy);
+			copies.put(team, copy);
+		}
+		this.assignments = new HashMap<Agent, List<Agent>>();
+		for (Map.Entry<Agent, List<Agent>> e : assignments.entrySet()) {
+			List<Agent> copy = copies.get(e.getValue());
+			this.assignments.put(e.getKey(), copy != null ? copy : new ArrayList<Agent>(e.getValue()));
+		}
 		this.interactors = new HashMap<Agent, Agent>(interactors);
 		opinions = new HashMap<Agent, Map<Agent, Opinion>>();
 
@@ -83,6 +95,24 @@ public class State
 
 	}
 
+	/**
+	 * A state put back together from a recorded history - nothing is copied
+	 * 
+	 * @see History
+	 */
+	State(int timeStep, List<Agent> agents, List<Agent> trustors, List<List<Agent>> teams,
+			Map<Agent, List<Agent>> assignments, Map<Agent, Map<Agent, Opinion>> opinions,
+			Map<Agent, Agent> interactors)
+	{
+		this.timeStep = timeStep;
+		this.agents = agents;
+		this.trustors = trustors;
+		this.teams = teams;
+		this.assignments = assignments;
+		this.opinions = opinions;
+		this.interactors = interactors;
+	}
+
 	public Map<Agent, Map<Agent, Opinion>> getOpinions()
 	{
 		return opinions;
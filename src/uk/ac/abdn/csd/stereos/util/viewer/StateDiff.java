@@ -0,0 +1,185 @@
+package uk.ac.abdn.csd.stereos.util.viewer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import uk.ac.abdn.csd.stereos.agents.Agent;
+import uk.ac.abdn.csd.stereos.trust.TrustModel;
+import uk.ac.abdn.csd.stereos.trust.sl.Opinion;
+
+/**
+ * The society as it was last recorded, for working out what changed in a
+ * step. The agent lists, teams and assignments are copies, which are only
+ * replaced when something in them changes - so comparing them with the ones
+ * from before an update says whether they did.
+ *
+ * @author Chris Burnett
+ *
+ */
+class StateDiff
+{
+
+	List<Agent> agents = Collections.emptyList();
+	List<Agent> trustors = Collections.emptyList();
+	List<List<Agent>> teams = Collections.emptyList();
+	Map<Agent, List<Agent>> assignments = Collections.emptyMap();
+
+	/**
+	 * Every trustor's opinions (with uncertainty below 1), by trustor
+	 */
+	final Map<Agent, Map<Agent, Opinion>> opinions = new HashMap<Agent, Map<Agent, Opinion>>();
+
+	// the copy of each live team
+	private Map<List<Agent>, List<Agent>> teamCopies = new IdentityHashMap<List<Agent>, List<Agent>>();
+
+	/**
+	 * Bring the record up to date with the society
+	 *
+	 * @return the opinions that changed, by trustor, with null for any that
+	 *         have gone
+	 */
+	Map<Agent, Map<Agent, Opinion>> update(List<Agent> agents, List<Agent> trustors, List<List<Agent>> teams,
+			Map<Agent, List<Agent>> assignments)
+	{
+		if (!sameAgents(this.agents, agents))
+			this.agents = new ArrayList<Agent>(agents);
+		if (!sameAgents(this.trustors, trustors))
+			this.trustors = new ArrayList<Agent>(trustors);
+		boolean teamsChanged = !sameTeams(teams);
+		if (teamsChanged)
+			copyTeams(teams);
+		if (teamsChanged || !sameAssignments(assignments))
+			copyAssignments(assignments);
+		return updateOpinions(agents, trustors);
+	}
+
+	private Map<Agent, Map<Agent, Opinion>> updateOpinions(List<Agent> agents, List<Agent> trustors)
+	{
+		Map<Agent, Map<Agent, Opinion>> changes = new HashMap<Agent, Map<Agent, Opinion>>();
+		Set<Agent> present = null;
+		for (Agent t : trustors) {
+			TrustModel tm = t.getTrustModel();
+			Map<Agent, Opinion> known = opinions.get(t);
+			if (known == null) {
+				known = new HashMap<Agent, Opinion>();
+				opinions.put(t, known);
+			}
+			Map<Agent, Opinion> changed = null;
+			int kept = 0;
+			for (Agent a : agents) {
+				Opinion op = tm.opinionQuery(a);
+				Opinion was = known.get(a);
+				if (op.getUncertainty() < 1) {
+					kept++;
+					if (was != null && same(was, op))
+						continue;
+					// copied, in case the model changes it later
+					Opinion copy = new Opinion(op);
+					known.put(a, copy);
+					changed = put(changes, changed, t, a, copy);
+				} else if (was != null) {
+					known.remove(a);
+					changed = put(changes, changed, t, a, null);
+				}
+			}
+			// opinions about agents that have left
+			if (known.size() > kept) {
+				if (present == null)
+					present = new HashSet<Agent>(agents);
+				Iterator<Agent> it = known.keySet().iterator();
+				while (it.hasNext()) {
+					Agent a = it.next();
+					if (!present.contains(a)) {
+						it.remove();
+						changed = put(changes, changed, t, a, null);
+					}
+				}
+			}
+		}
+		// forget trustors that have left
+		if (opinions.size() > trustors.size())
+			opinions.keySet().retainAll(new HashSet<Agent>(trustors));
+		return changes;
+	}
+
+	private static Map<Agent, Opinion> put(Map<Agent, Map<Agent, Opinion>> changes, Map<Agent, Opinion> changed,
+			Agent t, Agent a, Opinion op)
+	{
+		if (changed == null) {
+			changed = new HashMap<Agent, Opinion>();
+			changes.put(t, changed);
+		}
+		changed.put(a, op);
+		return changed;
+	}
+
+	private static boolean same(Opinion x, Opinion y)
+	{
+		return x.getBelief() == y.getBelief() && x.getDisbelief() == y.getDisbelief()
+				&& x.getUncertainty() == y.getUncertainty() && x.getBaseRate() == y.getBaseRate()
+				&& x.getPositives() == y.getPositives() && x.getNegatives() == y.getNegatives();
+	}
+
+	private static boolean sameAgents(List<Agent> recorded, List<Agent> current)
+	{
+		if (recorded.size() != current.size())
+			return false;
+		for (int i = 0; i < current.size(); i++)
+			if (recorded.get(i) != current.get(i))
+				return false;
+		return true;
+	}
+
+	private boolean sameTeams(List<List<Agent>> current)
+	{
+		if (teams.size() != current.size())
+			return false;
+		for (int i = 0; i < current.size(); i++) {
+			// teams are live views, so the same list may have new members
+			List<Agent> team = current.get(i);
+			if (teamCopies.get(team) != teams.get(i) || !sameAgents(teams.get(i), team))
+				return false;
+		}
+		return true;
+	}
+
+	private void copyTeams(List<List<Agent>> current)
+	{
+		teams = new ArrayList<List<Agent>>(current.size());
+		teamCopies = new IdentityHashMap<List<Agent>, List<Agent>>();
+		for (List<Agent> team : current) {
+			List<Agent> copy = new ArrayList<Agent>(team);
+			teams.add(copy);
+			teamCopies.put(team, copy);
+		}
+	}
+
+	private boolean sameAssignments(Map<Agent, List<Agent>> current)
+	{
+		if (assignments.size() != current.size())
+			return false;
+		for (Map.Entry<Agent, List<Agent>> e : current.entrySet()) {
+			List<Agent> copy = teamCopies.get(e.getValue());
+			if (copy == null || assignments.get(e.getKey()) != copy)
+				return false;
+		}
+		return true;
+	}
+
+	private void copyAssignments(Map<Agent, List<Agent>> current)
+	{
+		assignments = new HashMap<Agent, List<Agent>>();
+		for (Map.Entry<Agent, List<Agent>> e : current.entrySet()) {
+			List<Agent> copy = teamCopies.get(e.getValue());
+			assignments.put(e.getKey(), copy != null ? copy : new ArrayList<Agent>(e.getValue()));
+		}
+	}
+
+}